@@ -0,0 +1,106 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import player.AbcGenerator;
+import player.Main;
+
+/**
+ * The tunes the benchmarks run on, by name:
+ *  - sample: the files of sample_abc/
+ *  - sample-x100: the same files, each with its body repeated 100 times
+ *  - generated: 20 tunes of 4 voices of 200 bars from the AbcGenerator, dense in chords, tuplets,
+ *    accidentals and nested repeats
+ *
+ * The sample directory is read from the abcplayer.samples system property, which the build
+ * sets, or sample_abc/ in the working directory.
+ */
+public class Corpus {
+
+    /**
+     * Loads a corpus
+     * @param name the name of the corpus
+     * @return the tunes of the corpus
+     * @throws IOException if a sample file cannot be read
+     */
+    public static List<String> load(String name) throws IOException {
+        if (name.equals("sample")) {
+            return load(1);
+        } else if (name.equals("sample-x100")) {
+            return load(100);
+        } else if (name.equals("generated")) {
+            AbcGenerator generator = new AbcGenerator(1);
+            generator.setVoices(4);
+            generator.setBars(200);
+            generator.setChordDensity(0.2);
+            generator.setTupletDensity(0.2);
+            generator.setRepeatDepth(2);
+            generator.setAccidentalDensity(0.2);
+
+            List<String> tunes = new ArrayList<String>();
+            for (int i=1;i<=20;i++) {
+                tunes.add(generator.generateTune(i));
+            }
+            return tunes;
+        }
+        throw new IllegalArgumentException("Unknown corpus: " + name);
+    }
+
+    /**
+     * Reads the sample tunes
+     * @param scale the number of times to repeat the body of each tune, 1 for the files as they are
+     * @return the tunes, in file name order
+     * @throws IOException if a sample file cannot be read
+     */
+    public static List<String> load(int scale) throws IOException {
+        File dir = new File(System.getProperty("abcplayer.samples", "sample_abc"));
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("No sample directory at " + dir.getAbsolutePath());
+        }
+        Arrays.sort(files);
+
+        List<String> tunes = new ArrayList<String>();
+        for (File f : files) {
+            tunes.add(scale(Main.readFile(f.getPath()) + "\n", scale));
+        }
+        return tunes;
+    }
+
+    /**
+     * Repeats the body of a tune, the part after its K: line
+     * @param tune the tune
+     * @param scale the number of times the body appears in the result
+     * @return the header of the tune followed by scale copies of its body
+     */
+    public static String scale(String tune, int scale) {
+        int key = tune.startsWith("K:") ? 0 : tune.indexOf("\nK:") + 1;
+        int bodyStart = tune.indexOf('\n', key) + 1;
+        String body = tune.substring(bodyStart);
+        if (!body.endsWith("\n")) {
+            body = body + "\n";
+        }
+
+        StringBuilder result = new StringBuilder(tune.substring(0, bodyStart));
+        for (int i=0;i<scale;i++) {
+            result.append(body);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Counts the characters of some tunes
+     * @param tunes the tunes
+     * @return the total length of the tunes
+     */
+    public static long length(List<String> tunes) {
+        long length = 0;
+        for (String tune : tunes) {
+            length += tune.length();
+        }
+        return length;
+    }
+}
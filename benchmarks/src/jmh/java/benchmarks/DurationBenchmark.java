@@ -0,0 +1,55 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import ast.Song;
+import player.DurationVisitor;
+import player.Parser;
+import player.ScanningLexer;
+
+/**
+ * Runs the DurationVisitor over every tune of the corpus, parsed beforehand
+ */
+@State(Scope.Benchmark)
+public class DurationBenchmark {
+
+    @Param({"sample", "sample-x100", "generated"})
+    public String corpus;
+
+    private List<Song> songs;
+
+    /**
+     * Loads and parses the corpus
+     */
+    @Setup
+    public void setup() throws IOException {
+        songs = new ArrayList<Song>();
+        for (String tune : Corpus.load(corpus)) {
+            ScanningLexer lexer = new ScanningLexer(tune);
+            Parser parser = new Parser();
+            parser.parse(lexer.lexHead(), lexer.lexBodyBuffer());
+            songs.add(parser.getSong());
+        }
+    }
+
+    /**
+     * Finds the ticks per quarter note of every song
+     * @return the sum of the ticks per quarter note, so that none of the work is dead code
+     */
+    @Benchmark
+    public long ticksPerQuarter() {
+        long sum = 0;
+        for (Song song : songs) {
+            DurationVisitor durationV = new DurationVisitor();
+            durationV.visit(song);
+            sum += durationV.getTicksPerQuarter(song.getDefaultNoteLength());
+        }
+        return sum;
+    }
+}
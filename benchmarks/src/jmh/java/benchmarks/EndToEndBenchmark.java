@@ -0,0 +1,75 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import ast.Song;
+import player.DurationVisitor;
+import player.Lexer;
+import player.Parser;
+import player.PlayerVisitor;
+import player.ScanningLexer;
+
+/**
+ * Takes every tune of the corpus from text to a MIDI sequence, as Main.play does before playing
+ */
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+
+    @Param({"sample", "sample-x100", "generated"})
+    public String corpus;
+
+    private List<String> tunes;
+
+    /**
+     * Loads the corpus
+     */
+    @Setup
+    public void setup() throws IOException {
+        tunes = Corpus.load(corpus);
+    }
+
+    /**
+     * Resolves the durations of a parsed song and renders it
+     * @param song the song
+     * @return the visitor holding the SequencePlayer
+     */
+    private PlayerVisitor render(Song song) {
+        DurationVisitor durationV = new DurationVisitor();
+        durationV.visit(song);
+        PlayerVisitor visitor = new PlayerVisitor(durationV.getTicksPerQuarter(song.getDefaultNoteLength()), song.getTempo(), song.getDefaultNoteLength());
+        visitor.visit(song);
+        return visitor;
+    }
+
+    /**
+     * Uses the regex Lexer
+     */
+    @Benchmark
+    public void regex(Blackhole bh) {
+        for (String tune : tunes) {
+            Lexer lexer = new Lexer(tune);
+            Parser parser = new Parser();
+            parser.parse(lexer.lexHead(), lexer.lexBody());
+            bh.consume(render(parser.getSong()).getPlayer());
+        }
+    }
+
+    /**
+     * Uses the ScanningLexer and TokenBuffer
+     */
+    @Benchmark
+    public void scanning(Blackhole bh) {
+        for (String tune : tunes) {
+            ScanningLexer lexer = new ScanningLexer(tune);
+            Parser parser = new Parser();
+            parser.parse(lexer.lexHead(), lexer.lexBodyBuffer());
+            bh.consume(render(parser.getSong()).getPlayer());
+        }
+    }
+}
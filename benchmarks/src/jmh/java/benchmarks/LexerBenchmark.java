@@ -0,0 +1,78 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import player.Lexer;
+import player.ScanningLexer;
+import player.StreamingLexer;
+
+/**
+ * Lexes every tune of the corpus, with each of the lexers
+ */
+@State(Scope.Benchmark)
+public class LexerBenchmark {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Param({"sample", "sample-x100", "generated"})
+    public String corpus;
+
+    private List<String> tunes;
+    private List<byte[]> encoded;
+
+    /**
+     * Loads the corpus, and encodes it for the StreamingLexer
+     */
+    @Setup
+    public void setup() throws IOException {
+        tunes = Corpus.load(corpus);
+        encoded = new ArrayList<byte[]>();
+        for (String tune : tunes) {
+            encoded.add(tune.getBytes(UTF8));
+        }
+    }
+
+    /**
+     * Lexes with the regex Lexer
+     */
+    @Benchmark
+    public void regex(Blackhole bh) {
+        for (String tune : tunes) {
+            Lexer lexer = new Lexer(tune);
+            bh.consume(lexer.lexHead());
+            bh.consume(lexer.lexBody());
+        }
+    }
+
+    /**
+     * Lexes with the ScanningLexer
+     */
+    @Benchmark
+    public void scanning(Blackhole bh) {
+        for (String tune : tunes) {
+            ScanningLexer lexer = new ScanningLexer(tune);
+            bh.consume(lexer.lexHead());
+            bh.consume(lexer.lexBodyBuffer());
+        }
+    }
+
+    /**
+     * Decodes and lexes with the StreamingLexer
+     */
+    @Benchmark
+    public void streaming(Blackhole bh) {
+        for (byte[] tune : encoded) {
+            StreamingLexer lexer = StreamingLexer.forBuffer(ByteBuffer.wrap(tune), UTF8);
+            bh.consume(lexer.lexHead());
+            bh.consume(lexer.lexBodyBuffer());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import player.Parser;
+import player.ScanningLexer;
+import player.Token;
+import player.TokenBuffer;
+
+/**
+ * Parses every tune of the corpus from tokens lexed beforehand
+ */
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+
+    @Param({"sample", "sample-x100", "generated"})
+    public String corpus;
+
+    private List<ArrayList<Token>> heads;
+    private List<TokenBuffer> bodies;
+
+    /**
+     * Loads and lexes the corpus
+     */
+    @Setup
+    public void setup() throws IOException {
+        heads = new ArrayList<ArrayList<Token>>();
+        bodies = new ArrayList<TokenBuffer>();
+        for (String tune : Corpus.load(corpus)) {
+            ScanningLexer lexer = new ScanningLexer(tune);
+            heads.add(lexer.lexHead());
+            bodies.add(lexer.lexBodyBuffer());
+        }
+    }
+
+    /**
+     * Parses the tokens into Songs
+     */
+    @Benchmark
+    public void parse(Blackhole bh) {
+        for (int i=0;i<bodies.size();i++) {
+            Parser parser = new Parser();
+            parser.parse(heads.get(i), bodies.get(i));
+            bh.consume(parser.getSong());
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import ast.Song;
+import player.DurationVisitor;
+import player.Parser;
+import player.PlayerVisitor;
+import player.ScanningLexer;
+
+/**
+ * Renders every tune of the corpus to a MIDI sequence with the PlayerVisitor, without playing it
+ */
+@State(Scope.Benchmark)
+public class RenderBenchmark {
+
+    @Param({"sample", "sample-x100", "generated"})
+    public String corpus;
+
+    private List<Song> songs;
+    private List<Integer> ticksPerQuarter;
+
+    /**
+     * Loads, parses and resolves the durations of the corpus
+     */
+    @Setup
+    public void setup() throws IOException {
+        songs = new ArrayList<Song>();
+        ticksPerQuarter = new ArrayList<Integer>();
+        for (String tune : Corpus.load(corpus)) {
+            ScanningLexer lexer = new ScanningLexer(tune);
+            Parser parser = new Parser();
+            parser.parse(lexer.lexHead(), lexer.lexBodyBuffer());
+            DurationVisitor durationV = new DurationVisitor();
+            durationV.visit(parser.getSong());
+            songs.add(parser.getSong());
+            ticksPerQuarter.add(durationV.getTicksPerQuarter(parser.getSong().getDefaultNoteLength()));
+        }
+    }
+
+    /**
+     * Builds the MIDI sequence of every song
+     */
+    @Benchmark
+    public void render(Blackhole bh) {
+        for (int i=0;i<songs.size();i++) {
+            Song song = songs.get(i);
+            PlayerVisitor visitor = new PlayerVisitor(ticksPerQuarter.get(i), song.getTempo(), song.getDefaultNoteLength());
+            visitor.visit(song);
+            bh.consume(visitor.getPlayer());
+        }
+    }
+}
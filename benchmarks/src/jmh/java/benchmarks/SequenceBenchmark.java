@@ -0,0 +1,84 @@
+package benchmarks;
+
+import java.util.Random;
+import javax.sound.midi.Sequence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import sound.SequencePlayer;
+
+/**
+ * Builds a MIDI sequence of a million events, half a million notes in a few voices, from a
+ * SequencePlayer filled note by note and from one filled a whole voice at a time
+ */
+@State(Scope.Benchmark)
+public class SequenceBenchmark {
+
+    @Param({"1000000"})
+    public int events;
+
+    @Param({"1", "4"})
+    public int voices;
+
+    private int[][] notes;
+    private int[][] startTicks;
+    private int[][] numTicks;
+
+    /**
+     * Makes up the voices, each a run of notes and chords in order of their start ticks
+     */
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        int perVoice = events / 2 / voices;
+        notes = new int[voices][perVoice];
+        startTicks = new int[voices][perVoice];
+        numTicks = new int[voices][perVoice];
+        for (int v = 0; v < voices; v++) {
+            int tick = 0;
+            for (int i = 0; i < perVoice; i++) {
+                notes[v][i] = 48 + random.nextInt(36);
+                startTicks[v][i] = tick;
+                numTicks[v][i] = 1 + random.nextInt(8);
+                // one note in four is part of a chord with the next one
+                if (random.nextInt(4) != 0) {
+                    tick += numTicks[v][i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds every note on its own, then builds the sequence
+     */
+    @Benchmark
+    public Sequence addNote() throws Exception {
+        SequencePlayer player = new SequencePlayer(120, 4);
+        for (int v = 0; v < voices; v++) {
+            if (v > 0) {
+                player.newTrack();
+            }
+            for (int i = 0; i < notes[v].length; i++) {
+                player.addNote(notes[v][i], startTicks[v][i], numTicks[v][i]);
+            }
+        }
+        return player.getSequence();
+    }
+
+    /**
+     * Adds the notes of each voice in one go, then builds the sequence
+     */
+    @Benchmark
+    public Sequence addNotes() throws Exception {
+        SequencePlayer player = new SequencePlayer(120, 4);
+        for (int v = 0; v < voices; v++) {
+            if (v > 0) {
+                player.newTrack();
+            }
+            player.addNotes(notes[v], startTicks[v], numTicks[v]);
+        }
+        return player.getSequence();
+    }
+}
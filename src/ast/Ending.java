@@ -0,0 +1,76 @@
+package ast;
+
+import java.util.List;
+import player.RationalNumber;
+
+/**
+ * Class representing a first ending, from a [1 to the next bar line, repeat or [2
+ * It is only played the first time through the Repeat it is in.
+ */
+public class Ending implements NoteElement {
+    private List<NoteElement> notes;
+
+    /**
+     * Creates an Ending object
+     * @param notes the notes in the ending
+     */
+    public Ending(List<NoteElement> notes) {
+        this.notes = notes;
+    }
+
+    /**
+     * Gets the notes in the ending
+     * @return the notes in the ending
+     */
+    public List<NoteElement> getNotes() {
+        return notes;
+    }
+
+    /**
+     * Gets the duration of the ending, when it is played
+     * @return the duration of the notes in the ending
+     */
+    @Override
+    public RationalNumber getDuration() {
+        RationalNumber result = RationalNumber.valueOf(0, 1);
+        for (NoteElement n: notes)
+            result = result.add(n.getDuration());
+        return result;
+    }
+
+    /**
+     * Accepts a visitor
+     */
+    @Override
+    public <E> E accept(Visitor<E> v) {
+        return v.visit(this);
+    }
+
+    /**
+     * Checks if an Ending is equal to another Ending
+     * @param o the Object to compare to
+     * @return true if equal, else false
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { // quick check
+            return true;
+        }
+
+        if (o == null || !(o instanceof Ending)) {
+            return false;
+        }
+
+        Ending other = (Ending)o;
+        return this.notes.equals(other.notes);
+    }
+
+    /**
+     * Gets the string representation of an Ending
+     * @return the string representation of an Ending
+     */
+    @Override
+    public String toString() {
+        return "Ending [notes=" + notes + "]";
+    }
+}
@@ -17,6 +17,8 @@ public interface NoteElement {
         public E visit(Duplet d);
         public E visit(Triplet t);
         public E visit(Quadruplet q);
+        public E visit(Repeat r);
+        public E visit(Ending e);
         public E visit(Voice v);
         public E visit(Song s);
     }
@@ -0,0 +1,116 @@
+package ast;
+
+import java.util.ArrayList;
+import java.util.List;
+import player.RationalNumber;
+
+/**
+ * Class representing a repeated section, from a |: or || (or the start of the voice) to a :|
+ *
+ * The section is played twice. The second time through, any Ending in it is skipped and any
+ * Repeat nested in it is played only once. The notes are not copied for the second pass,
+ * it plays the same NoteElements again.
+ */
+public class Repeat implements NoteElement {
+    private List<NoteElement> notes;
+    private List<Integer> barLines;     //the indexes of the notes a bar line is before
+
+    /**
+     * Creates a Repeat object without bar lines
+     * @param notes the notes in the repeated section, including its Endings
+     */
+    public Repeat(List<NoteElement> notes) {
+        this(notes, new ArrayList<Integer>());
+    }
+
+    /**
+     * Creates a Repeat object
+     * @param notes the notes in the repeated section, including its Endings
+     * @param barLines the indexes of the notes a bar line is before, in ascending order
+     */
+    public Repeat(List<NoteElement> notes, List<Integer> barLines) {
+        this.notes = notes;
+        this.barLines = barLines;
+    }
+
+    /**
+     * Gets the notes in the repeated section
+     * @return the notes in the repeated section
+     */
+    public List<NoteElement> getNotes() {
+        return notes;
+    }
+
+    /**
+     * Gets the bar lines inside the repeated section. They are not part of what equals compares.
+     * The section starts a bar when it is played again, so a bar line before its first note is not kept.
+     * @return the indexes of the notes a bar line is before, in ascending order
+     */
+    public List<Integer> getBarLines() {
+        return barLines;
+    }
+
+    /**
+     * Gets the duration of both passes through the section
+     * @return the duration of the section as played
+     */
+    @Override
+    public RationalNumber getDuration() {
+        RationalNumber result = RationalNumber.valueOf(0, 1);
+        for (NoteElement n: notes)
+            result = result.add(n.getDuration());
+        return result.add(getReplayDuration());
+    }
+
+    /**
+     * Gets the duration of the second pass through the section, without its Endings
+     * @return the duration of the section when it is played again
+     */
+    public RationalNumber getReplayDuration() {
+        RationalNumber result = RationalNumber.valueOf(0, 1);
+        for (NoteElement n: notes) {
+            if (n instanceof Repeat) {
+                result = result.add(((Repeat) n).getReplayDuration());
+            } else if (!(n instanceof Ending)) {
+                result = result.add(n.getDuration());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Accepts a visitor
+     */
+    @Override
+    public <E> E accept(Visitor<E> v) {
+        return v.visit(this);
+    }
+
+    /**
+     * Checks if a Repeat is equal to another Repeat
+     * @param o the Object to compare to
+     * @return true if equal, else false
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { // quick check
+            return true;
+        }
+
+        if (o == null || !(o instanceof Repeat)) {
+            return false;
+        }
+
+        Repeat other = (Repeat)o;
+        return this.notes.equals(other.notes);
+    }
+
+    /**
+     * Gets the string representation of a Repeat
+     * @return the string representation of a Repeat
+     */
+    @Override
+    public String toString() {
+        return "Repeat [notes=" + notes + "]";
+    }
+}
@@ -26,8 +26,8 @@ public class Song implements NoteElement {
      * Creates a Song object
      */
     public Song() {
-        this.meter = new RationalNumber(4,4);
-        this.defaultNoteLength = new RationalNumber(1,8);
+        this.meter = RationalNumber.valueOf(4,4);
+        this.defaultNoteLength = RationalNumber.valueOf(1,8);
         this.tempo = 100;
     }
     
@@ -53,6 +53,47 @@ public class Song implements NoteElement {
         currentVoice.addNote(e);
     }
     
+    /**
+     * Counts the NoteElements of the current Voice
+     * @return the number of NoteElements in the current Voice, 0 if there is none
+     */
+    public int countNotes() {
+        return currentVoice == null ? 0 : currentVoice.getNotes().size();
+    }
+
+    /**
+     * Removes the last NoteElements of the current Voice, e.g. to put them into a Repeat
+     * @param from the index of the first NoteElement to remove
+     * @return the removed NoteElements, in order
+     */
+    public List<NoteElement> removeNotesFrom(int from) {
+        if (currentVoice == null) {
+            return new ArrayList<NoteElement>();
+        }
+        return currentVoice.removeNotesFrom(from);
+    }
+
+    /**
+     * Marks a bar line in the current Voice, after the NoteElements added so far
+     */
+    public void addBarLine() {
+        if (currentVoice != null) {
+            currentVoice.addBarLine();
+        }
+    }
+
+    /**
+     * Removes the bar lines between the last NoteElements of the current Voice, e.g. to put them into a Repeat
+     * @param from the index of the first NoteElement
+     * @return the removed bar lines, as indexes from that NoteElement, in order
+     */
+    public List<Integer> removeBarLinesFrom(int from) {
+        if (currentVoice == null) {
+            return new ArrayList<Integer>();
+        }
+        return currentVoice.removeBarLinesFrom(from);
+    }
+
     /**
      * Adds a Voice to the song
      * @param v the Voice to add
@@ -86,7 +127,7 @@ public class Song implements NoteElement {
      */
     @Override
     public RationalNumber getDuration() {
-        RationalNumber result = new RationalNumber(0, 1);
+        RationalNumber result = RationalNumber.valueOf(0, 1);
         for (Voice v: this.voices.values()) {
             result = result.add(v.getDuration());
         }
@@ -9,6 +9,7 @@ import player.RationalNumber;
  */
 public class Voice implements NoteElement {
     private List<NoteElement> notes = new ArrayList<NoteElement>();
+    private List<Integer> barLines = new ArrayList<Integer>();     //the indexes of the notes a bar line is before
     private String name;
     
     /**
@@ -33,6 +34,58 @@ public class Voice implements NoteElement {
         notes.add(e);
     }
     
+    /**
+     * Removes the last notes of the voice, e.g. to put them into a Repeat
+     * @param from the index of the first note to remove
+     * @return the removed notes, in order
+     */
+    public List<NoteElement> removeNotesFrom(int from) {
+        List<NoteElement> tail = notes.subList(from, notes.size());
+        List<NoteElement> removed = new ArrayList<NoteElement>(tail);
+        tail.clear();
+        return removed;
+    }
+
+    /**
+     * Marks a bar line after the notes added so far, unless one is already there.
+     * A bar line before the first note is not kept, the voice starts a bar anyway.
+     */
+    public void addBarLine() {
+        int at = notes.size();
+        if (at > 0 && (barLines.isEmpty() || barLines.get(barLines.size()-1) < at)) {
+            barLines.add(at);
+        }
+    }
+
+    /**
+     * Removes the bar lines between the last notes of the voice, e.g. to put them into a Repeat
+     * with the notes removeNotesFrom removes. A bar line before the first of them is kept.
+     * @param from the index of the first note
+     * @return the removed bar lines, as indexes from the first note, in order
+     */
+    public List<Integer> removeBarLinesFrom(int from) {
+        int first = barLines.size();
+        while (first > 0 && barLines.get(first-1) > from) {
+            first--;
+        }
+        List<Integer> tail = barLines.subList(first, barLines.size());
+        List<Integer> removed = new ArrayList<Integer>(tail.size());
+        for (int at : tail) {
+            removed.add(at - from);
+        }
+        tail.clear();
+        return removed;
+    }
+
+    /**
+     * Gets the bar lines of the voice. They are not part of what equals compares,
+     * they tell where the bars are played, not what is played.
+     * @return the indexes of the notes a bar line is before, in ascending order
+     */
+    public List<Integer> getBarLines() {
+        return barLines;
+    }
+
     /**
      * Gets the notes in the voice
      * @return the notes in the voice
@@ -63,7 +116,7 @@ public class Voice implements NoteElement {
      */
     @Override
     public RationalNumber getDuration() {
-        RationalNumber result = new RationalNumber(0, 1);
+        RationalNumber result = RationalNumber.valueOf(0, 1);
         for (NoteElement n: notes)
             result = result.add(n.getDuration());
         return result;
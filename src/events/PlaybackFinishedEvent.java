@@ -0,0 +1,23 @@
+package events;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorded when the sequencer stops playing a tune, lasting from the start of the playback
+ */
+@Name("abcplayer.PlaybackFinished")
+@Label("Playback Finished")
+@Description("The sequencer stopped playing a tune")
+public class PlaybackFinishedEvent extends TuneEvent {
+    @Label("Ticks")
+    public long ticks;
+
+    @Label("Beats per Minute")
+    public int beatsPerMinute;
+
+    @Label("Completed")
+    @Description("False if the playback failed before the end of the track")
+    public boolean completed;
+}
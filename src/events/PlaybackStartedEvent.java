@@ -0,0 +1,19 @@
+package events;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorded when the sequencer starts playing a tune
+ */
+@Name("abcplayer.PlaybackStarted")
+@Label("Playback Started")
+@Description("The sequencer started playing a tune")
+public class PlaybackStartedEvent extends TuneEvent {
+    @Label("Ticks")
+    public long ticks;
+
+    @Label("Beats per Minute")
+    public int beatsPerMinute;
+}
@@ -0,0 +1,27 @@
+package events;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorded when the PlayerVisitor has built the MIDI tracks of every voice of a tune,
+ * lasting as long as the whole Song was visited
+ */
+@Name("abcplayer.TrackBuilt")
+@Label("MIDI Track Built")
+@Description("The MIDI tracks of all the voices of a tune were built")
+public class TrackBuiltEvent extends TuneEvent {
+    @Label("Tracks")
+    public int tracks;
+
+    @Label("MIDI Events")
+    public int midiEvents;
+
+    @Label("Ticks")
+    @Description("The length of the sequence in ticks")
+    public long ticks;
+
+    @Label("Ticks per Quarter Note")
+    public int ticksPerQuarter;
+}
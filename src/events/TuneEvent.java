@@ -0,0 +1,31 @@
+package events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * Base class of the Java Flight Recorder events of the player, which all say which tune they are about.
+ *
+ * The events are only recorded while a recording with them enabled is running, e.g.
+ *   java -XX:StartFlightRecording=filename=abc.jfr player.Main
+ * Otherwise creating and committing them costs next to nothing.
+ */
+@Category("abcplayer")
+public abstract class TuneEvent extends Event {
+    @Label("Title")
+    public String title;
+
+    @Label("Index")
+    public int index;
+
+    /**
+     * Sets the tune the event is about
+     * @param title the T: field of the tune
+     * @param index the X: field of the tune
+     */
+    public void setTune(String title, int index) {
+        this.title = title;
+        this.index = index;
+    }
+}
@@ -0,0 +1,36 @@
+package events;
+
+import java.util.List;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import player.Token;
+
+/**
+ * Recorded when the header and body of a tune have been lexed, lasting as long as the lexing
+ */
+@Name("abcplayer.TuneLexed")
+@Label("Tune Lexed")
+@Description("The header and body of a tune were lexed")
+public class TuneLexedEvent extends TuneEvent {
+    @Label("Header Tokens")
+    public int headTokens;
+
+    @Label("Body Tokens")
+    public int bodyTokens;
+
+    /**
+     * Sets the tune from its header tokens, and counts them
+     * @param head the header tokens
+     */
+    public void setHead(List<Token> head) {
+        headTokens = head.size();
+        for (Token t : head) {
+            if (t.getType() == Token.Type.TITLE) {
+                title = t.getValue();
+            } else if (t.getType() == Token.Type.INDEX) {
+                index = Integer.parseInt(t.getValue());
+            }
+        }
+    }
+}
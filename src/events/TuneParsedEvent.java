@@ -0,0 +1,23 @@
+package events;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorded when the tokens of a tune have been parsed into a Song, lasting as long as the parsing
+ */
+@Name("abcplayer.TuneParsed")
+@Label("Tune Parsed")
+@Description("The tokens of a tune were parsed into a Song")
+public class TuneParsedEvent extends TuneEvent {
+    @Label("Body Tokens")
+    public int bodyTokens;
+
+    @Label("Voices")
+    public int voices;
+
+    @Label("Notes")
+    @Description("NoteElements directly in the voices")
+    public int notes;
+}
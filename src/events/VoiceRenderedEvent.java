@@ -0,0 +1,24 @@
+package events;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorded when the PlayerVisitor has added the notes of a voice to its track
+ */
+@Name("abcplayer.VoiceRendered")
+@Label("Voice Rendered")
+@Description("The notes of a voice were added to its MIDI track")
+public class VoiceRenderedEvent extends TuneEvent {
+    @Label("Voice")
+    public String voice;
+
+    @Label("Notes")
+    @Description("NoteElements directly in the voice")
+    public int notes;
+
+    @Label("Ticks")
+    @Description("The tick the voice ends on")
+    public long ticks;
+}
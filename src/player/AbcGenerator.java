@@ -0,0 +1,395 @@
+package player;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Generates random tunes and songbooks in the grammar of docs/Grammar, for scale and stress tests.
+ *
+ * The output only depends on the seed and the settings: the same generator always writes the same
+ * text, and tune i of a songbook is the same whatever the size of the songbook. Every tune is in 4/4
+ * with L:1/8, and every bar of every voice adds up to exactly one measure.
+ *
+ * Songbooks are written to an Appendable one tune at a time, so they can be far bigger than memory.
+ * It can also be run from the command line, see main.
+ */
+public class AbcGenerator {
+    private static final String[] KEYS = {"C", "G", "D", "A", "E", "B", "F", "Bb", "Eb", "Ab", "Db", "Gb",
+        "Am", "Em", "Bm", "Dm", "Gm", "Cm", "Fm"};
+    private static final String LETTERS = "CDEFGABcdefgab";
+    private static final String[] ACCIDENTALS = {"^", "^^", "_", "__", "="};
+    private static final int BAR_LENGTH = 16;       // in sixteenth notes, 4/4
+    private static final int BARS_PER_SECTION = 4;  // bars per line, and per repeated section
+    private static final int[] LENGTHS = {1, 2, 3, 4, 6, 8};
+    private static final String[] LENGTH_TEXT = {"/", "", "3/2", "2", "3", "4"};
+
+    private final long seed;
+    private int bars = 32;
+    private int voices = 1;
+    private double chordDensity = 0.1;
+    private double tupletDensity = 0.1;
+    private int repeatDepth = 1;
+    private double accidentalDensity = 0.05;
+
+    /**
+     * Creates an AbcGenerator with the default settings: 32 bars of one voice per tune, repeats
+     * without nesting, and some chords, tuplets and accidentals
+     * @param seed the seed of the random tunes
+     */
+    public AbcGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the length of the tunes
+     * @param bars the number of bars in each voice of a tune, at least 1
+     */
+    public void setBars(int bars) {
+        if (bars < 1) {
+            throw new IllegalArgumentException("bars must be at least 1: " + bars);
+        }
+        this.bars = bars;
+    }
+
+    /**
+     * Sets the number of voices
+     * @param voices the number of voices in each tune, at least 1
+     */
+    public void setVoices(int voices) {
+        if (voices < 1) {
+            throw new IllegalArgumentException("voices must be at least 1: " + voices);
+        }
+        this.voices = voices;
+    }
+
+    /**
+     * Sets how often chords appear
+     * @param density the probability that a note element is a chord, from 0 to 1
+     */
+    public void setChordDensity(double density) {
+        this.chordDensity = checkDensity(density);
+    }
+
+    /**
+     * Sets how often tuplets appear
+     * @param density the probability that a note element is a duplet, triplet or quadruplet, from 0 to 1
+     */
+    public void setTupletDensity(double density) {
+        this.tupletDensity = checkDensity(density);
+    }
+
+    /**
+     * Sets how deep repeats are nested. Every section of four bars is repeated to a random depth
+     * up to this one, and a section repeated once may have a first and second ending.
+     * @param depth the deepest nesting of repeats, 0 for no repeats
+     */
+    public void setRepeatDepth(int depth) {
+        if (depth < 0 || depth >= BARS_PER_SECTION) {
+            throw new IllegalArgumentException("repeat depth must be from 0 to " + (BARS_PER_SECTION - 1) + ": " + depth);
+        }
+        this.repeatDepth = depth;
+    }
+
+    /**
+     * Sets how often accidentals appear
+     * @param density the probability that a note has an accidental, from 0 to 1
+     */
+    public void setAccidentalDensity(double density) {
+        this.accidentalDensity = checkDensity(density);
+    }
+
+    /**
+     * Checks a density setting
+     * @param density the density
+     * @return the density, if it is from 0 to 1
+     */
+    private static double checkDensity(double density) {
+        if (!(density >= 0 && density <= 1)) {
+            throw new IllegalArgumentException("density must be from 0 to 1: " + density);
+        }
+        return density;
+    }
+
+    /**
+     * Generates one tune
+     * @param index the index of the tune, which picks its random numbers and is its X: number
+     * @return the tune, ending with a newline
+     */
+    public String generateTune(int index) {
+        Random random = new Random(seed * 31 + index);
+        StringBuilder tune = new StringBuilder();
+
+        tune.append("X:").append(index).append('\n');
+        tune.append("T:Generated tune\n");
+        tune.append("C:AbcGenerator\n");
+        tune.append("M:4/4\n");
+        tune.append("L:1/8\n");
+        tune.append("Q:").append(60 + random.nextInt(141)).append('\n');
+        if (voices > 1) {
+            for (int v=1;v<=voices;v++) {
+                tune.append("V:").append(v).append('\n');
+            }
+        }
+        tune.append("K:").append(KEYS[random.nextInt(KEYS.length)]).append('\n');
+
+        for (int bar=0;bar<bars;bar+=BARS_PER_SECTION) {
+            // every voice of a section is repeated the same way, so that the voices stay together
+            int sectionBars = Math.min(BARS_PER_SECTION, bars - bar);
+            int depth = Math.min(random.nextInt(repeatDepth + 1), sectionBars);
+            boolean endings = depth == 1 && sectionBars >= 3 && random.nextBoolean();
+            for (int v=1;v<=voices;v++) {
+                if (voices > 1) {
+                    tune.append("V:").append(v).append('\n');
+                }
+                appendSection(tune, random, sectionBars, depth, endings);
+                tune.append('\n');
+            }
+        }
+        return tune.toString();
+    }
+
+    /**
+     * Writes a songbook of tunes with the indexes 1 to tunes
+     * @param out where to write the songbook
+     * @param tunes the number of tunes
+     * @throws IOException if out cannot be written to
+     */
+    public void writeSongbook(Appendable out, int tunes) throws IOException {
+        for (int i=1;i<=tunes;i++) {
+            out.append(generateTune(i));
+        }
+    }
+
+    /**
+     * Writes a songbook of tunes with the indexes 1, 2, ... until it reaches a size
+     * @param out where to write the songbook
+     * @param chars the number of characters to write at least; the last tune is written whole
+     * @return the number of tunes written
+     * @throws IOException if out cannot be written to
+     */
+    public int writeSongbookOfSize(Appendable out, long chars) throws IOException {
+        int tunes = 0;
+        long written = 0;
+        while (written < chars) {
+            tunes++;
+            String tune = generateTune(tunes);
+            out.append(tune);
+            written += tune.length();
+        }
+        return tunes;
+    }
+
+    /**
+     * Appends a line of bars
+     * @param line the tune being generated
+     * @param random the random numbers of the tune
+     * @param sectionBars the number of bars in the section, from 1 to BARS_PER_SECTION
+     * @param depth the number of repeats the section is nested in, at most sectionBars
+     * @param endings true to end a section with a depth of 1 with a first and a second ending:
+     *        |: A |[1 B :|[2 C |
+     */
+    private void appendSection(StringBuilder line, Random random, int sectionBars, int depth, boolean endings) {
+        if (depth > 0) {
+            line.append("|: ");
+        }
+        for (int i=0;i<sectionBars;i++) {
+            if (endings && i == sectionBars - 2) {
+                line.append("[1 ");
+            } else if (endings && i == sectionBars - 1) {
+                line.append("[2 ");
+            }
+            appendBar(line, random);
+
+            // the last depth bars close a repeat each, the innermost first
+            if (endings) {
+                line.append(i == sectionBars - 2 ? " :|" : " |");
+            } else {
+                line.append(i >= sectionBars - depth ? " :|" : " |");
+            }
+            line.append(i < sectionBars - 1 ? " " : "");
+        }
+    }
+
+    /**
+     * Appends one bar of 4/4
+     * @param line the tune being generated
+     * @param random the random numbers of the tune
+     */
+    private void appendBar(StringBuilder line, Random random) {
+        int remaining = BAR_LENGTH;
+        boolean first = true;
+        while (remaining > 0) {
+            if (!first) {
+                line.append(' ');
+            }
+            first = false;
+
+            if (remaining >= 4 && random.nextDouble() < tupletDensity) {
+                remaining -= appendTuplet(line, random, remaining);
+            } else {
+                int length = randomLength(random, remaining);
+                if (random.nextDouble() < chordDensity) {
+                    appendChord(line, random, LENGTH_TEXT[length]);
+                } else if (random.nextInt(10) == 0) {
+                    line.append('z').append(LENGTH_TEXT[length]);
+                } else {
+                    appendNote(line, random);
+                    line.append(LENGTH_TEXT[length]);
+                }
+                remaining -= LENGTHS[length];
+            }
+        }
+    }
+
+    /**
+     * Appends a duplet, triplet or quadruplet of eighth notes and chords
+     * @param line the tune being generated
+     * @param random the random numbers of the tune
+     * @param remaining the sixteenths left in the bar, at least 4
+     * @return the sixteenths the tuplet lasts
+     */
+    private int appendTuplet(StringBuilder line, Random random, int remaining) {
+        // (3 lasts 2 eighths, (2 and (4 last 3
+        int size = remaining < 6 ? 3 : 2 + random.nextInt(3);
+        line.append('(').append(size);
+        for (int i=0;i<size;i++) {
+            if (random.nextDouble() < chordDensity) {
+                appendChord(line, random, "");
+            } else {
+                appendNote(line, random);
+            }
+        }
+        return size == 3 ? 4 : 6;
+    }
+
+    /**
+     * Appends a chord of two or three notes of the same length
+     * @param line the tune being generated
+     * @param random the random numbers of the tune
+     * @param length the text of the length of the notes
+     */
+    private void appendChord(StringBuilder line, Random random, String length) {
+        int size = 2 + random.nextInt(2);
+        line.append('[');
+        for (int i=0;i<size;i++) {
+            appendNote(line, random);
+            line.append(length);
+        }
+        line.append(']');
+    }
+
+    /**
+     * Appends a pitch, without a length
+     * @param line the tune being generated
+     * @param random the random numbers of the tune
+     */
+    private void appendNote(StringBuilder line, Random random) {
+        if (random.nextDouble() < accidentalDensity) {
+            line.append(ACCIDENTALS[random.nextInt(ACCIDENTALS.length)]);
+        }
+        char letter = LETTERS.charAt(random.nextInt(LETTERS.length()));
+        line.append(letter);
+        if (random.nextInt(10) == 0) {
+            line.append(Character.isUpperCase(letter) ? ',' : '\'');
+        }
+    }
+
+    /**
+     * Picks a note length that fits in the bar
+     * @param random the random numbers of the tune
+     * @param remaining the sixteenths left in the bar
+     * @return an index into LENGTHS of a length of at most remaining
+     */
+    private static int randomLength(Random random, int remaining) {
+        int fitting = 0;
+        while (fitting < LENGTHS.length && LENGTHS[fitting] <= remaining) {
+            fitting++;
+        }
+        return random.nextInt(fitting);
+    }
+
+    /**
+     * Parses a size such as 500k, 20m or 1g
+     * @param size the size, a number of characters with an optional k, m or g suffix
+     * @return the number of characters
+     */
+    private static long parseSize(String size) {
+        char suffix = Character.toLowerCase(size.charAt(size.length() - 1));
+        long scale = suffix == 'k' ? 1L << 10 : suffix == 'm' ? 1L << 20 : suffix == 'g' ? 1L << 30 : 1;
+        return Long.parseLong(scale == 1 ? size : size.substring(0, size.length() - 1)) * scale;
+    }
+
+    /**
+     * Writes a generated songbook to a file, or to the standard output stream.
+     *
+     * Usage: AbcGenerator [--seed n] [--tunes n | --size n[k|m|g]] [--bars n] [--voices n]
+     *        [--chords p] [--tuplets p] [--repeats depth] [--accidentals p] [file]
+     *
+     * @param args the options and the file to write
+     */
+    public static void main(String[] args) throws IOException {
+        long seed = 1;
+        int tunes = 1;
+        long size = -1;
+        String file = null;
+        String[] settings = new String[args.length];
+        int setting = 0;
+
+        for (int i=0;i<args.length;i++) {
+            if (args[i].equals("--seed")) {
+                seed = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--tunes")) {
+                tunes = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--size")) {
+                size = parseSize(args[++i]);
+            } else if (args[i].startsWith("--") && i + 1 < args.length) {
+                settings[setting++] = args[i];
+                settings[setting++] = args[++i];
+            } else if (!args[i].startsWith("--") && file == null) {
+                file = args[i];
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+
+        AbcGenerator generator = new AbcGenerator(seed);
+        for (int i=0;i<setting;i+=2) {
+            String value = settings[i + 1];
+            if (settings[i].equals("--bars")) {
+                generator.setBars(Integer.parseInt(value));
+            } else if (settings[i].equals("--voices")) {
+                generator.setVoices(Integer.parseInt(value));
+            } else if (settings[i].equals("--chords")) {
+                generator.setChordDensity(Double.parseDouble(value));
+            } else if (settings[i].equals("--tuplets")) {
+                generator.setTupletDensity(Double.parseDouble(value));
+            } else if (settings[i].equals("--repeats")) {
+                generator.setRepeatDepth(Integer.parseInt(value));
+            } else if (settings[i].equals("--accidentals")) {
+                generator.setAccidentalDensity(Double.parseDouble(value));
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + settings[i]);
+            }
+        }
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+                file == null ? System.out : new FileOutputStream(file)), 1 << 16);
+        try {
+            if (size >= 0) {
+                generator.writeSongbookOfSize(out, size);
+            } else {
+                generator.writeSongbook(out, tunes);
+            }
+        } finally {
+            if (file == null) {
+                out.flush();
+            } else {
+                out.close();
+            }
+        }
+    }
+}
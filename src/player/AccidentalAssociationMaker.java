@@ -1,133 +1,113 @@
 package player;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
- * Class 
+ * Keeps the accidental every note letter is played with in a voice: the key signature's, until a
+ * note with an accidental of its own changes it for the rest of the bar.
+ *
+ * The accidentals are stored as one byte per letter, indexed by letter - 'A'. The accidentals of
+ * every key signature are computed once and shared, and reverting to them at a bar line is a copy
+ * of 7 bytes, so none of this allocates while parsing.
  */
 public class AccidentalAssociationMaker {
 
-    private Map<Character, Integer> accidentals = new HashMap<Character, Integer>(0);
-    private Map<Character, Integer> changelog = new HashMap<Character, Integer>(0);
+    private static final int LETTERS = 7;
+
+    /** The order sharps are added to key signatures in */
+    private static final String SHARPS = "FCGDAEB";
+    /** The order flats are added to key signatures in */
+    private static final String FLATS = "BEADGCF";
+    /** The major and relative minor keys with 1 to 7 sharps */
+    private static final String[][] SHARP_KEYS = {
+        {"G", "Em"}, {"D", "Bm"}, {"A", "F#m"}, {"E", "C#m"}, {"B", "G#m"}, {"F#", "D#m"}, {"C#", "A#m"}
+    };
+    /** The major and relative minor keys with 1 to 7 flats */
+    private static final String[][] FLAT_KEYS = {
+        {"F", "Dm"}, {"Bb", "Gm"}, {"Eb", "Cm"}, {"Ab", "Fm"}, {"Db", "Bbm"}, {"Gb", "Ebm"}, {"Cb", "Abm"}
+    };
+
+    /** No sharps or flats, for C, Am and any key not in KEY_SIGNATURES */
+    private static final byte[] NO_ACCIDENTALS = new byte[LETTERS];
+    /** The accidentals of every key signature, never modified */
+    private static final Map<String, byte[]> KEY_SIGNATURES = keySignatures();
+
+    private final byte[] accidentals = new byte[LETTERS];
+    private final byte[] keySignature;
+
+    /*
+     * Rep invariant:
+     *   accidentals.length == keySignature.length == LETTERS,
+     *   keySignature is one of the shared tables
+     */
+
+    /**
+     * Computes the accidentals of every key signature with sharps or flats
+     * @return a map from each key, e.g. "F#m", to its accidentals
+     */
+    private static Map<String, byte[]> keySignatures() {
+        Map<String, byte[]> keys = new HashMap<String, byte[]>();
+        for (int n = 1; n <= LETTERS; n++) {
+            byte[] sharps = new byte[LETTERS];
+            byte[] flats = new byte[LETTERS];
+            for (int i = 0; i < n; i++) {
+                sharps[SHARPS.charAt(i) - 'A'] = +1;
+                flats[FLATS.charAt(i) - 'A'] = -1;
+            }
+            for (String key : SHARP_KEYS[n - 1]) {
+                keys.put(key, sharps);
+            }
+            for (String key : FLAT_KEYS[n - 1]) {
+                keys.put(key, flats);
+            }
+        }
+        return keys;
+    }
 
     /**
-     * Adds an accidental assignment in the accidentals hashmap ("A" -> +1 (flat) )
-     * @param pitch to assign an accidental to (i.e: "A")
+     * Adds an accidental assignment ('A' -> +1 (sharp))
+     * @param pitch to assign an accidental to (i.e: 'A')
      * @param 0, +1 or -1, accidental to assign to that note (i.e: +1)
      */
     public void setAccidental(char pitch, int acc){
-        accidentals.put(pitch,acc);
+        accidentals[pitch - 'A'] = (byte) acc;
     }
 
     /**
      * Returns the accidental for that note for this specific Voice.
-     * @param pitch the pitch to look-up in the accidentals map
+     * @param pitch the pitch to look-up, from 'A' to 'G'
      * @return accidental, +1, 0 or -1, the change in pitch of that note
      */
     public int getAccidental(char pitch){
-        return accidentals.get(pitch);
+        return accidentals[pitch - 'A'];
     }
 
     /**
-     * Reverts the accidentals map to the default values for the key signature of the piece.
+     * Reverts the accidentals to the default values for the key signature of the piece.
      */
     public void revert(){
-        accidentals.putAll(changelog);
+        System.arraycopy(keySignature, 0, accidentals, 0, LETTERS);
     }
 
     /**
-     * Initializes the hashmap with no sharps or flats for all notes.
+     * Initializes the accidentals with no sharps or flats for all notes.
      */
     public AccidentalAssociationMaker(){
-        for(char pitch='A';pitch<='G';pitch++)
-            setAccidental(pitch, 0);
-        this.changelog.putAll(accidentals);
+        this.keySignature = NO_ACCIDENTALS;
     }
 
     /**
      * Public Constructor
-     * Makes a Note -> Note+Accidental association Map for a given key.
+     * Makes a Note -> Note+Accidental association for a given key.
+     * A key without sharps or flats, or that is not known, gives no accidentals.
      * @param key
      */
     public AccidentalAssociationMaker(String key){
-        this(); 		//calls the no-argument constructor
-
-        if (key.equals("G") || key.equals("Em"))
-            setAccidental('F', +1);
-        else if (key.equals("D") || key.equals("Bm")) {
-            setAccidental('F', +1);
-            setAccidental('C', +1);
-        }  else if (key.equals("A") || key.equals("F#m")) {
-            setAccidental('F', +1);
-            setAccidental('C', +1);
-            setAccidental('G', +1);
-        }  else if (key.equals("E") || key.equals("C#m")) {
-            setAccidental('F', +1);
-            setAccidental('C', +1);
-            setAccidental('G', +1);
-            setAccidental('D', +1);
-        }  else if (key.equals("B") || key.equals("G#m")) {
-            setAccidental('F', +1);
-            setAccidental('C', +1);
-            setAccidental('G', +1);
-            setAccidental('D', +1);
-            setAccidental('A', +1);
-        }  else if (key.equals("F#") || key.equals("D#m")) {
-            setAccidental('F', +1);
-            setAccidental('C', +1);
-            setAccidental('G', +1);
-            setAccidental('D', +1);
-            setAccidental('A', +1);
-            setAccidental('E', +1);
-        } else if (key.equals("C#") || key.equals("A#m")) {
-            setAccidental('F', +1);
-            setAccidental('C', +1);
-            setAccidental('G', +1);
-            setAccidental('D', +1);
-            setAccidental('A', +1);
-            setAccidental('E', +1);
-            setAccidental('B', +1);
-        } 
-        // begin looking into minor scale keys
-        else if (key.equals("F") || key.equals("Dm"))
-            setAccidental('B', -1);
-        else if (key.equals("Bb") || key.equals("Gm")) {
-            setAccidental('B', -1);
-            setAccidental('E', -1);
-        } else if (key.equals("Eb") || key.equals("Cm")) {
-            setAccidental('B', -1);
-            setAccidental('E', -1);
-            setAccidental('A', -1);
-        } else if (key.equals("Ab") || key.equals("Fm")) {
-            setAccidental('B', -1);
-            setAccidental('E', -1);
-            setAccidental('A', -1);
-            setAccidental('D', -1);
-        } else if (key.equals("Db") || key.equals("Bbm")) {
-            setAccidental('B', -1);
-            setAccidental('E', -1);
-            setAccidental('A', -1);
-            setAccidental('D', -1);
-            setAccidental('G', -1);
-        } else if (key.equals("Gb") || key.equals("Ebm")) {
-            setAccidental('B', -1);
-            setAccidental('E', -1);
-            setAccidental('A', -1);
-            setAccidental('D', -1);
-            setAccidental('G', -1);
-            setAccidental('C', -1);
-        } else if (key.equals("Cb") || key.equals("Abm")) {
-            setAccidental('B', -1);
-            setAccidental('E', -1);
-            setAccidental('A', -1);
-            setAccidental('D', -1);
-            setAccidental('G', -1);
-            setAccidental('C', -1);
-            setAccidental('F', -1);
-        }
-
-        this.changelog.putAll(accidentals); //copy accidentals to changelog
+        byte[] table = KEY_SIGNATURES.get(key);
+        this.keySignature = table == null ? NO_ACCIDENTALS : table;
+        revert();
     }
     
     /**
@@ -146,7 +126,16 @@ public class AccidentalAssociationMaker {
         }
 
         AccidentalAssociationMaker other = (AccidentalAssociationMaker)o;
-        return this.accidentals.equals(other.accidentals);
+        return Arrays.equals(this.accidentals, other.accidentals);
+    }
+
+    /**
+     * Gets the hash code of the AccidentalAssociationMaker
+     * @return a hash code of the accidentals, consistent with equals
+     */
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(accidentals);
     }
 
     /**
@@ -155,7 +144,14 @@ public class AccidentalAssociationMaker {
      */
     @Override
     public String toString() {
-        return "AccidentalAssociationMaker [accidentals=" + accidentals + "]";
+        StringBuilder s = new StringBuilder("AccidentalAssociationMaker [accidentals={");
+        for (int i = 0; i < LETTERS; i++) {
+            if (i > 0) {
+                s.append(", ");
+            }
+            s.append((char) ('A' + i)).append('=').append(accidentals[i]);
+        }
+        return s.append("}]").toString();
     }
 
 }
@@ -0,0 +1,311 @@
+package player;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+import sound.BarIndex;
+import sound.EventTimeline;
+import sound.SequencePlayer;
+
+/**
+ * A tune reduced to what is needed to play it: its header and the notes of each voice, as
+ * MIDI pitches, start ticks and lengths in ticks. It is what the TuneCache stores, in this
+ * binary format (big endian):
+ *
+ *   int magic "ABCC", int version,
+ *   int index, int tempo, int ticksPerQuarter, string title, string head,
+ *   int voices, then per voice: int notes, then per note: byte pitch, int startTick, int ticks,
+ *   int bar voices, then per voice: int bars, then per bar: int startTick
+ *
+ * where a string is an int length followed by that many bytes of UTF-8. The bars are the
+ * BarIndex of the player, so a tune loaded from the cache can start playing at any bar.
+ */
+public class CachedTune {
+    private static final int MAGIC = 0x41424343;   // "ABCC"
+    private static final int VERSION = 4;    // 4: the tempo in beats per minute, not default note lengths
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String head;
+    private final String title;
+    private final int index;
+    private final int tempo;
+    private final int ticksPerQuarter;
+    private final byte[][] pitches;     // per voice, per note
+    private final int[][] startTicks;
+    private final int[][] lengths;
+    private final BarIndex bars;
+
+    /**
+     * Creates a CachedTune object
+     * @param head the header of the tune, as printed before it is played
+     * @param title the T: field of the tune
+     * @param index the X: field of the tune
+     * @param tempo the tempo in beats per minute
+     * @param ticksPerQuarter the ticks per quarter note the notes are timed in
+     * @param pitches the MIDI pitches of the notes of each voice
+     * @param startTicks the start ticks of the notes of each voice
+     * @param lengths the lengths in ticks of the notes of each voice
+     * @param bars the start ticks of the bars of each voice
+     */
+    private CachedTune(String head, String title, int index, int tempo, int ticksPerQuarter,
+            byte[][] pitches, int[][] startTicks, int[][] lengths, BarIndex bars) {
+        this.head = head;
+        this.title = title;
+        this.index = index;
+        this.tempo = tempo;
+        this.ticksPerQuarter = ticksPerQuarter;
+        this.pitches = pitches;
+        this.startTicks = startTicks;
+        this.lengths = lengths;
+        this.bars = bars;
+    }
+
+    /**
+     * Takes the notes of a rendered tune out of its EventTimeline
+     * @param head the header of the tune, as printed before it is played
+     * @param title the T: field of the tune
+     * @param index the X: field of the tune
+     * @param player the SequencePlayer the PlayerVisitor rendered the tune to, one track per voice,
+     *        with its tempo in beats per minute
+     * @return the CachedTune of the notes, bars and tempo in player
+     */
+    public static CachedTune fromPlayer(String head, String title, int index, SequencePlayer player) {
+        EventTimeline timeline = player.getTimeline();
+        timeline.sort();
+
+        int tracks = timeline.getTrackCount();
+        int[] notes = new int[tracks];
+        for (int i = 0; i < timeline.size(); i++) {
+            if (timeline.isNoteOn(i)) {
+                notes[timeline.getTrack(i)]++;
+            }
+        }
+        byte[][] pitches = new byte[tracks][];
+        int[][] startTicks = new int[tracks][];
+        int[][] lengths = new int[tracks][];
+        for (int t = 0; t < tracks; t++) {
+            pitches[t] = new byte[notes[t]];
+            startTicks[t] = new int[notes[t]];
+            lengths[t] = new int[notes[t]];
+            notes[t] = 0;
+        }
+
+        // every note on has a note off of the same pitch in the same track, after it; pairing
+        // them first in, first out gives back notes that make the same events
+        Map<Integer, ArrayDeque<Integer>> open = new HashMap<Integer, ArrayDeque<Integer>>();
+        for (int i = 0; i < timeline.size(); i++) {
+            int t = timeline.getTrack(i);
+            int pitch = timeline.getPitch(i);
+            Integer key = t * 128 + pitch;
+            if (timeline.isNoteOn(i)) {
+                if (!open.containsKey(key)) {
+                    open.put(key, new ArrayDeque<Integer>());
+                }
+                open.get(key).add(notes[t]);
+                pitches[t][notes[t]] = (byte) pitch;
+                startTicks[t][notes[t]] = timeline.getTick(i);
+                notes[t]++;
+            } else {
+                int note = open.get(key).remove();
+                lengths[t][note] = timeline.getTick(i) - startTicks[t][note];
+            }
+        }
+        BarIndex bars = player.getBarIndex() == null ? new BarIndex(new int[0][]) : player.getBarIndex();
+        return new CachedTune(head, title, index, timeline.getBeatsPerMinute(), timeline.getTicksPerQuarterNote(), pitches, startTicks, lengths, bars);
+    }
+
+    /**
+     * Builds the MIDI sequence of the tune again
+     * @return a SequencePlayer with one track per voice and its bar index, ready to be played
+     */
+    public SequencePlayer toPlayer() {
+        SequencePlayer player;
+        try {
+            player = new SequencePlayer(tempo, ticksPerQuarter);
+        } catch (MidiUnavailableException e) {
+            throw new RuntimeException("Cannot create a SequencePlayer", e);
+        } catch (InvalidMidiDataException e) {
+            throw new RuntimeException("Cannot create a SequencePlayer", e);
+        }
+        player.setTune(title, index);
+
+        for (int v = 0; v < pitches.length; v++) {
+            if (v > 0) {
+                player.newTrack();
+            }
+            // the notes of a voice are stored in order of their start ticks, so add them in one go
+            int[] notes = new int[pitches[v].length];
+            for (int i = 0; i < notes.length; i++) {
+                notes[i] = pitches[v][i];
+            }
+            player.addNotes(notes, startTicks[v], lengths[v]);
+        }
+        player.setBarIndex(bars);
+        return player;
+    }
+
+    /**
+     * Serializes the tune
+     * @return the tune in the binary format, positioned at 0
+     */
+    public ByteBuffer toBytes() {
+        byte[] titleBytes = (title == null ? "" : title).getBytes(UTF8);
+        byte[] headBytes = (head == null ? "" : head).getBytes(UTF8);
+        int size = 4 * 10 + titleBytes.length + headBytes.length;
+        for (byte[] voice : pitches) {
+            size += 4 + voice.length * 9;
+        }
+        for (int v = 0; v < bars.getVoiceCount(); v++) {
+            size += 4 + bars.getBarCount(v) * 4;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(MAGIC).putInt(VERSION);
+        out.putInt(index).putInt(tempo).putInt(ticksPerQuarter);
+        out.putInt(titleBytes.length).put(titleBytes);
+        out.putInt(headBytes.length).put(headBytes);
+        out.putInt(pitches.length);
+        for (int v = 0; v < pitches.length; v++) {
+            out.putInt(pitches[v].length);
+            for (int i = 0; i < pitches[v].length; i++) {
+                out.put(pitches[v][i]).putInt(startTicks[v][i]).putInt(lengths[v][i]);
+            }
+        }
+        out.putInt(bars.getVoiceCount());
+        for (int v = 0; v < bars.getVoiceCount(); v++) {
+            out.putInt(bars.getBarCount(v));
+            for (int b = 0; b < bars.getBarCount(v); b++) {
+                out.putInt(bars.getStartTick(v, b));
+            }
+        }
+        out.flip();
+        return out;
+    }
+
+    /**
+     * Deserializes a tune
+     * @param in the tune in the binary format, e.g. a memory-mapped cache file
+     * @return the tune, or null if in is not a tune of this version of the format
+     */
+    public static CachedTune fromBytes(ByteBuffer in) {
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                return null;
+            }
+            int index = in.getInt();
+            int tempo = in.getInt();
+            int ticksPerQuarter = in.getInt();
+            String title = getString(in);
+            String head = getString(in);
+
+            int voices = in.getInt();
+            byte[][] pitches = new byte[voices][];
+            int[][] startTicks = new int[voices][];
+            int[][] lengths = new int[voices][];
+            for (int v = 0; v < voices; v++) {
+                int notes = in.getInt();
+                if (notes < 0 || notes * 9L > in.remaining()) {
+                    return null;
+                }
+                pitches[v] = new byte[notes];
+                startTicks[v] = new int[notes];
+                lengths[v] = new int[notes];
+                for (int i = 0; i < notes; i++) {
+                    pitches[v][i] = in.get();
+                    startTicks[v][i] = in.getInt();
+                    lengths[v][i] = in.getInt();
+                }
+            }
+
+            int barVoices = in.getInt();
+            int[][] barStarts = new int[barVoices][];
+            for (int v = 0; v < barVoices; v++) {
+                int bars = in.getInt();
+                if (bars < 0 || bars * 4L > in.remaining()) {
+                    return null;
+                }
+                barStarts[v] = new int[bars];
+                for (int b = 0; b < bars; b++) {
+                    barStarts[v][b] = in.getInt();
+                }
+            }
+            return new CachedTune(head, title, index, tempo, ticksPerQuarter, pitches, startTicks, lengths,
+                    new BarIndex(barStarts));
+        } catch (BufferUnderflowException e) {
+            return null;
+        } catch (NegativeArraySizeException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;                                        // bars out of order
+        }
+    }
+
+    /**
+     * Reads a string of the binary format
+     * @param in the buffer to read from
+     * @return the string
+     */
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Gets the header of the tune
+     * @return the header, as printed before the tune is played
+     */
+    public String getHead() {
+        return head;
+    }
+
+    /**
+     * Gets the title of the tune
+     * @return the T: field of the tune
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Gets the index of the tune
+     * @return the X: field of the tune
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Counts the voices of the tune
+     * @return the number of voices, and of tracks of its sequence
+     */
+    public int getVoiceCount() {
+        return pitches.length;
+    }
+
+    /**
+     * Gets where the bars of the tune start
+     * @return the bar index of the player the tune was taken from
+     */
+    public BarIndex getBarIndex() {
+        return bars;
+    }
+
+    /**
+     * Counts the notes of a voice
+     * @param voice the index of the voice
+     * @return the number of notes of the voice, each note of a chord counting once
+     */
+    public int getNoteCount(int voice) {
+        return pitches[voice].length;
+    }
+}
@@ -0,0 +1,45 @@
+package player;
+
+/**
+ * Listener told how long each phase of compiling and rendering a tune took.
+ *
+ * It is called once per phase per tune, from the thread that ran the phase, so an implementation
+ * used with Songbook.compileAll has to be thread safe. Use NONE to measure nothing; the phases
+ * then do not read the clock or the allocation counters at all.
+ */
+public interface CompilationMetrics {
+
+    /**
+     * The phases of turning abc text into a MIDI sequence
+     */
+    public enum Phase {
+        /** Lexer.lexHead: items are header tokens */
+        LEX_HEAD,
+        /** Lexer.lexBody or lexBodyBuffer: items are body tokens */
+        LEX_BODY,
+        /** Parser.parse: items are the NoteElements directly in the voices of the Song */
+        PARSE,
+        /** DurationVisitor.visit: items are the NoteElements directly in the voices of the Song */
+        DURATION,
+        /** PlayerVisitor.visit: items are the MIDI events of the sequence */
+        RENDER
+    }
+
+    /**
+     * A CompilationMetrics that ignores everything
+     */
+    public static final CompilationMetrics NONE = new CompilationMetrics() {
+        @Override
+        public void phaseCompleted(Phase phase, long nanos, long items, long allocatedBytes) {
+        }
+    };
+
+    /**
+     * Records one run of a phase
+     * @param phase the phase that ran
+     * @param nanos the wall time the phase took, in nanoseconds
+     * @param items the number of tokens, notes or events the phase produced, see Phase
+     * @param allocatedBytes the bytes the thread allocated during the phase, -1 if the JVM cannot tell
+     */
+    public void phaseCompleted(Phase phase, long nanos, long items, long allocatedBytes);
+}
@@ -0,0 +1,199 @@
+package player;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import ast.Song;
+import ast.Voice;
+import events.TuneLexedEvent;
+import events.TuneParsedEvent;
+import sound.SequencePlayer;
+
+/**
+ * A tune that has been lexed, parsed and had its durations resolved, ready to be played.
+ * A tune of a songbook that could not be compiled holds the exception instead of a Song.
+ */
+public class CompiledTune {
+    private final int index;
+    private final String head;
+    private final Song song;
+    private final int ticksPerQuarter;
+    private final RuntimeException error;
+
+    /**
+     * Creates a CompiledTune object
+     * @param index, the position of the tune in its file, starting at 0
+     * @param head, the header of the tune
+     * @param song, the parsed tune, null if it failed to compile
+     * @param ticksPerQuarter, the ticks per quarter note calculated by the DurationVisitor
+     * @param error, the exception that stopped the tune from compiling, null if it compiled
+     */
+    private CompiledTune(int index, String head, Song song, int ticksPerQuarter, RuntimeException error) {
+        this.index = index;
+        this.head = head;
+        this.song = song;
+        this.ticksPerQuarter = ticksPerQuarter;
+        this.error = error;
+    }
+
+    /**
+     * Lexes, parses and resolves the durations of one tune
+     * @param index, the position of the tune in its file
+     * @param bytes, the encoded tune. Its position is advanced as it is read.
+     * @param charset, the charset the tune is encoded in
+     * @return the compiled tune
+     * @throws LexerException if the tune cannot be lexed
+     * @throws ParserException if the tune cannot be parsed
+     */
+    public static CompiledTune compile(int index, ByteBuffer bytes, Charset charset) {
+        return compile(index, bytes, charset, CompilationMetrics.NONE);
+    }
+
+    /**
+     * Lexes, parses and resolves the durations of one tune, and reports how long each phase took
+     * @param index, the position of the tune in its file
+     * @param bytes, the encoded tune. Its position is advanced as it is read.
+     * @param charset, the charset the tune is encoded in
+     * @param metrics, the listener to report the phases to
+     * @return the compiled tune
+     * @throws LexerException if the tune cannot be lexed
+     * @throws ParserException if the tune cannot be parsed
+     */
+    public static CompiledTune compile(int index, ByteBuffer bytes, Charset charset, CompilationMetrics metrics) {
+        return compile(index, StreamingLexer.forBuffer(bytes, charset), metrics);
+    }
+
+    /**
+     * Lexes, parses and resolves the durations of one tune with any lexer, and reports how long each phase took
+     * @param index, the position of the tune in its file
+     * @param lexer, the lexer of the tune, which has not lexed anything yet
+     * @param metrics, the listener to report the phases to
+     * @return the compiled tune
+     * @throws LexerException if the tune cannot be lexed
+     * @throws ParserException if the tune cannot be parsed
+     */
+    public static CompiledTune compile(int index, TuneLexer lexer, CompilationMetrics metrics) {
+        TuneLexedEvent lexed = new TuneLexedEvent();
+        lexed.begin();
+        PhaseTimer timer = new PhaseTimer(metrics, CompilationMetrics.Phase.LEX_HEAD);
+        ArrayList<Token> head = lexer.lexHead();
+        timer.stop(head.size());
+
+        timer = new PhaseTimer(metrics, CompilationMetrics.Phase.LEX_BODY);
+        TokenBuffer body = lexer.lexBodyBuffer();
+        timer.stop(body.size());
+        if (lexed.shouldCommit()) {
+            lexed.setHead(head);
+            lexed.bodyTokens = body.size();
+            lexed.commit();
+        }
+
+        TuneParsedEvent parsed = new TuneParsedEvent();
+        parsed.begin();
+        Parser parser = new Parser();
+        timer = new PhaseTimer(metrics, CompilationMetrics.Phase.PARSE);
+        parser.parse(head, body);
+        Song song = parser.getSong();
+        int notes = metrics == CompilationMetrics.NONE && !parsed.shouldCommit() ? 0 : countNotes(song);
+        timer.stop(notes);
+        if (parsed.shouldCommit()) {
+            parsed.setTune(song.getTitle(), song.getIndex());
+            parsed.bodyTokens = body.size();
+            parsed.voices = song.getVoices().size();
+            parsed.notes = notes;
+            parsed.commit();
+        }
+
+        timer = new PhaseTimer(metrics, CompilationMetrics.Phase.DURATION);
+        DurationVisitor durationV = new DurationVisitor();
+        durationV.visit(song);
+        int ticksPerQuarter = durationV.getTicksPerQuarter(song.getDefaultNoteLength());
+        timer.stop(notes);
+
+        return new CompiledTune(index, lexer.getHead(), song, ticksPerQuarter, null);
+    }
+
+    /**
+     * Counts the NoteElements of a song
+     * @param song, the song
+     * @return the number of NoteElements directly in its voices
+     */
+    private static int countNotes(Song song) {
+        int notes = 0;
+        for (Voice v : song.getVoices()) {
+            notes += v.getNotes().size();
+        }
+        return notes;
+    }
+
+    /**
+     * Creates a CompiledTune for a tune that failed to compile
+     * @param index, the position of the tune in its file
+     * @param error, the exception that stopped the tune from compiling
+     * @return a CompiledTune without a Song
+     */
+    public static CompiledTune failed(int index, RuntimeException error) {
+        return new CompiledTune(index, null, null, 0, error);
+    }
+
+    /**
+     * Builds the MIDI sequence of the tune, without playing it
+     * @param metrics, the listener to report the RENDER phase to
+     * @return the SequencePlayer holding the sequence
+     */
+    public SequencePlayer render(CompilationMetrics metrics) {
+        PhaseTimer timer = new PhaseTimer(metrics, CompilationMetrics.Phase.RENDER);
+        PlayerVisitor visitor = new PlayerVisitor(ticksPerQuarter, song.getTempo(), song.getDefaultNoteLength());
+        visitor.visit(song);
+        timer.stop(visitor.getPlayer().getEventCount());
+        return visitor.getPlayer();
+    }
+
+    /**
+     * Gets the position of the tune in its file
+     * @return the index of the tune, starting at 0
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Gets the header of the tune, without comments
+     * @return the header, null if the tune failed to compile
+     */
+    public String getHead() {
+        return head;
+    }
+
+    /**
+     * Gets the parsed tune
+     * @return the Song, null if the tune failed to compile
+     */
+    public Song getSong() {
+        return song;
+    }
+
+    /**
+     * Gets the ticks per quarter note to play the tune with
+     * @return the ticks per quarter note calculated by the DurationVisitor, at which no note length is rounded
+     */
+    public int getTicksPerQuarter() {
+        return ticksPerQuarter;
+    }
+
+    /**
+     * Gets the exception that stopped the tune from compiling
+     * @return the exception, null if the tune compiled
+     */
+    public RuntimeException getError() {
+        return error;
+    }
+
+    /**
+     * Checks if the tune compiled
+     * @return true if the tune has a Song
+     */
+    public boolean isCompiled() {
+        return error == null;
+    }
+}
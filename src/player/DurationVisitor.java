@@ -1,6 +1,7 @@
 package player;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -8,6 +9,11 @@ import ast.*;
 import ast.NoteElement.Visitor;
 
 public class DurationVisitor implements Visitor<Void> {
+    /**
+     * The most ticks per quarter note a MIDI file can hold, in the 15 bits of its division field
+     */
+    public static final int MAX_TICKS_PER_QUARTER = 0x7FFF;
+
     private Set<Integer> denominators = new HashSet<Integer>();
 
     /**
@@ -41,32 +47,65 @@ public class DurationVisitor implements Visitor<Void> {
     }
 
     /**
-     * Adds the denominator of a Duplet to the environment HashSet of denominators
+     * Adds the denominators of a Duplet and of its notes to the environment HashSet of denominators
      * @param d the Duplet to visit
      */
     @Override
     public Void visit(Duplet d) {
         denominators.add(d.getDuration().getDenominator());
+        d.getFirst().accept(this);
+        d.getSecond().accept(this);
         return null;
     }
 
     /**
-     * Adds the denominator of a Triplet to the environment HashSet of denominators
+     * Adds the denominators of a Triplet and of its notes to the environment HashSet of denominators
      * @param t the Triplet to visit
      */
     @Override
     public Void visit(Triplet t) {
         denominators.add(t.getDuration().getDenominator());
+        t.getFirst().accept(this);
+        t.getSecond().accept(this);
+        t.getThird().accept(this);
         return null;
     }
 
     /**
-     * Adds the denominator of a Triplet to the environment HashSet of denominators
+     * Adds the denominators of a Triplet and of its notes to the environment HashSet of denominators
      * @param t the Triplet to visit
      */
     @Override
     public Void visit(Quadruplet q) {
         denominators.add(q.getDuration().getDenominator());
+        q.getFirst().accept(this);
+        q.getSecond().accept(this);
+        q.getThird().accept(this);
+        q.getFourth().accept(this);
+        return null;
+    }
+
+    /**
+     * Adds all the denominators of the notes in a Repeat to the environment HashSet of denominators
+     * @param r the Repeat to visit
+     */
+    @Override
+    public Void visit(Repeat r) {
+        for (NoteElement n : r.getNotes()) {
+            n.accept(this);
+        }
+        return null;
+    }
+
+    /**
+     * Adds all the denominators of the notes in an Ending to the environment HashSet of denominators
+     * @param e the Ending to visit
+     */
+    @Override
+    public Void visit(Ending e) {
+        for (NoteElement n : e.getNotes()) {
+            n.accept(this);
+        }
         return null;
     }
 
@@ -119,5 +158,62 @@ public class DurationVisitor implements Visitor<Void> {
         }
 
     }
+
+    /**
+     * Calculates the smallest ticksPerQuarter at which every note visited lasts a whole number of ticks.
+     * A note of length n/d lasts n*4*ticksPerQuarter*p/(d*q) ticks for a default note length of p/q,
+     * so ticksPerQuarter has to be a multiple of d*q/gcd(d*q, 4*p) for every denominator d.
+     * @param defaultNoteLength the default note length of the song
+     * @return the ticksPerQuarter to play the song with, so that no note length is rounded
+     * @throws RuntimeException if it would be above MAX_TICKS_PER_QUARTER, the finest MIDI resolution
+     */
+    public int getTicksPerQuarter(RationalNumber defaultNoteLength) {
+        return getTicksPerQuarter(denominators, defaultNoteLength);
+    }
+
+    /**
+     * Calculates the smallest ticksPerQuarter at which notes with the given denominators last a whole number of ticks
+     * @param denominators the denominators of the note lengths, e.g. gathered by several DurationVisitors
+     * @param defaultNoteLength the default note length of the song
+     * @return the ticksPerQuarter to play the notes with, so that no note length is rounded
+     * @throws RuntimeException if it would be above MAX_TICKS_PER_QUARTER, the finest MIDI resolution
+     */
+    public static int getTicksPerQuarter(Collection<Integer> denominators, RationalNumber defaultNoteLength) {
+        long p = 4L*defaultNoteLength.getNumerator();
+        long q = defaultNoteLength.getDenominator();
+
+        long result = 1;
+        for (int d : denominators) {
+            long needed = d*q / gcd(d*q, p);
+            result = result / gcd(result, needed) * needed;
+            if (result > MAX_TICKS_PER_QUARTER) {
+                throw new RuntimeException("Note lengths are too fine to be played: " + denominators);
+            }
+        }
+        return (int)result;
+    }
+
+    /**
+     * Gets the denominators of the note lengths visited so far
+     * @return the set of denominators
+     */
+    public Set<Integer> getDenominators() {
+        return denominators;
+    }
+
+    /**
+     * Computes the gcd (greatest common divisor) of two numbers
+     * @param a the first number. Must be > 0
+     * @param b the second number. Must be >= 0
+     * @return the gcd of two numbers
+     */
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
     
 }
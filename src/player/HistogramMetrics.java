@@ -0,0 +1,143 @@
+package player;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A CompilationMetrics that adds up the runs of each phase, and keeps a histogram of their
+ * wall times with a bucket per power of two nanoseconds.
+ *
+ * It is thread safe and does not lock, so it can be shared by every tune of a Songbook.
+ * export writes everything in the Prometheus text format.
+ */
+public class HistogramMetrics implements CompilationMetrics {
+    private static final int BUCKETS = 64;
+    private static final int PHASES = CompilationMetrics.Phase.values().length;
+
+    // per phase: count, total nanos, total items, total allocated bytes
+    private static final int COUNT = 0;
+    private static final int NANOS = 1;
+    private static final int ITEMS = 2;
+    private static final int BYTES = 3;
+    private static final int TOTALS = 4;
+
+    private final AtomicLongArray totals = new AtomicLongArray(PHASES * TOTALS);
+    private final AtomicLongArray buckets = new AtomicLongArray(PHASES * BUCKETS);
+
+    /**
+     * Records one run of a phase
+     */
+    @Override
+    public void phaseCompleted(Phase phase, long nanos, long items, long allocatedBytes) {
+        int p = phase.ordinal();
+        totals.incrementAndGet(p * TOTALS + COUNT);
+        totals.addAndGet(p * TOTALS + NANOS, nanos);
+        totals.addAndGet(p * TOTALS + ITEMS, items);
+        if (allocatedBytes > 0) {
+            totals.addAndGet(p * TOTALS + BYTES, allocatedBytes);
+        }
+        buckets.incrementAndGet(p * BUCKETS + bucket(nanos));
+    }
+
+    /**
+     * Gets the bucket of a wall time
+     * @param nanos the wall time in nanoseconds
+     * @return the index of the smallest power of two that is >= nanos
+     */
+    private static int bucket(long nanos) {
+        return nanos <= 1 ? 0 : BUCKETS - Long.numberOfLeadingZeros(nanos - 1);
+    }
+
+    /**
+     * Gets the number of runs of a phase
+     * @param phase the phase
+     * @return the number of times the phase completed
+     */
+    public long getCount(Phase phase) {
+        return totals.get(phase.ordinal() * TOTALS + COUNT);
+    }
+
+    /**
+     * Gets the total wall time of a phase
+     * @param phase the phase
+     * @return the nanoseconds of all its runs
+     */
+    public long getTotalNanos(Phase phase) {
+        return totals.get(phase.ordinal() * TOTALS + NANOS);
+    }
+
+    /**
+     * Gets the total number of items of a phase
+     * @param phase the phase
+     * @return the tokens, notes or events of all its runs
+     */
+    public long getTotalItems(Phase phase) {
+        return totals.get(phase.ordinal() * TOTALS + ITEMS);
+    }
+
+    /**
+     * Gets the total bytes allocated by a phase
+     * @param phase the phase
+     * @return the bytes allocated by all its runs, 0 if the JVM cannot tell
+     */
+    public long getTotalAllocatedBytes(Phase phase) {
+        return totals.get(phase.ordinal() * TOTALS + BYTES);
+    }
+
+    /**
+     * Estimates a percentile of the wall time of a phase
+     * @param phase the phase
+     * @param percentile the percentile, from 0 to 100
+     * @return the upper bound of the histogram bucket the percentile falls in, in nanoseconds,
+     *         0 if the phase never ran
+     */
+    public long getPercentileNanos(Phase phase, double percentile) {
+        long count = getCount(phase);
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += buckets.get(phase.ordinal() * BUCKETS + b);
+            if (seen >= rank && seen > 0) {
+                return 1L << b;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Exports the metrics in the Prometheus text format, with the wall times as the histogram
+     * abcplayer_phase_seconds and the counts as the counters abcplayer_phase_items_total and
+     * abcplayer_phase_allocated_bytes_total, labeled by phase
+     * @return the metrics, one sample per line
+     */
+    public String export() {
+        StringBuilder out = new StringBuilder();
+        out.append("# TYPE abcplayer_phase_seconds histogram\n");
+        for (Phase phase : Phase.values()) {
+            String label = "phase=\"" + phase.name().toLowerCase() + "\"";
+            int last = BUCKETS - 1;
+            while (last > 0 && buckets.get(phase.ordinal() * BUCKETS + last) == 0) {
+                last--;
+            }
+            long cumulative = 0;
+            for (int b = 0; b <= last; b++) {
+                cumulative += buckets.get(phase.ordinal() * BUCKETS + b);
+                out.append("abcplayer_phase_seconds_bucket{").append(label).append(",le=\"")
+                   .append((1L << b) / 1e9).append("\"} ").append(cumulative).append('\n');
+            }
+            out.append("abcplayer_phase_seconds_bucket{").append(label).append(",le=\"+Inf\"} ").append(getCount(phase)).append('\n');
+            out.append("abcplayer_phase_seconds_sum{").append(label).append("} ").append(getTotalNanos(phase) / 1e9).append('\n');
+            out.append("abcplayer_phase_seconds_count{").append(label).append("} ").append(getCount(phase)).append('\n');
+        }
+        out.append("# TYPE abcplayer_phase_items_total counter\n");
+        for (Phase phase : Phase.values()) {
+            out.append("abcplayer_phase_items_total{phase=\"").append(phase.name().toLowerCase()).append("\"} ")
+               .append(getTotalItems(phase)).append('\n');
+        }
+        out.append("# TYPE abcplayer_phase_allocated_bytes_total counter\n");
+        for (Phase phase : Phase.values()) {
+            out.append("abcplayer_phase_allocated_bytes_total{phase=\"").append(phase.name().toLowerCase()).append("\"} ")
+               .append(getTotalAllocatedBytes(phase)).append('\n');
+        }
+        return out.toString();
+    }
+}
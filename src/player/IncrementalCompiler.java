@@ -0,0 +1,1155 @@
+package player;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import ast.NoteElement;
+import ast.Repeat;
+import ast.Song;
+import ast.Voice;
+
+/**
+ * Compiles a tune that is being edited, e.g. in an editor, redoing only the work an edit affects.
+ *
+ * The body is kept lexed in chunks that end at a bar line (|, || or :|) or before a |: or a voice
+ * field, as ScanningLexer.scanBar splits it. After an edit, only the chunks from the start of the
+ * edited line are lexed again, until a chunk boundary falls where an old one was, past the edit.
+ *
+ * The chunks of a voice are grouped into bars, up to a chunk that ends at a bar line. A bar line
+ * leaves the parser with no state but the start of the section a :| repeats, so every bar is parsed
+ * on its own, and only bars with a new chunk are parsed again. The Repeats are then rebuilt from the
+ * parsed bars of the sections that changed, and the notes that changed are replaced, with their bar
+ * lines, in the Voices of the Song, which is patched rather than rebuilt.
+ *
+ * Only the chunks lexed again are grouped, with the old chunks after them whose voice field changed.
+ * Each voice they leave or join is grouped again from its last bar before them, until a bar they did
+ * not touch starts where it did. Only the sections around the bars that changed are split into parts
+ * again, and every part keeps the index of its first note in its voice, so the notes are replaced in
+ * place without counting the ones before them. The work that still grows with the tune is moving the
+ * elements after the edit in the lists of chunks, bars, parts, notes and bar lines, and shifting their
+ * indexes, which is only done when the edit changes how many of them there are or how long the body is.
+ * An edit that adds or removes a |: or a :| checks the repeats of the whole voice again.
+ * An edit of the header compiles the whole tune again.
+ *
+ * Comments are blanked out of the body rather than removed, so that every offset in the text is
+ * the same offset in the body.
+ */
+public class IncrementalCompiler {
+    private final StringBuilder text;
+    private final StringBuilder body = new StringBuilder();        //the text after the header, comments blanked
+    private int bodyStart;                                         //the index of the body in the text
+    private boolean lexed = false;                                 //false if the chunks do not match the body
+
+    private ArrayList<Token> headTokens;
+    private Song song;
+    private final Map<String, Voice> voices = new HashMap<String, Voice>();
+    private Voice anonymous;                                       //the voice of a tune without voice fields
+
+    private final ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+    private final Map<String, VoiceBars> voiceBars = new HashMap<String, VoiceBars>();
+    private final Map<Integer, Integer> denominators = new HashMap<Integer, Integer>();
+    private final Set<Chunk> badChunks = new LinkedHashSet<Chunk>();  //the chunks that cannot be in a voice
+    private final Set<Bar> badBars = new LinkedHashSet<Bar>();        //the bars of the voices that failed to parse
+    private int epoch = 0;                                         //the number of compiles so far
+
+    private int ticksPerQuarter;
+    private RuntimeException error;
+    private int relexedLength;
+    private int reparsedTokens;
+
+    /*
+     * Rep invariant:
+     *   if lexed, the chunks cover the body in order, the first starting at 0, and their tokens
+     *   are the tokens of the body,
+     *   voiceBars has the bars of every declared voice, or of the null voice if none is declared,
+     *   every chunk with notes is in a bar of its owner, or in badChunks if it has no owner,
+     *   badBars has the bars of the voices that failed to parse,
+     *   the parts of a voice are its bars split into sections, each with its index and the index of
+     *   its first note, and every bar knows the part it is in,
+     *   denominators counts the bars of all the voices with each denominator,
+     *   the notes of every voice are the notes of its parts in order, and its bar lines are after
+     *   every part but the last, and after the last if it ends with one
+     */
+
+    /**
+     * Compiles a whole tune
+     * @param text the tune, as read from an abc file
+     */
+    public IncrementalCompiler(String text) {
+        this.text = new StringBuilder(text);
+        compileAll();
+    }
+
+    /**
+     * Replaces a range of the text, and compiles what the edit affects.
+     * The edit is kept even if the text does not compile, so a later edit can fix it.
+     * @param start the index of the first character to replace
+     * @param end the index after the last character to replace, start to insert
+     * @param replacement the text to put in its place
+     * @throws LexerException if the text cannot be lexed
+     * @throws ParserException if the text cannot be parsed
+     */
+    public void edit(int start, int end, String replacement) {
+        if (start < 0 || start > end || end > text.length()) {
+            throw new IndexOutOfBoundsException("Invalid edit range: " + start + " to " + end + " of " + text.length());
+        }
+        text.replace(start, end, replacement);
+        if (!lexed || start < bodyStart) {
+            compileAll();
+        } else {
+            error = null;
+            relexedLength = 0;
+            reparsedTokens = 0;
+            Relexed change = null;
+            try {
+                int from = start - bodyStart;
+                body.replace(from, end - bodyStart, replacement);
+                int[] changed = mask(from, from + replacement.length());
+                change = relex(changed[0], changed[1], replacement.length() - (end - start));
+            } catch (RuntimeException e) {
+                lexed = false;                                     //compile it all on the next edit
+                error = e;
+            }
+            if (lexed) {
+                compileBars(change);
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Gets the text of the tune, with every edit applied
+     * @return the text
+     */
+    public String getText() {
+        return text.toString();
+    }
+
+    /**
+     * Gets the compiled tune. It is patched by every edit, not copied.
+     * @return the Song, null if the header does not compile. If the text does not compile, the notes
+     *         of the bars that do not are missing.
+     */
+    public Song getSong() {
+        return song;
+    }
+
+    /**
+     * Gets the ticks per quarter note to play the tune with
+     * @return the ticks per quarter note, at which no note length is rounded
+     */
+    public int getTicksPerQuarter() {
+        return ticksPerQuarter;
+    }
+
+    /**
+     * Gets the exception the last compile failed with
+     * @return the exception, null if the text compiled
+     */
+    public RuntimeException getError() {
+        return error;
+    }
+
+    /**
+     * Checks if the text compiled
+     * @return true if the last compile did not fail
+     */
+    public boolean isCompiled() {
+        return error == null;
+    }
+
+    /**
+     * Gets how much of the body the last compile lexed
+     * @return the number of characters lexed
+     */
+    public int getRelexedLength() {
+        return relexedLength;
+    }
+
+    /**
+     * Gets how much of the body the last compile parsed
+     * @return the number of tokens parsed
+     */
+    public int getReparsedTokens() {
+        return reparsedTokens;
+    }
+
+    /**
+     * Compiles the whole text, forgetting the chunks and bars of the last compile
+     */
+    private void compileAll() {
+        lexed = false;
+        error = null;
+        song = null;
+        anonymous = null;
+        voices.clear();
+        chunks.clear();
+        voiceBars.clear();
+        denominators.clear();
+        badChunks.clear();
+        badBars.clear();
+        relexedLength = 0;
+        reparsedTokens = 0;
+        Relexed change;
+        try {
+            int keyIndex = text.indexOf("K:");
+            if (keyIndex < 0) {
+                throw new LexerException("No Key signature K: found in input");
+            }
+            int headEnd = text.indexOf("\n", keyIndex);
+            if (headEnd < 0) {
+                throw new LexerException("Reached end of file, no body after header?");
+            }
+            bodyStart = headEnd + 1;
+            headTokens = Lexer.lexHeader(text.substring(0, headEnd).replaceAll("%.*", ""));
+            song = parseHeader();
+            for (Voice v : song.getVoices()) {
+                voices.put(v.getName(), v);
+                voiceBars.put(v.getName(), new VoiceBars(v.getName()));
+            }
+            if (voices.isEmpty()) {
+                voiceBars.put(null, new VoiceBars(null));
+            }
+
+            body.setLength(0);
+            body.append(text, bodyStart, text.length());
+            mask(0, body.length());
+            change = relex(0, body.length(), body.length());
+        } catch (RuntimeException e) {
+            error = e;
+            return;
+        }
+        compileBars(change);
+    }
+
+    /**
+     * Parses the header tokens into a Song without notes
+     * @return the Song
+     */
+    private Song parseHeader() {
+        Parser parser = new Parser();
+        parser.parseHeader(headTokens);
+        return parser.getSong();
+    }
+
+    /**
+     * Blanks out the comments of the lines a range of the body is in, from the raw text.
+     * A comment is filled with the character that ends its line, \r at the end of the text, which
+     * lexes the same as the line without the comment: it is not part of a token, nor of a voice field.
+     * @param from the index of the first character of the range in the body
+     * @param to the index after the range
+     * @return the range of the body that changed, which may be wider if a % was added or removed
+     */
+    private int[] mask(int from, int to) {
+        int lineStart = from;
+        while (lineStart > 0 && !isLineTerminator(text.charAt(bodyStart + lineStart-1))) {
+            lineStart--;
+        }
+        int lineEnd = to;
+        while (lineEnd < body.length() && !isLineTerminator(text.charAt(bodyStart + lineEnd))) {
+            lineEnd++;
+        }
+
+        int[] changed = { from, to };
+        char blank = 0;                                            //the fill of the comment the loop is in, 0 if none
+        for (int i=lineStart;i<lineEnd;i++) {
+            char c = text.charAt(bodyStart + i);
+            if (isLineTerminator(c)) {
+                blank = 0;
+            } else if (c == '%' && blank == 0) {
+                int j = i;
+                while (j < body.length() && !isLineTerminator(text.charAt(bodyStart + j))) {
+                    j++;
+                }
+                blank = j < body.length() ? text.charAt(bodyStart + j) : '\r';
+            }
+            char masked = blank == 0 ? c : blank;
+            if (body.charAt(i) != masked) {
+                body.setCharAt(i, masked);
+                changed[0] = Math.min(changed[0], i);
+                changed[1] = Math.max(changed[1], i+1);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Checks if a character ends a line, and so ends a comment
+     * @param c the character
+     * @return true if c is a line terminator
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Lexes the chunks of the body a change touches again, and puts them in place of the old ones
+     * @param from the index of the first character of the body that changed
+     * @param to the index after the last character that changed, in the new body
+     * @param delta how many characters longer the body got
+     * @return the chunks that were lexed again, and the ones they replaced
+     */
+    private Relexed relex(int from, int to, int delta) {
+        // a token is lexed from the two characters before it on, but a voice field runs over blank
+        // lines to the end of the next line, so start at the chunk of any V: that may reach the change
+        int lineStart = from;
+        while (lineStart > 0 && !isLineTerminator(body.charAt(lineStart-1))) {
+            lineStart--;
+        }
+        while (lineStart > 0 && Character.isWhitespace(body.charAt(lineStart-1))) {
+            lineStart--;
+        }
+        int first = chunkAt(Math.max(lineStart - 2, 0));
+        int start = first < chunks.size() ? chunks.get(first).start : 0;
+        int next = start;
+        int last = first;
+        List<Chunk> scanned = new ArrayList<Chunk>();
+        while (true) {
+            if (next >= body.length()) {
+                last = chunks.size();
+                break;
+            }
+            if (next >= to + 2) {
+                // past the change, the old chunks are still right from one that starts here
+                while (last < chunks.size() && chunks.get(last).start + delta < next) {
+                    last++;
+                }
+                if (last < chunks.size() && chunks.get(last).start + delta == next) {
+                    break;
+                }
+            }
+            TokenBuffer tokens = new TokenBuffer();
+            int end = ScanningLexer.scanBar(body, next, tokens);
+            scanned.add(new Chunk(next, tokens));
+            relexedLength += end - next;
+            next = end;
+        }
+
+        List<Chunk> removed = new ArrayList<Chunk>(chunks.subList(first, last));
+        replace(chunks, first, last, scanned);
+        if (delta != 0) {
+            for (int i=first+scanned.size();i<chunks.size();i++) {
+                chunks.get(i).start += delta;
+            }
+        }
+        lexed = true;
+        return new Relexed(first, first + scanned.size(), start, removed);
+    }
+
+    /**
+     * Finds the chunk a character of the body is in
+     * @param index the index of the character in the body, before the chunks were moved by an edit after it
+     * @return the index of the chunk, 0 if there are none
+     */
+    private int chunkAt(int index) {
+        int lo = 0, hi = chunks.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (chunks.get(mid).start <= index) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Groups the chunks that were lexed again into the bars of their voices, parses the bars that
+     * are new, and replaces the notes that changed in the voices of the song
+     * @param change the chunks that were lexed again, and the ones they replaced
+     */
+    private void compileBars(Relexed change) {
+        epoch++;
+        boolean declared = !voices.isEmpty();
+        List<VoiceBars> changed = new ArrayList<VoiceBars>();      //the voices a chunk left or joined
+        for (Chunk c : change.removed) {
+            c.touched = epoch;
+            unassign(c, changed);
+        }
+
+        // the new chunks, then the old ones after them until one is in the voice it was in
+        int stop = change.first;
+        String voice = stop == 0 ? null : chunks.get(stop-1).voiceIn;
+        while (stop < chunks.size()) {
+            Chunk c = chunks.get(stop);
+            if (c.first > 0) {
+                voice = c.voice;
+            }
+            if (stop >= change.end && (voice == null ? c.voiceIn == null : voice.equals(c.voiceIn))) {
+                break;
+            }
+            c.touched = epoch;
+            unassign(c, changed);
+            assign(c, voice, declared);
+            if (c.owner != null && !changed.contains(c.owner)) {
+                changed.add(c.owner);
+            }
+            stop++;
+        }
+
+        for (VoiceBars v : changed) {
+            v.restart(change.start);
+        }
+        for (int i=change.first;i<stop;i++) {
+            Chunk c = chunks.get(i);
+            if (c.owner != null) {
+                c.owner.add(c);
+            }
+        }
+        for (VoiceBars v : changed) {
+            update(v, change.start, declared);
+        }
+
+        if (!badChunks.isEmpty()) {
+            fail(badChunks.iterator().next().error);
+        }
+        if (!badBars.isEmpty()) {
+            fail(badBars.iterator().next().error);
+        }
+        for (VoiceBars v : voiceBars.values()) {
+            if (v.unbalanced != null) {
+                fail(v.unbalanced);
+            }
+        }
+        try {
+            ArrayList<Integer> ds = new ArrayList<Integer>(denominators.keySet());
+            ds.add(song.getDefaultNoteLength().getDenominator());
+            ticksPerQuarter = DurationVisitor.getTicksPerQuarter(ds, song.getDefaultNoteLength());
+        } catch (RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Takes a chunk out of the voice it was in at the last compile
+     * @param c the chunk
+     * @param changed the voices a chunk left or joined, which gets the voice of the chunk
+     */
+    private void unassign(Chunk c, List<VoiceBars> changed) {
+        if (c.error != null) {
+            badChunks.remove(c);
+        }
+        if (c.owner != null && !changed.contains(c.owner)) {
+            changed.add(c.owner);
+        }
+    }
+
+    /**
+     * Finds the voice a chunk is in, or why it cannot be in one
+     * @param c the chunk
+     * @param voice the name in its voice field, or in the last one before it, null if there is none
+     * @param declared true if the tune declares its voices
+     */
+    private void assign(Chunk c, String voice, boolean declared) {
+        c.voiceIn = voice;
+        c.owner = null;
+        c.error = null;
+        if (c.first > 0 && !declared) {
+            c.error = new ParserException("Invalid type found in body");
+        }
+        if (c.first < c.tokens.size()) {
+            if (!declared) {
+                c.owner = voiceBars.get(null);
+            } else if (voice == null) {
+                c.error = new ParserException("Malformed body: Body starts with an undeclared voice");
+            } else {
+                c.owner = voiceBars.get(voice);
+                if (c.owner == null) {
+                    c.error = new ParserException("Malformed body: Undeclared voice " + voice);
+                }
+            }
+        }
+        if (c.error != null) {
+            badChunks.add(c);
+        }
+    }
+
+    /**
+     * Replaces the bars of a voice an edit changed with the new ones, then splits the sections around
+     * them into parts again and patches the voice
+     * @param v the bars of the voice, which got every new chunk in it
+     * @param start the index in the body the new chunks start at
+     * @param declared true if the tune declares its voices
+     */
+    private void update(VoiceBars v, int start, boolean declared) {
+        List<Bar> bars = v.bars;
+        int from = Math.max(v.restart, 0);
+        int to = v.regroup(start);
+        List<Bar> replaced = new ArrayList<Bar>(bars.subList(from, to));
+        for (Bar b : replaced) {
+            if (b.epoch != epoch) {
+                count(b, -1);                                      //the bar is gone
+            }
+            if (b.error != null) {
+                badBars.remove(b);
+            }
+        }
+        for (Bar b : v.next) {
+            if (b.error != null) {
+                badBars.add(b);
+            }
+        }
+        replace(bars, from, to, v.next);
+        if (!sameRepeats(replaced, v.next)) {
+            v.unbalanced = checkRepeats(bars);
+        }
+
+        // widen the new bars to whole sections, both before and after the edit
+        int end = from + v.next.size();
+        Bar before = from > 0 ? bars.get(from-1) : null;
+        Bar oldFirst = !replaced.isEmpty() ? replaced.get(0) : end < bars.size() ? bars.get(end) : null;
+        int first = from;
+        if (!startsSection(oldFirst, before) || !startsSection(from < bars.size() ? bars.get(from) : null, before)) {
+            first--;
+            while (!startsSection(bars.get(first), first > 0 ? bars.get(first-1) : null)) {
+                first--;
+            }
+        }
+        Bar after = end < bars.size() ? bars.get(end) : null;
+        int last = end;
+        if (!startsSection(after, replaced.isEmpty() ? before : replaced.get(replaced.size()-1))
+                || !startsSection(after, v.next.isEmpty() ? before : v.next.get(v.next.size()-1))) {
+            last++;
+            while (last < bars.size() && !startsSection(bars.get(last), bars.get(last-1))) {
+                last++;
+            }
+        }
+        int fromPart = first < from ? bars.get(first).part.index : oldFirst == null ? v.parts.size() : oldFirst.part.index;
+        int toPart = last == bars.size() ? v.parts.size() : bars.get(last).part.index;
+        List<Part> newParts = partsOf(bars.subList(first, last));
+
+        if (declared) {
+            patch(voices.get(v.name), v, fromPart, toPart, newParts);
+            return;
+        }
+        patch(anonymous, v, fromPart, toPart, newParts);
+        boolean hasNotes = offsetOf(v.parts, v.parts.size()) > 0;
+        if (hasNotes && anonymous == null) {
+            // the voice of a tune without voice fields only exists if it has notes
+            anonymous = new Voice(null);
+            song.addVoice(anonymous);
+            for (Part p : v.parts) {
+                anonymous.getNotes().addAll(p.notes);
+            }
+            anonymous.getBarLines().addAll(barLinesAfter(v.parts, 0, v.parts.size()));
+        } else if (!hasNotes && anonymous != null) {
+            // a Song cannot drop a voice, so start again from the header
+            song = parseHeader();
+            anonymous = null;
+        }
+    }
+
+    /**
+     * Tells whether a bar starts a section: it is the first bar of the voice, starts with a |:
+     * or comes after a ||
+     * @param bar the bar, null past the last bar of the voice
+     * @param before the bar before it, null if it is the first bar
+     * @return true if a section starts at the bar, or the voice ends there
+     */
+    private static boolean startsSection(Bar bar, Bar before) {
+        return bar == null || before == null || bar.startsRepeat || before.endsSection;
+    }
+
+    /**
+     * Replaces a range of the parts of a voice, and the notes and bar lines of the parts that changed
+     * @param voice the voice to patch, null if it has no notes
+     * @param v the bars of the voice, with the parts its notes are made of
+     * @param from the index of the first part to replace
+     * @param to the index after the last part to replace
+     * @param newParts the parts to put in their place, in order
+     */
+    private void patch(Voice voice, VoiceBars v, int from, int to, List<Part> newParts) {
+        List<Part> parts = v.parts;
+        int same = 0;
+        while (from + same < to && same < newParts.size() && parts.get(from + same) == newParts.get(same)) {
+            same++;
+        }
+        int oldEnd = to, newEnd = newParts.size();
+        while (oldEnd > from + same && newEnd > same && parts.get(oldEnd-1) == newParts.get(newEnd-1)) {
+            oldEnd--;
+            newEnd--;
+        }
+        from += same;
+        List<Part> changed = newParts.subList(same, newEnd);
+        if (oldEnd == from && changed.isEmpty()) {
+            return;
+        }
+
+        int offset = offsetOf(parts, from);
+        int removed = offsetOf(parts, oldEnd) - offset;
+        List<NoteElement> added = new ArrayList<NoteElement>();
+        for (Part p : changed) {
+            added.addAll(p.notes);
+        }
+        replace(parts, from, oldEnd, changed);
+        // the parts after the change keep their indexes unless the number of parts or notes changed
+        int renumbered = oldEnd - from == changed.size() && added.size() == removed ? from + changed.size() : parts.size();
+        int next = offset;
+        for (int i=from;i<renumbered;i++) {
+            Part p = parts.get(i);
+            p.index = i;
+            p.offset = next;
+            next += p.notes.size();
+        }
+        for (Part p : changed) {
+            if (p instanceof Section) {
+                for (Bar b : ((Section) p).bars) {
+                    b.part = p;
+                }
+            } else {
+                ((Bar) p).part = p;
+            }
+        }
+        if (voice == null) {
+            return;
+        }
+
+        replace(voice.getNotes(), offset, offset + removed, added);
+        // a bar line is after every part but the last, and after the last if it ends with one,
+        // so the bar lines from the end of the part before the change to the end of the change are new
+        List<Integer> barLines = voice.getBarLines();
+        int first = firstBarLine(barLines, offset);
+        List<Integer> changedLines = barLinesAfter(parts, from - 1, from + changed.size());
+        replace(barLines, first, firstBarLine(barLines, offset + removed + 1), changedLines);
+        if (added.size() != removed) {
+            for (int i=first+changedLines.size();i<barLines.size();i++) {
+                barLines.set(i, barLines.get(i) + added.size() - removed);
+            }
+        }
+    }
+
+    /**
+     * Finds the index of the first note of a part in its voice
+     * @param parts the parts of the voice, each with the index of its first note
+     * @param index the index of the part, parts.size() for the end of the voice
+     * @return the index of the first note of the part, the number of notes of the voice at the end
+     */
+    private static int offsetOf(List<Part> parts, int index) {
+        if (index < parts.size()) {
+            return parts.get(index).offset;
+        }
+        if (parts.isEmpty()) {
+            return 0;
+        }
+        Part last = parts.get(parts.size()-1);
+        return last.offset + last.notes.size();
+    }
+
+    /**
+     * Finds the bar lines after a range of the parts of a voice
+     * @param parts the parts of the voice, each with the index of its first note
+     * @param from the index of the first part, -1 for the start of the voice
+     * @param to the index after the last part
+     * @return the indexes of the notes the bar lines are before, in ascending order
+     */
+    private static List<Integer> barLinesAfter(List<Part> parts, int from, int to) {
+        List<Integer> barLines = new ArrayList<Integer>();
+        for (int i=Math.max(from, 0);i<to;i++) {
+            Part p = parts.get(i);
+            int end = p.offset + p.notes.size();
+            if (end > 0 && (i + 1 < parts.size() || p.barLine)
+                    && (barLines.isEmpty() || barLines.get(barLines.size()-1) < end)) {
+                barLines.add(end);
+            }
+        }
+        return barLines;
+    }
+
+    /**
+     * Finds the first bar line at or after a note
+     * @param barLines the indexes of the notes a bar line is before, in ascending order
+     * @param from the index of the note
+     * @return the index of the first bar line at or after the note, barLines.size() if there is none
+     */
+    private static int firstBarLine(List<Integer> barLines, int from) {
+        int low = 0, high = barLines.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (barLines.get(middle) < from) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Replaces a range of a list, setting the elements in place if the range keeps its length,
+     * so that the elements after it are only moved if they have to be
+     * @param list the list
+     * @param from the index of the first element to replace
+     * @param to the index after the last element to replace
+     * @param with the elements to put in their place, not a view of list
+     */
+    private static <T> void replace(List<T> list, int from, int to, List<? extends T> with) {
+        if (to - from == with.size()) {
+            for (int i=0;i<with.size();i++) {
+                list.set(from + i, with.get(i));
+            }
+        } else {
+            list.subList(from, to).clear();
+            list.addAll(from, with);
+        }
+    }
+
+    /**
+     * Splits whole sections of the bars of a voice into the parts its notes are made of: a Repeat for
+     * the bars of a section up to its last :|, then the bars after it one by one
+     * @param sectionBars the bars, from the start of a section to the start of another or the end of the voice
+     * @return the parts of the bars, in order
+     */
+    private List<Part> partsOf(List<Bar> sectionBars) {
+        List<Part> result = new ArrayList<Part>();
+        int start = 0;
+        while (start < sectionBars.size()) {
+            // a section starts at the start of the voice, at a |: or after a ||
+            int end = start + 1;
+            while (end < sectionBars.size() && !startsSection(sectionBars.get(end), sectionBars.get(end-1))) {
+                end++;
+            }
+
+            int repeated = -1;                                     //the last bar whose :| repeats any notes
+            boolean hasNotes = false;
+            for (int i=start;i<end;i++) {
+                Bar b = sectionBars.get(i);
+                hasNotes |= !b.notes.isEmpty();
+                if (b.endsRepeat && hasNotes) {
+                    repeated = i;
+                }
+            }
+
+            if (repeated >= 0) {
+                result.add(repeatOf(sectionBars.subList(start, repeated+1)));
+            }
+            for (int i=repeated<0 ? start : repeated+1;i<end;i++) {
+                result.add(sectionBars.get(i));
+            }
+            start = end;
+        }
+        return result;
+    }
+
+    /**
+     * Checks that the repeats of a voice are balanced: every |: is closed by a :| before the next one
+     * @param bars the bars of the voice, in order
+     * @return the error if they are not, null if they are
+     */
+    private static RuntimeException checkRepeats(List<Bar> bars) {
+        boolean repeatsBalanced = true;
+        for (Bar b : bars) {
+            if (b.startsRepeat) {
+                if (!repeatsBalanced) {
+                    return new ParserException("Malformed Body: Repeats are not balanced");
+                }
+                repeatsBalanced = false;
+            }
+            if (b.endsRepeat) {
+                repeatsBalanced = true;
+            }
+        }
+        return repeatsBalanced ? null : new ParserException("Malformed Body: Repeats are not balanced");
+    }
+
+    /**
+     * Tells whether two runs of bars have the same |: and :|, so that replacing one with the other
+     * leaves the repeats of the voice as balanced as they were
+     * @param a the first bars
+     * @param b the second bars
+     * @return true if the bars with a |: or a :| have the same ones, in the same order
+     */
+    private static boolean sameRepeats(List<Bar> a, List<Bar> b) {
+        int i = 0, j = 0;
+        while (true) {
+            while (i < a.size() && !a.get(i).startsRepeat && !a.get(i).endsRepeat) {
+                i++;
+            }
+            while (j < b.size() && !b.get(j).startsRepeat && !b.get(j).endsRepeat) {
+                j++;
+            }
+            if (i == a.size() || j == b.size()) {
+                return i == a.size() && j == b.size();
+            }
+            if (a.get(i).startsRepeat != b.get(j).startsRepeat || a.get(i).endsRepeat != b.get(j).endsRepeat) {
+                return false;
+            }
+            i++;
+            j++;
+        }
+    }
+
+    /**
+     * Builds the Repeat of the bars of a section up to a :|, or reuses it if the bars did not change
+     * @param sectionBars the bars, the last one ending with a :|
+     * @return the part holding the Repeat
+     */
+    private Section repeatOf(List<Bar> sectionBars) {
+        Bar first = sectionBars.get(0);
+        if (first.section != null && first.section.bars.equals(sectionBars)) {
+            return first.section;
+        }
+
+        List<NoteElement> notes = new ArrayList<NoteElement>();
+        List<Integer> barLines = new ArrayList<Integer>();
+        for (Bar b : sectionBars) {
+            if (!notes.isEmpty() && (barLines.isEmpty() || barLines.get(barLines.size()-1) < notes.size())) {
+                barLines.add(notes.size());                        //the bar line the bar before ends with
+            }
+            notes.addAll(b.notes);
+            if (b.endsRepeat && !notes.isEmpty()) {
+                // every :| repeats from the start of the section, like Parser.parseVoice
+                List<NoteElement> repeat = new ArrayList<NoteElement>(1);
+                repeat.add(new Repeat(notes, barLines));
+                notes = repeat;
+                barLines = new ArrayList<Integer>();
+            }
+        }
+        first.section = new Section(new ArrayList<Bar>(sectionBars), notes);
+        return first.section;
+    }
+
+    /**
+     * Adds or removes the denominators of a bar from the denominator counts
+     * @param bar the bar
+     * @param delta 1 to add them, -1 to remove them
+     */
+    private void count(Bar bar, int delta) {
+        for (int d : bar.denominators) {
+            Integer n = denominators.get(d);
+            int updated = (n == null ? 0 : n) + delta;
+            if (updated == 0) {
+                denominators.remove(d);
+            } else {
+                denominators.put(d, updated);
+            }
+        }
+    }
+
+    /**
+     * Tells whether a token is a bar line a chunk can end with
+     * @param type the type of the token, null if there is none
+     * @return true if it is a |, || or :|
+     */
+    private static boolean isBarLine(Token.Type type) {
+        return type == Token.Type.BAR || type == Token.Type.DOUBLE_BAR || type == Token.Type.REPEAT_END;
+    }
+
+    /**
+     * Records an error, unless one was already found
+     * @param e the error
+     */
+    private void fail(RuntimeException e) {
+        if (error == null) {
+            error = e;
+        }
+    }
+
+    /**
+     * The tokens of a run of the body, up to and including a bar line, or up to a |: or a voice field
+     */
+    private static class Chunk {
+        int start;                                                 //the index of the chunk in the body
+        final TokenBuffer tokens;
+        final int first;                                           //the index of the first token after a voice field
+        final String voice;                                        //the name in the voice field, null if there is none
+        String voiceIn;                                            //the name in the last voice field up to the chunk, null if none
+        VoiceBars owner;                                           //the bars of the voice the chunk is in, null if it is in none
+        RuntimeException error;                                    //the reason the chunk cannot be in a voice, null if it can
+        Bar bar;                                                   //the bar the chunk was in at the last compile
+        int position;                                              //the index of the chunk in that bar
+        int touched;                                               //the last compile that lexed the chunk again or changed its voice
+
+        /**
+         * Creates a Chunk object
+         * @param start the index of the chunk in the body
+         * @param tokens the tokens of the chunk
+         */
+        public Chunk(int start, TokenBuffer tokens) {
+            this.start = start;
+            this.tokens = tokens;
+            this.first = tokens.size() > 0 && tokens.getType(0) == Token.Type.VOICE ? 1 : 0;
+            this.voice = first > 0 ? tokens.getValue(0) : null;
+        }
+
+        /**
+         * Gets the type of the last token of the chunk
+         * @return the type, null if the chunk has no tokens
+         */
+        public Token.Type lastType() {
+            return tokens.size() == 0 ? null : tokens.getType(tokens.size()-1);
+        }
+    }
+
+    /**
+     * Some of the notes of a voice, which are replaced together
+     */
+    private static class Part {
+        final List<NoteElement> notes;
+        final boolean barLine;                                     //true if the part ends with a bar line
+        int index;                                                 //the index of the part in the parts of its voice
+        int offset;                                                //the index of its first note in the voice
+
+        /**
+         * Creates a Part object
+         * @param notes the notes of the part
+         * @param barLine true if the part ends with a bar line
+         */
+        public Part(List<NoteElement> notes, boolean barLine) {
+            this.notes = notes;
+            this.barLine = barLine;
+        }
+    }
+
+    /**
+     * The chunks of a voice up to a bar line, parsed on their own
+     */
+    private static class Bar extends Part {
+        final List<Chunk> chunks;
+        final boolean startsRepeat;
+        final boolean endsRepeat;
+        final boolean endsSection;
+        final RuntimeException error;
+        final List<Integer> denominators;
+        Section section;                                           //the Repeat the bar started at the last compile
+        Part part;                                                 //the part the bar is in, itself or a Section
+        int epoch;                                                 //the last compile the bar was in
+
+        /**
+         * Creates a Bar object
+         * @param chunks the chunks of the bar, all in the same voice
+         * @param notes the notes of the bar
+         * @param error the exception parsing the bar failed with, null if it did not
+         */
+        public Bar(List<Chunk> chunks, List<NoteElement> notes, RuntimeException error) {
+            super(notes, isBarLine(chunks.get(chunks.size()-1).lastType()));
+            this.chunks = chunks;
+            this.error = error;
+            Chunk first = chunks.get(0);
+            this.startsRepeat = first.tokens.getType(first.first) == Token.Type.REPEAT_START;
+            Token.Type last = chunks.get(chunks.size()-1).lastType();
+            this.endsRepeat = last == Token.Type.REPEAT_END;
+            this.endsSection = last == Token.Type.DOUBLE_BAR;
+
+            DurationVisitor durationV = new DurationVisitor();
+            for (NoteElement n : notes) {
+                n.accept(durationV);
+            }
+            this.denominators = new ArrayList<Integer>(durationV.getDenominators());
+            for (int i=0;i<chunks.size();i++) {
+                chunks.get(i).bar = this;
+                chunks.get(i).position = i;
+            }
+        }
+    }
+
+    /**
+     * Parses the tokens of the chunks of a bar. The :| a bar may end with is left to partsOf,
+     * since it repeats the bars before it too.
+     * @param barChunks the chunks of the bar
+     * @return the parsed bar, with the exception parsing it failed with if it did
+     */
+    private Bar parse(List<Chunk> barChunks) {
+        TokenBuffer tokens = new TokenBuffer();
+        for (int i=0;i<barChunks.size();i++) {
+            Chunk c = barChunks.get(i);
+            int end = c.tokens.size();
+            if (i == barChunks.size()-1 && c.lastType() == Token.Type.REPEAT_END) {
+                end--;
+            }
+            tokens.addAll(c.tokens, c.first, end);
+        }
+        reparsedTokens += tokens.size();
+        try {
+            return new Bar(barChunks, Parser.parseSection(song.getKeySignature(), tokens), null);
+        } catch (RuntimeException e) {
+            return new Bar(barChunks, Collections.<NoteElement>emptyList(), e);
+        }
+    }
+
+    /**
+     * The bars of a section up to a :|, which make up one Repeat
+     */
+    private static class Section extends Part {
+        final List<Bar> bars;
+
+        /**
+         * Creates a Section object
+         * @param bars the bars of the section
+         * @param notes the Repeat of the bars, alone in a list
+         */
+        public Section(List<Bar> bars, List<NoteElement> notes) {
+            super(notes, true);
+            this.bars = bars;
+        }
+    }
+
+
+    /**
+     * The bars of one voice. Groups the chunks of the voice an edit changed into bars, from the last
+     * bar before the edit until a bar the edit did not touch starts where it did, and reuses the bars
+     * of the last compile whose chunks did not change.
+     */
+    private class VoiceBars {
+        final String name;
+        final List<Bar> bars = new ArrayList<Bar>();               //the bars of the last compile
+        final List<Part> parts = new ArrayList<Part>();            //the parts of the last compile
+        RuntimeException unbalanced;                               //the error of the repeats of the bars, null if none
+        int restart;                                               //the index of the last bar that starts before the edit, -1 if none
+        List<Bar> next;                                            //the bars of this compile from restart on
+        private Bar reused;                                        //the old bar the open bar may be, null if it is new
+        private List<Chunk> open;                                  //the chunks of the open bar, null if it is reused so far
+        private int matched;                                       //the number of chunks of the open bar so far
+
+        /**
+         * Creates a VoiceBars object
+         * @param name the name of the voice
+         */
+        public VoiceBars(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Starts grouping the chunks of a new compile at the last bar that starts before the edit,
+         * and adds the chunks of that bar before it
+         * @param start the index in the body the new chunks start at
+         */
+        public void restart(int start) {
+            // the bars after the edit start at or after it, whether they were moved or lexed again
+            int low = 0, high = bars.size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (bars.get(middle).chunks.get(0).start < start) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            restart = low - 1;
+            next = new ArrayList<Bar>();
+            matched = 0;
+            if (restart >= 0) {
+                for (Chunk c : bars.get(restart).chunks) {
+                    if (c.touched != epoch && c.start < start) {
+                        add(c);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Adds the chunks of the old bars after the edit, until the open bar is closed just before
+         * a bar the edit did not touch, and ends the last bar of the voice if there is no such bar
+         * @param start the index in the body the new chunks start at
+         * @return the index of the old bar the grouping stopped at, the bars from restart up to it
+         *         are replaced by next
+         */
+        public int regroup(int start) {
+            int j = Math.max(restart, 0);
+            for (;j<bars.size();j++) {
+                Bar b = bars.get(j);
+                if (j > restart && matched == 0 && !touched(b)) {
+                    return j;                                      //the bars from here on are the old ones
+                }
+                for (Chunk c : b.chunks) {
+                    if (c.touched != epoch && c.start >= start) {
+                        add(c);
+                    }
+                }
+            }
+            close();
+            return j;
+        }
+
+        /**
+         * Tells whether this compile lexed a chunk of a bar again, or moved it to another voice
+         * @param b the bar
+         * @return true if a chunk of the bar was touched by the edit
+         */
+        private boolean touched(Bar b) {
+            for (Chunk c : b.chunks) {
+                if (c.touched == epoch) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Adds the next chunk of the voice
+         * @param chunk the chunk, with tokens other than a voice field
+         */
+        public void add(Chunk chunk) {
+            if (matched > 0 && chunk.tokens.getType(chunk.first) == Token.Type.REPEAT_START) {
+                close();
+            }
+            if (matched == 0) {
+                // only a bar of the voice whose chunks were not touched by the edit
+                reused = chunk.bar != null && chunk.position == 0 && chunk.touched != epoch ? chunk.bar : null;
+                open = reused == null ? new ArrayList<Chunk>() : null;
+            }
+            if (open == null && chunk.bar == reused && chunk.position == matched && chunk.touched != epoch) {
+                matched++;
+            } else {
+                if (open == null) {
+                    open = new ArrayList<Chunk>(reused.chunks.subList(0, matched));
+                }
+                open.add(chunk);
+                matched++;
+            }
+
+            if (isBarLine(chunk.lastType())) {
+                close();
+            }
+        }
+
+        /**
+         * Ends the open bar, if there is one
+         */
+        private void close() {
+            if (matched == 0) {
+                return;
+            }
+            Bar bar;
+            if (open == null && matched == reused.chunks.size()) {
+                bar = reused;
+            } else {
+                bar = parse(open == null ? new ArrayList<Chunk>(reused.chunks.subList(0, matched)) : open);
+                count(bar, 1);
+            }
+            bar.epoch = epoch;
+            next.add(bar);
+            matched = 0;
+        }
+    }
+
+    /**
+     * The chunks an edit lexed again, and the ones they replaced
+     */
+    private static class Relexed {
+        final int first;                                           //the index of the first new chunk
+        final int end;                                             //the index after the last new chunk
+        final int start;                                           //the index in the body the new chunks start at
+        final List<Chunk> removed;                                 //the old chunks, in order
+
+        /**
+         * Creates a Relexed object
+         * @param first the index of the first new chunk
+         * @param end the index after the last new chunk
+         * @param start the index in the body the new chunks start at
+         * @param removed the old chunks, in order
+         */
+        public Relexed(int first, int end, int start, List<Chunk> removed) {
+            this.first = first;
+            this.end = end;
+            this.start = start;
+            this.removed = removed;
+        }
+    }
+}
@@ -6,11 +6,11 @@ import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
 
-public class Lexer{
+public class Lexer implements TuneLexer {
 	
     private String head,body;
     
-    private final String regexHeader = 				//One regex for the header
+    private static final String regexHeader = 				//One regex for the header
   			 "((?<=C:)\\s*.+)|" 		+  			//1- add COMPOSER
  "((?<=K:)\\s*[A-Ga-g][#b]?m?)|" 		+			//2- add KEY
    "((?<=L:)\\s*[0-9]+/[0-9]+)|" 		+			//3- add LENGTH
@@ -42,8 +42,35 @@ public class Lexer{
 			   "((?<=V:)\\s*.+(?=\\n))"		;			//13- add VOICE
     
     // Create a headMap, headMapping token types to their numbers in order
-    private static Map<String,Integer> headMap;
-    private static Map<String,Integer> bodyMap;
+    private static final Map<String,Integer> headMap=new HashMap<String,Integer>();
+    private static final Map<String,Integer> bodyMap=new HashMap<String,Integer>();
+
+    static {
+        //regex group headMappings for header
+        headMap.put("COMPOSER", 1);
+        headMap.put("KEY", 2);
+        headMap.put("LENGTH", 3);
+        headMap.put("METER", 4);
+        headMap.put("TEMPO", 5);
+        headMap.put("TITLE", 6);
+        headMap.put("INDEX", 7);
+        headMap.put("VOICE", 8);
+        
+        //regex group bodyMappings for body
+        bodyMap.put("KEYNOTE", 1);
+        bodyMap.put("REST", 2);
+        bodyMap.put("CHORD_START", 3);
+        bodyMap.put("CHORD_END", 4);
+        bodyMap.put("DUPLET_START", 5);
+        bodyMap.put("TRIPLET_START", 6);
+        bodyMap.put("QUAD_START", 7);
+        bodyMap.put("BAR", 8);
+        bodyMap.put("DOUBLE_BAR", 9);
+        bodyMap.put("REPEAT_START", 10);
+        bodyMap.put("REPEAT_END", 11);
+        bodyMap.put("REPEAT_NUMBER", 12);
+        bodyMap.put("VOICE", 13);
+    }
     
     /**
      * Returns this.head
@@ -71,35 +98,6 @@ public class Lexer{
         
         this.head=uncomment(makeHeader(s)); //head of the piece, no comments 
         this.body=uncomment(makeBody(s)); 	//body of the piece, no comments
-                
-        headMap=new HashMap<String,Integer>();
-        bodyMap=new HashMap<String,Integer>();
-
-        //regex group headMappings for header
-        headMap.put("COMPOSER", 1);
-        headMap.put("KEY", 2);
-        headMap.put("LENGTH", 3);
-        headMap.put("METER", 4);
-        headMap.put("TEMPO", 5);
-        headMap.put("TITLE", 6);
-        headMap.put("INDEX", 7);
-        headMap.put("VOICE", 8);
-        
-        //regex group bodyMappings for body
-        bodyMap.put("KEYNOTE", 1);
-        bodyMap.put("REST", 2);
-        bodyMap.put("CHORD_START", 3);
-        bodyMap.put("CHORD_END", 4);
-        bodyMap.put("DUPLET_START", 5);
-        bodyMap.put("TRIPLET_START", 6);
-        bodyMap.put("QUAD_START", 7);
-        bodyMap.put("BAR", 8);
-        bodyMap.put("DOUBLE_BAR", 9);
-        bodyMap.put("REPEAT_START", 10);
-        bodyMap.put("REPEAT_END", 11);
-        bodyMap.put("REPEAT_NUMBER", 12);
-        bodyMap.put("VOICE", 13);
-        
     }
     
     /**
@@ -161,14 +159,23 @@ public class Lexer{
      * @return ArrayList
      */
     public ArrayList<Token> lexHead(){
+        return lexHeader(this.head);
+    }
+    
+    /**
+     * Creates a list of header tokens from a header string
+     * @param head, the header of the piece, without comments
+     * @return ArrayList, list of header Tokens
+     */
+    public static ArrayList<Token> lexHeader(String head){
         
         // Create patterns
         ArrayList <Token> tokens = new ArrayList<Token>(0);
         
-        Pattern headPattern = Pattern.compile(this.regexHeader);
+        Pattern headPattern = Pattern.compile(regexHeader);
         
         // Create headMatchers and start matching to groups 
-        Matcher headMatcher = headPattern.matcher(this.head);
+        Matcher headMatcher = headPattern.matcher(head);
         
         
         while (headMatcher.find()) {
@@ -349,5 +356,13 @@ public class Lexer{
 
         return tokens;
     }
+
+    /**
+     * Creates a TokenBuffer of body tokens from the given abc string
+     * @return TokenBuffer, the body tokens
+     */
+    public TokenBuffer lexBodyBuffer() {
+        return TokenBuffer.of(lexBody());
+    }
     
 }
@@ -6,21 +6,66 @@ import java.io.IOException;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sound.midi.MidiSystem;
 import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import ast.Song;
+import sound.LatencyHistogram;
+import sound.MidiFileWriter;
 import sound.SequencePlayer;
+import sound.WavRenderer;
 
 /**
  * Main entry point of your application.
  */
 public class Main {
 
+	/**
+	 * Set the system property abcplayer.lexer=scanning to lex the body with the
+	 * ScanningLexer instead of the regex Lexer, or abcplayer.lexer=streaming to lex
+	 * the file with a StreamingLexer without reading it into a String first.
+	 */
+	private static final String LEXER = System.getProperty("abcplayer.lexer", "regex");
+
+	/**
+	 * Set the system property abcplayer.cache to a directory to keep the compiled tunes there,
+	 * and play a file that has not changed since it was last played without compiling it again.
+	 */
+	private static final String CACHE_DIR = System.getProperty("abcplayer.cache");
+
+	private static final TuneCache CACHE = CACHE_DIR == null ? null : new TuneCache(new File(CACHE_DIR));
+
+	/**
+	 * Set the system property abcplayer.scheduler=realtime to play the tunes with the
+	 * MidiScheduler instead of the JDK Sequencer. With abcplayer.metrics=true, how late
+	 * the notes were sent is printed to the standard error stream.
+	 */
+	private static final boolean REALTIME = "realtime".equals(System.getProperty("abcplayer.scheduler"));
+
+	/**
+	 * Set the system property abcplayer.bars to a bar number to play the tunes from that bar
+	 * on, or to from-to to play the bars from the first number up to the second, without it.
+	 * Bars are numbered from 0, as they are played, and end at the bar lines of the tune.
+	 * They are played with the scheduler abcplayer.scheduler picks.
+	 */
+	private static final String BARS = System.getProperty("abcplayer.bars");
+
+	/**
+	 * Set the system property abcplayer.metrics=true to time each phase of compiling the
+	 * tunes, and print the histograms to the standard error stream.
+	 */
+	private static final CompilationMetrics METRICS = Boolean.getBoolean("abcplayer.metrics")
+			? new HistogramMetrics() : CompilationMetrics.NONE;
+
 	/**
 	 * Reads file from filename to a single String
 	 * @param path, the path to file. If file not found, IOException is thrown.
 	 * @return String, the contents of the file in the default charset.
 	 */
 	
-	private static String readFile(String path) throws IOException {
+	public static String readFile(String path) throws IOException {
 		
 		  FileInputStream stream = new FileInputStream(new File(path));
 		  try {
@@ -43,31 +88,267 @@ public class Main {
      * @param file the name of input abc file
      */
     public static void play(String file) throws IOException {
-    	String input_string=readFile(file);
-
-    	Lexer lexer = new Lexer(input_string);
-    	//print header
-    	System.out.print(lexer.getHead());
-    	
-    	Parser parser = new Parser();
-    	parser.parse(lexer.lexHead(),lexer.lexBody());
-            	
-    	DurationVisitor durationV = new DurationVisitor();
-        durationV.visit(parser.getSong());
-        
-        PlayerVisitor visitor = new PlayerVisitor(durationV.getTicksPerQuarter(),parser.getSong().getTempo(),parser.getSong().getDefaultNoteLength());
-        visitor.visit(parser.getSong());
-        SequencePlayer player = visitor.getPlayer();
+    	String hash = null;
+    	if (CACHE != null) {
+    		FileInputStream stream = new FileInputStream(new File(file));
+    		try {
+    			FileChannel fc = stream.getChannel();
+    			hash = TuneCache.hash(fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()));
+    		}
+    		finally {
+    			stream.close();
+    		}
+
+    		CachedTune cached = CACHE.load(hash);
+    		if (cached != null) {
+    			System.out.print(cached.getHead());
+    			play(cached.toPlayer());
+    			return;
+    		}
+    	}
+
+    	CompiledTune tune;
+    	if (LEXER.equals("streaming")) {
+    		FileInputStream stream = new FileInputStream(new File(file));
+    		try {
+    			FileChannel fc = stream.getChannel();
+    			MappedByteBuffer bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+    			tune = compile(StreamingLexer.forBuffer(bb, Charset.defaultCharset()));
+    		}
+    		finally {
+    			stream.close();
+    		}
+    	} else if (LEXER.equals("scanning")) {
+    		tune = compile(new ScanningLexer(readFile(file)));
+    	} else {
+    		tune = compile(new Lexer(readFile(file)));
+    	}
+    	Song song = tune.getSong();
+    	SequencePlayer player = tune.render(METRICS);
+    	printMetrics();
+
+        if (CACHE != null) {
+            try {
+                CACHE.store(hash, CachedTune.fromPlayer(tune.getHead(), song.getTitle(), song.getIndex(), player));
+            } catch (IOException e) {
+                System.err.println("Cannot cache " + file + ": " + e.getMessage());
+            }
+        }
         
+        play(player);
+    }
+
+    /**
+     * Plays a rendered tune, and waits until it is done
+     * @param player the SequencePlayer of the tune
+     */
+    private static void play(SequencePlayer player) {
         try {
-            player.play();
+            if (REALTIME) {
+                Receiver receiver = MidiSystem.getReceiver();
+                try {
+                    LatencyHistogram latency;
+                    if (BARS != null) {
+                        int[] bars = barRange(player);
+                        latency = player.playTo(receiver, bars[0], bars[1]);
+                    } else {
+                        latency = player.playTo(receiver);
+                    }
+                    if (METRICS instanceof HistogramMetrics) {
+                        System.err.println("Playback: " + latency);
+                    }
+                } finally {
+                    receiver.close();
+                }
+            } else if (BARS != null) {
+                int[] bars = barRange(player);
+                player.playRange(bars[0], bars[1]);
+            } else {
+                player.play();
+            }
         } catch (MidiUnavailableException e) {
             e.printStackTrace();
         }
-    		
+    }
+
+    /**
+     * Reads the bars to play from abcplayer.bars, a bar to play from or a range of bars
+     * @param player the SequencePlayer of the tune, with its bar index
+     * @return the number of the first bar to play and of the bar after the last one
+     */
+    private static int[] barRange(SequencePlayer player) {
+        int dash = BARS.indexOf('-');
+        if (dash < 0) {
+            return new int[] { Integer.parseInt(BARS.trim()), player.getBarIndex().getBarCount() };
+        }
+        return new int[] { Integer.parseInt(BARS.substring(0, dash).trim()), Integer.parseInt(BARS.substring(dash + 1).trim()) };
+    }
+
+    /**
+     * Prints the header of a tune, then compiles it, reporting the phases to abcplayer.metrics
+     * @param lexer the lexer of the tune
+     * @return the compiled tune
+     */
+    private static CompiledTune compile(TuneLexer lexer) {
+        System.out.print(lexer.getHead());
+        return CompiledTune.compile(0, lexer, METRICS);
+    }
+
+    /**
+     * Prints the histograms of the phases to the standard error stream, if abcplayer.metrics is set
+     */
+    private static void printMetrics() {
+        if (METRICS instanceof HistogramMetrics) {
+            System.err.print(((HistogramMetrics) METRICS).export());
+        }
     }
     
+    /**
+     * Converts every .abc file in a directory to Standard MIDI Files, without playing them.
+     * A file with one tune is written to name.mid, a file with several tunes to name-1.mid,
+     * name-2.mid, ... Files that cannot be read and tunes that fail to compile are reported on
+     * the standard error stream and skipped.
+     * 
+     * @param dir the directory of abc files
+     * @param outDir the directory to write the .mid files to, created if missing
+     * @return the number of .mid files written
+     */
+    public static int convertDirectory(File dir, File outDir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Not a directory: " + dir);
+        }
+        outDir.mkdirs();
+
+        int written = 0;
+        for (File file : files) {
+            String name = file.getName();
+            if (!file.isFile() || !name.endsWith(".abc")) {
+                continue;
+            }
+            String base = name.substring(0, name.length() - ".abc".length());
+
+            List<CompiledTune> tunes;
+            try {
+                Songbook book = Songbook.open(file, Charset.defaultCharset());
+                book.setMetrics(METRICS);
+                tunes = book.compileAll();
+            } catch (IOException e) {
+                System.err.println(name + ": " + e.getMessage());
+                continue;
+            }
+            for (CompiledTune tune : tunes) {
+                if (!tune.isCompiled()) {
+                    System.err.println(name + ", tune " + (tune.getIndex() + 1) + ": " + tune.getError().getMessage());
+                    continue;
+                }
+                String midiName = tunes.size() == 1 ? base + ".mid" : base + "-" + (tune.getIndex() + 1) + ".mid";
+
+                try {
+                    MidiFileWriter.write(tune.render(METRICS), new File(outDir, midiName));
+                    written++;
+                } catch (RuntimeException e) {
+                    // e.g. a SequencePlayer that could not be created from an invalid tempo, or a
+                    // resolution too fine for a MIDI file
+                    System.err.println(name + ", tune " + (tune.getIndex() + 1) + ": " + e.getMessage());
+                }
+            }
+        }
+        printMetrics();
+        return written;
+    }
+    
+    /**
+     * Renders every .abc file in a directory to WAV files with the software synthesizer, without
+     * playing them, named like the .mid files of convertDirectory. The tunes are compiled, then
+     * rendered in parallel with a synthesizer per thread. Files that cannot be read and tunes that
+     * fail to compile or render are reported on the standard error stream and skipped.
+     * 
+     * @param dir the directory of abc files
+     * @param outDir the directory to write the .wav files to, created if missing
+     * @param threads the number of tunes to render at a time
+     * @return the number of .wav files written
+     */
+    public static int renderDirectory(File dir, File outDir, int threads) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Not a directory: " + dir);
+        }
+        outDir.mkdirs();
+
+        List<SequencePlayer> players = new ArrayList<SequencePlayer>();
+        List<File> wavFiles = new ArrayList<File>();
+        for (File file : files) {
+            String name = file.getName();
+            if (!file.isFile() || !name.endsWith(".abc")) {
+                continue;
+            }
+            String base = name.substring(0, name.length() - ".abc".length());
+
+            List<CompiledTune> tunes;
+            try {
+                Songbook book = Songbook.open(file, Charset.defaultCharset());
+                book.setMetrics(METRICS);
+                tunes = book.compileAll();
+            } catch (IOException e) {
+                System.err.println(name + ": " + e.getMessage());
+                continue;
+            }
+            for (CompiledTune tune : tunes) {
+                if (!tune.isCompiled()) {
+                    System.err.println(name + ", tune " + (tune.getIndex() + 1) + ": " + tune.getError().getMessage());
+                    continue;
+                }
+                String wavName = tunes.size() == 1 ? base + ".wav" : base + "-" + (tune.getIndex() + 1) + ".wav";
+
+                try {
+                    players.add(tune.render(METRICS));
+                    wavFiles.add(new File(outDir, wavName));
+                } catch (RuntimeException e) {
+                    System.err.println(name + ", tune " + (tune.getIndex() + 1) + ": " + e.getMessage());
+                }
+            }
+        }
+        printMetrics();
+
+        int written = 0;
+        List<Exception> errors = WavRenderer.renderAll(players, wavFiles, threads);
+        for (int i = 0; i < errors.size(); i++) {
+            if (errors.get(i) == null) {
+                written++;
+            } else {
+                System.err.println(wavFiles.get(i).getName() + ": " + errors.get(i).getMessage());
+            }
+        }
+        return written;
+    }
+    
+    /**
+     * Plays sample_abc/fur_elise.abc, or with two arguments, converts the .abc files
+     * in the directory given first to .mid files in the directory given second, or with
+     * --wav and two arguments, renders them to .wav files instead.
+     * @param args nothing, the input and output directories, or --wav and the input and output directories
+     */
     public static void main(String[] args){
+        if (args.length == 3 && args[0].equals("--wav")) {
+            try {
+                int written = renderDirectory(new File(args[1]), new File(args[2]), Runtime.getRuntime().availableProcessors());
+                System.out.println("Wrote " + written + " WAV files to " + args[2]);
+            } catch (IOException e) {
+                throw new RuntimeException("Error rendering files", e);
+            }
+            return;
+        }
+        if (args.length == 2) {
+            try {
+                int written = convertDirectory(new File(args[0]), new File(args[1]));
+                System.out.println("Wrote " + written + " MIDI files to " + args[1]);
+            } catch (IOException e) {
+                throw new RuntimeException("Error converting files", e);
+            }
+            return;
+        }
+
         String filename="sample_abc/fur_elise.abc";
         try{
         	play(filename);
@@ -3,6 +3,9 @@ package player;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import ast.*;
 
 public class Parser {
@@ -17,6 +20,18 @@ public class Parser {
 
     }
 
+    /**
+     * Creates a Parser for one voice of a song, with its own accidentals
+     * The notes it parses are added to the voice, which must not be parsed into by another Parser at the same time.
+     * @param keySignature, the key signature of the song
+     * @param voice, the voice to add the notes to
+     */
+    private Parser(String keySignature, Voice voice){
+        song.setKeySignature(keySignature);
+        song.addVoice(voice);
+        song.getVoice(voice.getName());
+    }
+
     /**
      * Gets the parsed Song
      * Call parse() before trying to access the song, otherwise it won't be of any use.
@@ -28,13 +43,14 @@ public class Parser {
 
     /**
      * Returns the index of the next token with a specific type
-     * @param inp, the input list to search
+     * @param inp, the tokens to search
+     * @param from, the index to start searching at
      * @param type, the type we are looking for
-     * @return the index of the first occurrence of that type. Returns -1 if not found
+     * @return the index of the first occurrence of that type at or after from. Returns -1 if not found
      */
-    public int findNextType(List<Token> inp, Token.Type type){
-        for(int i=0;i<inp.size();++i)
-            if(inp.get(i).getType() == type){
+    public int findNextType(TokenBuffer inp, int from, Token.Type type){
+        for(int i=from;i<inp.size();++i)
+            if(inp.getType(i) == type){
                 return i;
             }
         return -1;
@@ -61,29 +77,45 @@ public class Parser {
     }
 
     /**
-     * Parses a list of keyNotes into a Chord
-     * @param inp, list of tokens to parse into a Chord
+     * Parses a run of keyNotes into a Chord
+     * @param duration, the duration of the chord
+     * @param tokens, the tokens containing the chord
+     * @param from, the index of the first note of the chord
+     * @param to, the index of the CHORD_END token
      */
-    public Chord parseChord(RationalNumber duration, List<Token> chordTokens){
-        ArrayList<NoteElement> buffer = new ArrayList<NoteElement>(0);
-        for(Token j: chordTokens){
-            if(j.getType() != Token.Type.KEYNOTE)
+    public Chord parseChord(RationalNumber duration, TokenBuffer tokens, int from, int to){
+        ArrayList<NoteElement> buffer = new ArrayList<NoteElement>(to-from);
+        for(int j=from;j<to;j++){
+            if(tokens.getType(j) != Token.Type.KEYNOTE)
                 throw new ParserException("Found non-single note inside a chord");
 
-            buffer.add(applyAccidental(j.getValue().charAt(0), duration, j.getOctave(), j.getAccidental()));
+            buffer.add(applyAccidental(tokens.getPitch(j), duration, tokens.getOctave(j), tokens.getAccidental(j)));
         }
         return new Chord(duration,buffer);
     }
+
+    /**
+     * Gets the duration of a chord, the duration of its first note
+     * @param tokens, the tokens containing the chord
+     * @param chordStart, the index of the CHORD_START token
+     * @return the duration of the chord
+     */
+    private RationalNumber chordDuration(TokenBuffer tokens, int chordStart){
+        if(tokens.getType(chordStart+1) != Token.Type.KEYNOTE)
+            throw new ParserException("Found non-single note inside a chord");
+        return tokens.getDuration(chordStart+1);
+    }
     
 
     /**
      * Adds a tuple to the current voice and advances the index of the current token being parsed
      * @param tokens the voice tokens
+     * @param matchingEnd the bracket index of the voice tokens, as built by matchBrackets
      * @param tupleStart the index of the start of the tuple
      * @param tupleLength the length of the tuple
      * @return the index after the end of the tuple
      */
-    public int parseTuple(ArrayList<Token> tokens, int tupleStart, int tupleLength) {
+    public int parseTuple(TokenBuffer tokens, int[] matchingEnd, int tupleStart, int tupleLength) {
         int i = tupleStart;
 
         ArrayList<NoteElement> notes = new ArrayList<NoteElement>(0);
@@ -92,20 +124,20 @@ public class Parser {
         
         switch (tupleLength) {
         case 2:            
-            adjustedLength = new RationalNumber(3, 2);
+            adjustedLength = RationalNumber.valueOf(3, 2);
             break;
         case 3:
-            adjustedLength = new RationalNumber(2, 3);
+            adjustedLength = RationalNumber.valueOf(2, 3);
             break;
         case 4:
-            adjustedLength = new RationalNumber(3, 4);
+            adjustedLength = RationalNumber.valueOf(3, 4);
             break;
         default:
             throw new ParserException("Invalid Tuple Length: " + tupleLength);
         }
         
         while (notes.size() < tupleLength) {
-            i = parseTupleElement(tokens, notes, i,adjustedLength);
+            i = parseTupleElement(tokens, matchingEnd, notes, i,adjustedLength);
         }
         
         switch (tupleLength) {
@@ -126,40 +158,39 @@ public class Parser {
     /**
      * Adds NoteElement to a list of tuple notes
      * @param tokens the voice tokens
+     * @param matchingEnd the bracket index of the voice tokens, as built by matchBrackets
      * @param notes the tuple notes list. Should be empty.
      * @param i the index of the current token being parsed
      * @return the index after where a NoteElement was added to the tuple
      */
-    public int parseTupleElement(ArrayList<Token> tokens, ArrayList<NoteElement> notes, int i,RationalNumber adjustedLength) {
+    public int parseTupleElement(TokenBuffer tokens, int[] matchingEnd, ArrayList<NoteElement> notes, int i,RationalNumber adjustedLength) {
 
         // tuplet-element ::= tuplet-spec note-element+
         
         while (i < tokens.size()) {
-            Token tok = tokens.get(i);
-
-            switch(tok.getType()){
+            switch(tokens.getType(i)){
             case KEYNOTE:
                 notes.add(applyAccidental(
-                        tok.getValue().charAt(0),
-                        tok.getDuration().mul(adjustedLength),
-                        tok.getOctave(),
-                        tok.getAccidental()
+                        tokens.getPitch(i),
+                        tokens.getDuration(i).mul(adjustedLength),
+                        tokens.getOctave(i),
+                        tokens.getAccidental(i)
                         ));                                              //apply accidental to token
                 return i+1;
             case REST:
-                notes.add(new Rest(tok.getDuration().mul(adjustedLength)));
+                notes.add(new Rest(tokens.getDuration(i).mul(adjustedLength)));
                 return i+1;
             case CHORD_START:
-                int offset=findNextType(tokens.subList(i,tokens.size()), Token.Type.CHORD_END); //find CHORD_END
+                int end=matchingEnd[i];                                //find CHORD_END
 
-                if(offset<0) {
+                if(end<0) {
                     throw new ParserException("End of Chord not found");
                 }
 
-                notes.add(parseChord(tokens.get(i+1).getDuration().mul(adjustedLength), tokens.subList(i+1, i+offset)));     //add chord to current song
-                return i+(offset+1);                                                                      //skip until the end of the chord
+                notes.add(parseChord(chordDuration(tokens, i).mul(adjustedLength), tokens, i+1, end));     //add chord to current song
+                return end+1;                                                                      //skip until the end of the chord
             default:
-                throw new ParserException("Invalid type found in a tuple: " + tok.getType());
+                throw new ParserException("Invalid type found in a tuple: " + tokens.getType(i));
             }
         }
 
@@ -234,50 +265,152 @@ public class Parser {
 
     }
 
+    /**
+     * Builds the bracket index of a voice, which gives the index every bracket-like token jumps to:
+     *  - CHORD_START: the index of the next CHORD_END, -1 if there is none
+     *  - REPEAT_NUMBER [1: the index of the token ending the first ending (a bar line, a repeat or [2)
+     *  - any other token: -1
+     * The index is built in one pass over the tokens, so the parser never has to search for a match.
+     * @param tokens the voice tokens
+     * @return the bracket index, with one entry per token
+     */
+    public int[] matchBrackets(TokenBuffer tokens) {
+        int[] matchingEnd = new int[tokens.size()];
+
+        //go backwards, keeping track of the next CHORD_END and the next token that ends a first ending
+        int nextChordEnd = -1;
+        int nextEndingStop = tokens.size();
+        for (int i=tokens.size()-1;i>=0;i--) {
+            matchingEnd[i] = -1;
+            switch (tokens.getType(i)) {
+            case CHORD_START:
+                matchingEnd[i] = nextChordEnd;
+                break;
+            case CHORD_END:
+                nextChordEnd = i;
+                break;
+            case REPEAT_NUMBER:
+                if (tokens.getValue(i).equals("[1")) {
+                    matchingEnd[i] = nextEndingStop;
+                } else if (tokens.getValue(i).equals("[2")) {
+                    nextEndingStop = i;
+                }
+                break;
+            case BAR:
+            case DOUBLE_BAR:
+            case REPEAT_START:
+            case REPEAT_END:
+                nextEndingStop = i;
+                break;
+            default:
+                break;
+            }
+        }
+        return matchingEnd;
+    }
+
+    /**
+     * Moves the last notes of the current voice into an Ending, unless there are none
+     * @param endingStart the index of the first note of the ending in the current voice
+     */
+    private void closeEnding(int endingStart) {
+        List<NoteElement> ending = song.removeNotesFrom(endingStart);
+        if (!ending.isEmpty()) {
+            song.add(new Ending(ending));
+        }
+    }
+
     /**
      * Parses the voice tokens
      * @param tokens the voice tokens
      */
     public void parseVoice(ArrayList<Token> tokens) {
-        int i=0;
+        parseVoice(TokenBuffer.of(tokens));
+    }
+
+    /**
+     * Parses the voice tokens
+     * Every token is parsed once: a repeated section becomes a Repeat and a first ending
+     * becomes an Ending, which are expanded when the song is played.
+     * The tokens are not modified, so they can be parsed again.
+     * @param tokens the voice tokens
+     */
+    public void parseVoice(TokenBuffer tokens) {
+        if (!parseTokens(tokens)) {
+            throw new ParserException("Malformed Body: Repeats are not balanced");
+        }
+    }
+
+    /**
+     * Parses a section of a voice on its own, e.g. to parse again only the part of a tune that was edited.
+     * The section must start where the parser has no state left from the notes before it: at the start
+     * of the voice, at a |: or right after a ||. Its notes are then the same as when the whole voice is parsed.
+     * A |: left open is not an error here, the caller checks the repeats of the whole voice.
+     * @param keySignature, the key signature of the song
+     * @param tokens, the section tokens, without VOICE tokens
+     * @return the NoteElements of the section
+     */
+    public static List<NoteElement> parseSection(String keySignature, TokenBuffer tokens) {
+        Voice voice = new Voice();
+        new Parser(keySignature, voice).parseTokens(tokens);
+        return voice.getNotes();
+    }
+
+    /**
+     * Adds the NoteElements of voice tokens to the current voice
+     * @param tokens the voice tokens
+     * @return true if every |: is closed by a :|
+     */
+    private boolean parseTokens(TokenBuffer tokens) {
+        TokenBuffer.Cursor tok = tokens.cursor();
+        int[] matchingEnd = matchBrackets(tokens);
         boolean repeatsBalanced = true;
+        int sectionStart = song.countNotes();               //where the section a :| repeats starts in the voice
+        int endingStart = -1;                               //where the open first ending starts in the voice
+        int endingStop = -1;                                //the index of the token that closes the open first ending
 
-        while(i<tokens.size()) {
-            Token tok = tokens.get(i);
+        while(tok.hasCurrent()) {
+            int i = tok.position();
+
+            if (i == endingStop) {
+                closeEnding(endingStart);
+                endingStop = -1;
+            }
 
             //parse body
-            switch(tok.getType()){
+            switch(tok.type()){
             case BAR:
                 song.accidentalAssociator.revert(); // restore default accidentals for the piece
-                ++i;
+                song.addBarLine();
+                tok.advance();
                 break;
             case CHORD_END:
-                ++i;
+                tok.advance();
                 break;
             case CHORD_START:
-                int offset=findNextType(tokens.subList(i,tokens.size()), Token.Type.CHORD_END); //find CHORD_END
-                if(offset<0)
+                int end=matchingEnd[i];                                            //find CHORD_END
+                if(end<0)
                     throw new ParserException("End of Chord not found");
-                song.add(parseChord(tokens.get(i+1).getDuration(), tokens.subList(i+1, i+offset)));     //add chord to current song
-                i+=(offset+1);                                                                      //skip until the end of the chord
+                song.add(parseChord(chordDuration(tokens, i), tokens, i+1, end));     //add chord to current song
+                tok.seek(end+1);                                                   //skip until the end of the chord
                 break;
             case KEYNOTE:
                 song.add(applyAccidental(
-                        tok.getValue().charAt(0),
-                        tok.getDuration(),
-                        tok.getOctave(),
-                        tok.getAccidental()
+                        tok.pitch(),
+                        tokens.getDuration(i),
+                        tok.octave(),
+                        tok.accidental()
                         ));                                              //apply accidental to token
-                ++i;
+                tok.advance();
                 break;
             case DUPLET_START:
-                i = parseTuple(tokens, i+1, 2);
+                tok.seek(parseTuple(tokens, matchingEnd, i+1, 2));
                 break;
             case TRIPLET_START:
-                i = parseTuple(tokens, i+1, 3);
+                tok.seek(parseTuple(tokens, matchingEnd, i+1, 3));
                 break;
             case QUAD_START:
-                i = parseTuple(tokens, i+1, 4);
+                tok.seek(parseTuple(tokens, matchingEnd, i+1, 4));
                 break;
             case REPEAT_START:
                 if (!repeatsBalanced) {
@@ -285,70 +418,49 @@ public class Parser {
                 }
 
                 repeatsBalanced = false;
-                ++i;                                                                            //do nothing, wait for a REPEAT_END to show up
+                song.accidentalAssociator.revert();                                             //so the section sounds the same when it is repeated
+                sectionStart = song.countNotes();                                               //wait for a REPEAT_END to show up
+                song.addBarLine();
+                tok.advance();
                 break;
             case REPEAT_END:   
                 song.accidentalAssociator.revert();
                 repeatsBalanced = true;
-
-                if (tok.getValue().equals("PASS")) {
-                    ++i;
-                    break;
-                } else {
-                    tok.setValue("PASS");
-                    int j=i-1;
-
-                    while(!(j == 0 ||
-                            tokens.get(j).getType() == Token.Type.REPEAT_START || 
-                            tokens.get(j).getType() == Token.Type.DOUBLE_BAR)) {
-                        //Look for a repeat_start or a header element in order to start repeating
-                        j--;
-                    }
-
-                    if (j == 0) {
-                        i = 0;
-                    } else {
-                        i=j;
-                    }
-
-                    break;
-                }
+                List<Integer> sectionBarLines = song.removeBarLinesFrom(sectionStart);
+                List<NoteElement> section = song.removeNotesFrom(sectionStart);
+                if (!section.isEmpty())
+                    song.add(new Repeat(section, sectionBarLines));                             //the section is played again from the same notes
+                song.addBarLine();
+                tok.advance();
+                break;
             case REPEAT_NUMBER:
-                if(tok.getValue().equals("[0"))
-                    i=tok.getOctave();                                                          //Octave is overloaded, look below in the comments
-                else if(tok.getValue().equals("[1")){
-                    int k=i+1;
-                    while(tokens.get(k).getType()!=Token.Type.BAR            && 
-                            tokens.get(k).getType()!=Token.Type.DOUBLE_BAR     && 
-                            (tokens.get(k).getType()!=Token.Type.REPEAT_NUMBER ||                   //REPEAT_NUMBER and getValue()=="[2"
-                            !(tokens.get(k).getValue().equals("[2")))        &&
-                            tokens.get(k).getType()!=Token.Type.REPEAT_END     &&
-                            tokens.get(k).getType()!=Token.Type.REPEAT_START)                       //search for one of those Type's that stop a repeat_number
-                        k++;
-                    tok.setOctave(k);                                                           //octave is overloaded to keep the redirection index
-                    tok.setValue("[0");                                                         // "[0" is a "[1" that was passed already
-                    ++i;
+                if(matchingEnd[i] >= 0) {                                                       //No need to handle "[2" as it's handled by "[1"
+                    if (endingStop >= 0)
+                        closeEnding(endingStart);
+                    endingStart = song.countNotes();
+                    endingStop = matchingEnd[i];
                 }
-                else
-                    ++i;                                                                        //No need to handle "[2" as it's handled by "[1"
+                tok.advance();
                 break;
             case DOUBLE_BAR:
                 song.accidentalAssociator.revert();
-                ++i;
+                sectionStart = song.countNotes();
+                song.addBarLine();
+                tok.advance();
                 break;
             case REST:
-                song.add(new Rest(tok.getDuration()));
-                ++i;
+                song.add(new Rest(tokens.getDuration(i)));
+                tok.advance();
                 break;
             default:
                 throw new ParserException("Invalid type found in body");
             }
         }
 
-        if (!repeatsBalanced) {
-            throw new ParserException("Malformed Body: Repeats are not balanced");
-        }       
-        
+        if (endingStop >= 0) {
+            closeEnding(endingStart);                                   //the first ending runs to the end of the voice
+        }
+        return repeatsBalanced;
     }
 
     /**
@@ -357,30 +469,47 @@ public class Parser {
      * @return the body tokens into a list of tokens by voice
      */
     public HashMap<String, ArrayList<Token>> splitTokensByVoice(ArrayList<Token> tokens) {
-        if (tokens.get(0).getType() != Token.Type.VOICE) {
+        HashMap<String, ArrayList<Token>> voiceMap = new HashMap<String, ArrayList<Token>>();
+        for (Map.Entry<String, TokenBuffer> voice : splitTokensByVoice(TokenBuffer.of(tokens)).entrySet()) {
+            voiceMap.put(voice.getKey(), voice.getValue().toTokens());
+        }
+        return voiceMap;
+    }
+
+    /**
+     * Splits the body tokens into a buffer of tokens by voice
+     * @param tokens the body tokens
+     * @return the body tokens split into a buffer of tokens by voice
+     */
+    public HashMap<String, TokenBuffer> splitTokensByVoice(TokenBuffer tokens) {
+        if (tokens.getType(0) != Token.Type.VOICE) {
             throw new ParserException("Malformed body: Body starts with an undeclared voice");
         }
 
         // initialize the voice map
-        HashMap<String, ArrayList<Token>> voiceMap = new HashMap<String, ArrayList<Token>>();
+        HashMap<String, TokenBuffer> voiceMap = new HashMap<String, TokenBuffer>();
         for (Voice v: song.getVoices()) {
-            voiceMap.put(v.getName(), new ArrayList<Token>(0));
+            voiceMap.put(v.getName(), new TokenBuffer());
         }
 
-        String currentVoice = tokens.get(0).getValue();
-        for (int i=1;i<tokens.size();i++) {
-            Token tok = tokens.get(i);
-
-            //switch the currentVoice and keep going
-            if (tok.getType() == Token.Type.VOICE) {
-                currentVoice = tok.getValue();
-                continue;
-            }
+        String currentVoice = tokens.getValue(0);
+        int start = 1;
+        for (int i=1;i<=tokens.size();i++) {
+            //copy the tokens since the last voice change in one go
+            if (i == tokens.size() || tokens.getType(i) == Token.Type.VOICE) {
+                if (i > start) {
+                    if (voiceMap.get(currentVoice) != null) {
+                        voiceMap.get(currentVoice).addAll(tokens, start, i);
+                    } else {
+                        throw new ParserException("Malformed body: Undeclared voice " + tokens.getValue(start));
+                    }
+                }
 
-            if (voiceMap.get(currentVoice) != null) {
-                voiceMap.get(currentVoice).add(tok);
-            } else {
-                throw new ParserException("Malformed body: Undeclared voice " + tok.getValue());
+                //switch the currentVoice and keep going
+                if (i < tokens.size()) {
+                    currentVoice = tokens.getValue(i);
+                    start = i+1;
+                }
             }
         }
 
@@ -393,16 +522,54 @@ public class Parser {
      * @param bodyTokens the body tokens, as produced by the Lexer
      */
     public void parse(ArrayList<Token> headerTokens,ArrayList<Token> bodyTokens){
+        parse(headerTokens, TokenBuffer.of(bodyTokens));
+    }
+
+    /**
+     * Parses the header tokens and a buffer of body tokens to fill the AST for the song.
+     * @param headerTokens the header tokens, as produced by the Lexer
+     * @param bodyTokens the body tokens, e.g. as produced by ScanningLexer.lexBodyBuffer()
+     */
+    public void parse(ArrayList<Token> headerTokens,TokenBuffer bodyTokens){
         parseHeader(headerTokens);
         if (song.getVoices().isEmpty()) {
             // no declared voices
             parseVoice(bodyTokens);
         } else {
-            HashMap<String, ArrayList<Token>> voicesMap = splitTokensByVoice(bodyTokens);
+            // the voices are independent once split, parse them concurrently, each with its own accidentals
+            HashMap<String, TokenBuffer> voicesMap = splitTokensByVoice(bodyTokens);
+            List<VoiceTask> tasks = new ArrayList<VoiceTask>();
             for (Voice v : song.getVoices()) {
-                song.getVoice(v.getName());
-                parseVoice(voicesMap.get(v.getName()));
+                tasks.add(new VoiceTask(new Parser(song.getKeySignature(), v), voicesMap.get(v.getName())));
             }
+            ForkJoinTask.invokeAll(tasks); //on the common pool, or the pool the caller runs in
+        }
+    }
+
+    /**
+     * Parses the tokens of one voice on a ForkJoinPool
+     */
+    private static class VoiceTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Parser parser;
+        private final TokenBuffer tokens;
+
+        /**
+         * Creates a VoiceTask object
+         * @param parser, the Parser for the voice
+         * @param tokens, the voice tokens
+         */
+        public VoiceTask(Parser parser, TokenBuffer tokens) {
+            this.parser = parser;
+            this.tokens = tokens;
+        }
+
+        /**
+         * Parses the voice tokens
+         */
+        @Override
+        protected void compute() {
+            parser.parseVoice(tokens);
         }
     }
 }
@@ -0,0 +1,74 @@
+package player;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures one run of a phase for a CompilationMetrics: the wall time and the bytes allocated by
+ * the current thread between its creation and stop.
+ */
+class PhaseTimer {
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocationBean();
+
+    private final CompilationMetrics metrics;
+    private final CompilationMetrics.Phase phase;
+    private final long startNanos;
+    private final long startBytes;
+
+    /**
+     * Starts timing a phase
+     * @param metrics the listener to report to, NONE to measure nothing
+     * @param phase the phase being timed
+     */
+    PhaseTimer(CompilationMetrics metrics, CompilationMetrics.Phase phase) {
+        this.metrics = metrics;
+        this.phase = phase;
+        if (metrics == CompilationMetrics.NONE) {
+            this.startNanos = 0;
+            this.startBytes = 0;
+        } else {
+            this.startBytes = allocatedBytes();
+            this.startNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Stops timing and reports the phase
+     * @param items the number of tokens, notes or events the phase produced
+     */
+    void stop(long items) {
+        if (metrics == CompilationMetrics.NONE) {
+            return;
+        }
+        long nanos = System.nanoTime() - startNanos;
+        long bytes = startBytes < 0 ? -1 : allocatedBytes() - startBytes;
+        metrics.phaseCompleted(phase, nanos, items, bytes);
+    }
+
+    /**
+     * Gets the bytes allocated by the current thread so far
+     * @return the allocated bytes, -1 if the JVM cannot tell
+     */
+    private static long allocatedBytes() {
+        if (ALLOCATIONS == null) {
+            return -1;
+        }
+        return ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Gets the HotSpot ThreadMXBean, which can count the bytes a thread allocates
+     * @return the bean, null if this JVM does not have one or cannot count allocations
+     */
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+        if (!allocations.isThreadAllocatedMemorySupported() || !allocations.isThreadAllocatedMemoryEnabled()) {
+            return null;
+        }
+        return allocations;
+    }
+}
@@ -1,28 +1,53 @@
 package player;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiUnavailableException;
 import ast.*;
 import ast.NoteElement.Visitor;
+import events.TrackBuiltEvent;
+import events.VoiceRenderedEvent;
+import sound.BarIndex;
 import sound.Pitch;
 import sound.SequencePlayer;
 
 public class PlayerVisitor implements Visitor<Void> {
     private SequencePlayer player;
     private int ticksPerQuarterNote;
+    private int tempo;
     private RationalNumber defaultNoteLength;
+    private long ticksPerUnitNumerator;     // ticks per default note length, as a reduced fraction
+    private long ticksPerUnitDenominator;
     private int currentTick = 0;
+    private boolean replaying = false;
+    private boolean barLine = true;                                 // true if the next note starts a bar
+    private List<Integer> barStarts = new ArrayList<Integer>();     // the start tick of every bar so far
     
     /**
      * Creates a PlayerVisitor object
-     * @param beatsPerMinute the beats per minute specified in the header of the abc song
+     * Note lengths are converted to ticks exactly if ticksPerQuarterNote comes from
+     * DurationVisitor.getTicksPerQuarter(defaultNoteLength), otherwise they are rounded down.
      * @param ticksPerQuarterNote the number of ticks per quarter note, calculated by the DurationVisitor
+     * @param tempo the tempo specified in the header of the abc song, in default note lengths per minute
+     * @param defaultNoteLength the default note length specified in the header of the abc song
      */
     public PlayerVisitor(int ticksPerQuarterNote, int tempo, RationalNumber defaultNoteLength) {
+        this.ticksPerQuarterNote = ticksPerQuarterNote;
+        this.tempo = tempo;
+        this.defaultNoteLength = defaultNoteLength;
+
+        // a note of length 1 lasts defaultNoteLength whole notes, i.e. 4*defaultNoteLength quarter notes
+        BigInteger numerator = BigInteger.valueOf(4L*ticksPerQuarterNote*defaultNoteLength.getNumerator());
+        BigInteger denominator = BigInteger.valueOf(defaultNoteLength.getDenominator());
+        BigInteger gcd = numerator.gcd(denominator);
+        this.ticksPerUnitNumerator = numerator.divide(gcd).longValue();
+        this.ticksPerUnitDenominator = denominator.divide(gcd).longValue();
+
         try {
-            this.ticksPerQuarterNote = 4*ticksPerQuarterNote;
-            this.defaultNoteLength = defaultNoteLength;
             int beatsPerMinute = (int)(tempo * defaultNoteLength.getValue() * 4);
             player = new SequencePlayer(beatsPerMinute, ticksPerQuarterNote);
         } catch (MidiUnavailableException e) {
@@ -32,17 +57,79 @@ public class PlayerVisitor implements Visitor<Void> {
         }
     }
     
+    /**
+     * Converts a note length to ticks with integer arithmetic
+     * @param duration the note length, in default note lengths
+     * @return the number of ticks the note lasts
+     */
+    public int toTicks(RationalNumber duration) {
+        return (int)(duration.getNumerator()*ticksPerUnitNumerator / (duration.getDenominator()*ticksPerUnitDenominator));
+    }
+
+    /**
+     * Gets the tick the next note will start at
+     * @return the current tick
+     */
+    public int getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Gets the ticks the bars walked so far start at, from the bar lines of the parser: a repeated
+     * section counts its bars again. A bar line with no notes after it, or only notes that take no
+     * time, does not start a bar.
+     * @return the start tick of every bar walked so far, in ascending order
+     */
+    public int[] getBarStarts() {
+        int[] starts = new int[barStarts.size()];
+        for (int b = 0; b < starts.length; b++) {
+            starts[b] = barStarts.get(b);
+        }
+        return starts;
+    }
+
+    /**
+     * Starts a bar at the current tick if a bar line is before the next note
+     */
+    private void startBar() {
+        if (barLine) {
+            if (barStarts.isEmpty() || barStarts.get(barStarts.size()-1) < currentTick) {
+                barStarts.add(currentTick);
+            }
+            barLine = false;
+        }
+    }
+
+    /**
+     * Adds the notes of a voice or a repeated section to the player, starting a bar at every bar line
+     * @param notes the notes to add
+     * @param barLines the indexes of the notes a bar line is before, in ascending order
+     */
+    private void addNotes(List<NoteElement> notes, List<Integer> barLines) {
+        int next = 0;
+        for (int i = 0; i < notes.size(); i++) {
+            if (next < barLines.size() && barLines.get(next) == i) {
+                barLine = true;
+                next++;
+            }
+            notes.get(i).accept(this);
+        }
+    }
+
     /**
      * Adds the SingleNote to the player
      * @param s the SingleNote to add
      */
     @Override
     public Void visit(SingleNote s) {
+        startBar();
+        int ticks = toTicks(s.getDuration());
+
         //add note
-        player.addNote(new Pitch(s.getPitch()).transpose(Pitch.OCTAVE*s.getOctave()+s.getAccidental()).toMidiNote(), currentTick, (int)(ticksPerQuarterNote*s.getDuration().mul(defaultNoteLength).getValue()));
+        player.addNote(Pitch.toMidiNote(s.getPitch(), s.getOctave(), s.getAccidental()), currentTick, ticks);
         
         //advance song
-        currentTick += (int)(s.getDuration().mul(defaultNoteLength).getValue()*ticksPerQuarterNote);
+        currentTick += ticks;
         return null;
     }
 
@@ -52,8 +139,10 @@ public class PlayerVisitor implements Visitor<Void> {
      */
     @Override
     public Void visit(Rest r) {
+        startBar();
+
         //advance song
-        currentTick += (int)(r.getDuration().mul(defaultNoteLength).getValue()*ticksPerQuarterNote);        
+        currentTick += toTicks(r.getDuration());
         return null;
     }
 
@@ -63,15 +152,18 @@ public class PlayerVisitor implements Visitor<Void> {
      */
     @Override
     public Void visit(Chord c) {        
+        startBar();
+        int start = currentTick;
+
         //add notes
         for (NoteElement n: c.getNotes()){
-            n.accept(this);
             //rewind song, all notes in the chord are played at the same time
-            currentTick -= (int)(n.getDuration().mul(defaultNoteLength).getValue()*ticksPerQuarterNote);
+            currentTick = start;
+            n.accept(this);
         }
         
         //advance song
-        currentTick += (int)(c.getDuration().mul(defaultNoteLength).getValue()*ticksPerQuarterNote);
+        currentTick = start + toTicks(c.getDuration());
         return null;
     }
     
@@ -128,6 +220,7 @@ public class PlayerVisitor implements Visitor<Void> {
         notes.add(q.getFirst());
         notes.add(q.getSecond());
         notes.add(q.getThird());
+        notes.add(q.getFourth());
         
         //add notes
         addTupleNotes(notes);
@@ -135,33 +228,160 @@ public class PlayerVisitor implements Visitor<Void> {
         return null;
     }
 
+    /**
+     * Adds a Repeat to the player: its notes, then its notes again without the Endings, starting a bar.
+     * A Repeat that is itself being played again is only played once.
+     * @param r the Repeat to add
+     */
+    @Override
+    public Void visit(Repeat r) {
+        addNotes(r.getNotes(), r.getBarLines());
+
+        if (!replaying) {
+            replaying = true;
+            barLine = true;
+            addNotes(r.getNotes(), r.getBarLines());
+            replaying = false;
+        }
+        return null;
+    }
+
+    /**
+     * Adds an Ending to the player, unless its Repeat is being played again
+     * @param e the Ending to add
+     */
+    @Override
+    public Void visit(Ending e) {
+        if (!replaying) {
+            for (NoteElement n: e.getNotes()) {
+                n.accept(this);
+            }
+        }
+        return null;
+    }
+
     /**
      * Adds a Voice to the player
      * @param v the Voice to add
      */
     @Override
     public Void visit(Voice v) {
-        for (NoteElement n: v.getNotes()) {
-            n.accept(this);
-        }
+        addNotes(v.getNotes(), v.getBarLines());
         
         return null;
     }
 
     /**
-     * Adds a Song to the player
+     * Adds a Song to the player, rendering its voices in parallel on the common ForkJoinPool
      * @param s the Song to add
      */
     @Override
     public Void visit(Song s) {
-        for (Voice v : s.getVoices()){
-            currentTick = 0;
-            v.accept(this);
+        return visit(s, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Adds a Song to the player. Every voice gets its own track and channel, so that a MIDI file
+     * keeps them apart and they can be mixed on their own. Voices are independent of each other,
+     * so each is rendered by a PlayerVisitor of its own in parallel, then added in order.
+     * The player gets the BarIndex of the voices, to start playing at a bar.
+     * @param s the Song to add
+     * @param pool the pool to render the voices on
+     */
+    public Void visit(Song s, ForkJoinPool pool) {
+        TrackBuiltEvent built = new TrackBuiltEvent();
+        built.begin();
+        player.setTune(s.getTitle(), s.getIndex());
+
+        List<Voice> voices = s.getVoices();
+        PlayerVisitor[] tracks = new PlayerVisitor[voices.size()];
+        if (tracks.length == 1) {
+            tracks[0] = render(s, voices.get(0));
+        } else if (tracks.length > 1) {
+            pool.invoke(new RenderTask(s, tracks, 0, tracks.length));
+        }
+
+        int[][] barStarts = new int[tracks.length][];
+        for (int v = 0; v < tracks.length; v++) {
+            if (v > 0) {
+                player.newTrack();
+            }
+            player.addAll(tracks[v].getPlayer());
+            barStarts[v] = tracks[v].getBarStarts();
+        }
+        player.setBarIndex(new BarIndex(barStarts));
+
+        if (built.shouldCommit()) {
+            built.setTune(s.getTitle(), s.getIndex());
+            built.tracks = player.getTimeline().getTrackCount();
+            built.midiEvents = player.getEventCount();
+            built.ticks = player.getTimeline().getTickLength();
+            built.ticksPerQuarter = player.getTimeline().getTicksPerQuarterNote();
+            built.commit();
         }
-        
         return null;
     }
-    
+
+    /**
+     * Renders one voice of a song with a PlayerVisitor of its own
+     * @param s the Song the voice is in
+     * @param v the Voice to render
+     * @return the PlayerVisitor that rendered the voice, whose player holds its notes in one track
+     */
+    private PlayerVisitor render(Song s, Voice v) {
+        PlayerVisitor visitor = new PlayerVisitor(ticksPerQuarterNote, tempo, defaultNoteLength);
+
+        VoiceRenderedEvent rendered = new VoiceRenderedEvent();
+        rendered.begin();
+        v.accept(visitor);
+        if (rendered.shouldCommit()) {
+            rendered.setTune(s.getTitle(), s.getIndex());
+            rendered.voice = v.getName();
+            rendered.notes = v.getNotes().size();
+            rendered.ticks = visitor.getCurrentTick();
+            rendered.commit();
+        }
+        return visitor;
+    }
+
+    /**
+     * Renders a range of voices, splitting it in halves until there is one voice left
+     */
+    private class RenderTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Song song;
+        private final PlayerVisitor[] tracks;
+        private final int from;
+        private final int to;
+
+        /**
+         * Creates a RenderTask object
+         * @param song the Song the voices are in
+         * @param tracks the array to store the visitor of every voice at its index in
+         * @param from the index of the first voice to render
+         * @param to the index after the last voice to render
+         */
+        public RenderTask(Song song, PlayerVisitor[] tracks, int from, int to) {
+            this.song = song;
+            this.tracks = tracks;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Renders the range of voices
+         */
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                tracks[from] = render(song, song.getVoices().get(from));
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RenderTask(song, tracks, from, middle), new RenderTask(song, tracks, middle, to));
+            }
+        }
+    }
+
     /**
      * Gets the SequencePlayer
      * @return the SequencePlayer
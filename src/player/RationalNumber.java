@@ -2,13 +2,33 @@ package player;
 
 /**
  * ADT used to represent the positive rational number durations of notes
+ *
+ * RationalNumbers are immutable and always in lowest terms, so equal numbers have equal
+ * numerators and denominators. Arithmetic is done in long and reduced before it is stored,
+ * and throws an ArithmeticException if the reduced result does not fit in an int.
+ * valueOf and the arithmetic methods return shared instances for small numbers, such as
+ * the common note lengths, instead of allocating new ones.
  */
 public class RationalNumber {
-    private int numerator;
-    private int denominator;
+    private static final int CACHED_NUMERATORS = 64;
+    private static final int CACHED_DENOMINATORS = 32;
+    private static final RationalNumber[][] CACHE = new RationalNumber[CACHED_NUMERATORS + 1][CACHED_DENOMINATORS + 1];
+
+    static {
+        for (int n = 0; n <= CACHED_NUMERATORS; n++) {
+            for (int d = 1; d <= CACHED_DENOMINATORS; d++) {
+                if (gcd(n, d) == 1) {
+                    CACHE[n][d] = new RationalNumber(n, d);
+                }
+            }
+        }
+    }
+
+    private final int numerator;
+    private final int denominator;
        
     /**
-     * Creates a new RationalNumber object.
+     * Creates a new RationalNumber object, in lowest terms.
      * Represents a positive rational number.
      * @param numerator the numerator. Must be >= 0
      * @param denominator the denominator. Must be > 0
@@ -26,8 +46,44 @@ public class RationalNumber {
             throw new RuntimeException("A RationalNumber duration cannot be negative");
         }
         
-        this.numerator = numerator;
-        this.denominator = denominator;
+        int gcd = gcd(numerator, denominator);
+        this.numerator = numerator / gcd;
+        this.denominator = denominator / gcd;
+    }
+
+    /**
+     * Gets a RationalNumber, without allocating one if it is small enough to be cached
+     * @param numerator the numerator. Must be >= 0
+     * @param denominator the denominator. Must be > 0
+     * @return the RationalNumber numerator/denominator, in lowest terms
+     * @throws RuntimeException if denominator is 0 or the inputs represent a negative number
+     */
+    public static RationalNumber valueOf(int numerator, int denominator) {
+        if (numerator >= 0 && denominator > 0) {
+            return valueOf((long) numerator, (long) denominator);
+        }
+        return new RationalNumber(numerator, denominator);
+    }
+
+    /**
+     * Reduces a positive fraction computed in long, and gets it as a RationalNumber
+     * @param numerator the numerator. Must be >= 0
+     * @param denominator the denominator. Must be > 0
+     * @return the RationalNumber numerator/denominator, in lowest terms
+     * @throws ArithmeticException if the reduced numerator or denominator does not fit in an int
+     */
+    private static RationalNumber valueOf(long numerator, long denominator) {
+        long gcd = gcd(numerator, denominator);
+        numerator /= gcd;
+        denominator /= gcd;
+
+        if (numerator <= CACHED_NUMERATORS && denominator <= CACHED_DENOMINATORS) {
+            return CACHE[(int) numerator][(int) denominator];
+        }
+        if (numerator > Integer.MAX_VALUE || denominator > Integer.MAX_VALUE) {
+            throw new ArithmeticException("RationalNumber overflow: " + numerator + "/" + denominator);
+        }
+        return new RationalNumber((int) numerator, (int) denominator);
     }
     
     /**
@@ -55,38 +111,46 @@ public class RationalNumber {
     }
     
     /**
-     * Creates a new RationalNumber that is the result from the addition of two RationalNumbers
+     * Gets the RationalNumber that is the result from the addition of two RationalNumbers
      * @param other the other RationalNumber to add
-     * @return a new RationalNumber, the result of the addition of two RationalNumbers
+     * @return the sum of the two RationalNumbers
+     * @throws ArithmeticException if the sum does not fit in an int numerator and denominator
      */
     public RationalNumber add(RationalNumber other) {
-        if (this.denominator == other.denominator) {
-            return new RationalNumber(this.numerator + other.numerator, this.denominator);
-        } else {
-            int lcm = lcm(this.denominator,other.denominator);
-            
-            int firstNumerator = this.numerator*lcm/this.denominator;
-            int secondNumerator = other.numerator*lcm/other.denominator;
-            return new RationalNumber(firstNumerator + secondNumerator, lcm);
+        if (other.numerator == 0) {
+            return this;
+        } else if (this.numerator == 0) {
+            return other;
+        } else if (this.denominator == other.denominator) {
+            return valueOf((long) this.numerator + other.numerator, this.denominator);
         }
+
+        long gcd = gcd(this.denominator, other.denominator);
+        long lcm = this.denominator / gcd * other.denominator;
+        return valueOf(Math.addExact(this.numerator * (lcm / this.denominator), other.numerator * (lcm / other.denominator)), lcm);
     }
     
     /**
-     * Creates a new RationalNumber that is the result from the multiplication of a RationalNumber and a constant
+     * Gets the RationalNumber that is the result from the multiplication of a RationalNumber and a constant
      * @param c the constant
-     * @return a new RationalNumber, the result of the multiplication by a constant
+     * @return the product of the RationalNumber and the constant
+     * @throws ArithmeticException if the product does not fit in an int numerator and denominator
      */
     public RationalNumber mulC(int c) {
-        return new RationalNumber(this.numerator*c, this.denominator);
+        if (c < 0) {
+            throw new RuntimeException("A RationalNumber duration cannot be negative");
+        }
+        return valueOf((long) this.numerator * c, this.denominator);
     }
     
     /**
-     * Creates a new RationalNumber that is the result from multiplying two RationalNumbers
+     * Gets the RationalNumber that is the result from multiplying two RationalNumbers
      * @param other the other RationalNumber to multiply
-     * @return a new RationalNumber, the result of the multiplication of two RationalNumbers
+     * @return the product of the two RationalNumbers
+     * @throws ArithmeticException if the product does not fit in an int numerator and denominator
      */
     public RationalNumber mul(RationalNumber other) {
-        return new RationalNumber(this.numerator * other.numerator, this.denominator * other.denominator);
+        return valueOf((long) this.numerator * other.numerator, (long) this.denominator * other.denominator);
     }
     
     /**
@@ -118,6 +182,15 @@ public class RationalNumber {
         return this.numerator == other.numerator && this.denominator == other.denominator;
     }
     
+    /**
+     * Gets the hash code of a RationalNumber, consistent with equals
+     * @return the hash code
+     */
+    @Override
+    public int hashCode() {
+        return 31 * numerator + denominator;
+    }
+    
     /**
      * Computes the gcd (greatest common divisor) of two numbers.
      * @param a the first number. Must be >= 0
@@ -125,26 +198,36 @@ public class RationalNumber {
      * @return the gcd of two numbers
      */
     public static int gcd(int a, int b) {
-        if (a<b) {
-            int temp = a;
+        return (int) gcd((long) a, (long) b);
+    }
+
+    /**
+     * Computes the gcd (greatest common divisor) of two numbers.
+     * @param a the first number. Must be >= 0
+     * @param b the second number. Must be >= 0
+     * @return the gcd of two numbers, or 1 if both are 0
+     */
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
             a = b;
-            b = temp;
-        }
-        
-        if (b == 0) {
-            return a;
+            b = t;
         }
-        
-        return gcd(b,a % b);
+        return a == 0 ? 1 : a;
     }
     
     /**
      * Computes the lcm (lowest common multiple) of two numbers
-     * @param a the first number. Must be > 0
-     * @param b the second number. Must be > 0
-     * @return the lcm of two numbers
+     * @param a the first number. Must be >= 0
+     * @param b the second number. Must be >= 0
+     * @return the lcm of two numbers, 0 if either is 0
+     * @throws ArithmeticException if the lcm does not fit in an int
      */
     public static int lcm(int a, int b) {
-        return (a*b)/gcd(a,b);
+        long lcm = (long) a / gcd(a, b) * b;
+        if (lcm > Integer.MAX_VALUE) {
+            throw new ArithmeticException("lcm overflow: " + a + ", " + b);
+        }
+        return (int) lcm;
     }
 }
@@ -0,0 +1,461 @@
+package player;
+
+import java.util.ArrayList;
+
+/**
+ * A Lexer that lexes the body with a hand-written, single-pass character scanner
+ * instead of the body regex.
+ *
+ * The scanner reproduces the semantics of the body regex exactly (alternatives are
+ * tried in the same order at every position, and characters that start no token are
+ * skipped), so both lexers produce the same Token stream for the same input.
+ * Every character is looked at a bounded number of times; there is no backtracking
+ * except for the whitespace in front of a mid-tune voice field.
+ *
+ * The header is still lexed by Lexer.lexHead(), since it is only a few lines long.
+ */
+public class ScanningLexer extends Lexer {
+
+    // character classes used to dispatch on the current character
+    private static final byte OTHER = 0;
+    private static final byte NOTE = 1;         // A-G, a-g
+    private static final byte ACCIDENTAL = 2;   // ^ _ =
+    private static final byte REST = 3;         // z
+    private static final byte OPEN_BRACKET = 4; // [
+    private static final byte CLOSE_BRACKET = 5;// ]
+    private static final byte PAREN = 6;        // (
+    private static final byte PIPE = 7;         // |
+    private static final byte COLON = 8;        // :
+
+    private static final byte[] charClass = new byte[128];
+
+    static {
+        for (char c = 'A'; c <= 'G'; c++) {
+            charClass[c] = NOTE;
+            charClass[Character.toLowerCase(c)] = NOTE;
+        }
+        charClass['^'] = ACCIDENTAL;
+        charClass['_'] = ACCIDENTAL;
+        charClass['='] = ACCIDENTAL;
+        charClass['z'] = REST;
+        charClass['['] = OPEN_BRACKET;
+        charClass[']'] = CLOSE_BRACKET;
+        charClass['('] = PAREN;
+        charClass['|'] = PIPE;
+        charClass[':'] = COLON;
+    }
+
+    /**
+     * Creates a new ScanningLexer object
+     * @param s, the input string to be processed
+     */
+    public ScanningLexer(String s) {
+        super(s);
+    }
+
+    /**
+     * Creates a list of body tokens from the given abc string
+     * @return ArrayList, list of body Tokens
+     */
+    @Override
+    public ArrayList<Token> lexBody() {
+        ArrayList<Token> tokens = new ArrayList<Token>();
+        scan(getBody(), tokens);
+        return tokens;
+    }
+
+    /**
+     * Creates a TokenBuffer of body tokens from the given abc string, without creating Token objects
+     * @return TokenBuffer, the body tokens
+     */
+    @Override
+    public TokenBuffer lexBodyBuffer() {
+        TokenBuffer tokens = new TokenBuffer(getBody().length() / 2);
+        scan(getBody(), tokens);
+        return tokens;
+    }
+
+    /**
+     * Scans a body string and appends its tokens to a list
+     * @param s the body to scan, without comments
+     * @param tokens the list to append the tokens to
+     */
+    public static void scan(CharSequence s, ArrayList<Token> tokens) {
+        TokenBuffer buffer = new TokenBuffer();
+        scan(s, buffer);
+        for (int i=0;i<buffer.size();i++) {
+            tokens.add(buffer.get(i));
+        }
+    }
+
+    /**
+     * Scans a body string and appends its tokens to a TokenBuffer
+     * @param s the body to scan, without comments
+     * @param tokens the buffer to append the tokens to
+     */
+    public static void scan(CharSequence s, TokenBuffer tokens) {
+        int i = 0;
+        while (i < s.length()) {
+            i = scanBar(s, i, tokens);
+        }
+    }
+
+    /**
+     * Scans one bar of a body string and appends its tokens to a TokenBuffer.
+     * A bar ends after a |, || or :|, or before a |: or a voice field that is not its first token,
+     * so the tokens of the bars of a body are the tokens of the whole body. Only the two characters
+     * before from are looked at, so a bar can be scanned again on its own after the text after it changed.
+     * @param s the body to scan, without comments
+     * @param from the index the bar starts at
+     * @param tokens the buffer to append the tokens to
+     * @return the index the next bar starts at, s.length() if the bar runs to the end of s
+     */
+    public static int scanBar(CharSequence s, int from, TokenBuffer tokens) {
+        int n = s.length();
+        int i = from;
+        boolean first = true;
+
+        while (i < n) {
+            char c = s.charAt(i);
+            int end = -1;
+            Token.Type type = null;
+
+            switch (classOf(c)) {
+            case NOTE:
+            case ACCIDENTAL:
+                end = matchKeynote(s, i);
+                type = Token.Type.KEYNOTE;
+                break;
+            case REST:
+                end = skipLength(s, i+1);
+                type = Token.Type.REST;
+                break;
+            case OPEN_BRACKET:
+                if (i+1 < n && (s.charAt(i+1) == '1' || s.charAt(i+1) == '2')) {
+                    end = i+2;
+                    type = Token.Type.REPEAT_NUMBER;
+                } else {
+                    end = i+1;
+                    type = Token.Type.CHORD_START;
+                }
+                break;
+            case CLOSE_BRACKET:
+                if (i == 0 || s.charAt(i-1) != '|') {
+                    end = i+1;
+                    type = Token.Type.CHORD_END;
+                }
+                break;
+            case PAREN:
+                if (i+1 < n) {
+                    char next = s.charAt(i+1);
+                    if (next == '2') {
+                        type = Token.Type.DUPLET_START;
+                    } else if (next == '3') {
+                        type = Token.Type.TRIPLET_START;
+                    } else if (next == '4') {
+                        type = Token.Type.QUAD_START;
+                    }
+                    if (type != null) {
+                        end = i+2;
+                    }
+                }
+                break;
+            case PIPE:
+                char next = i+1 < n ? s.charAt(i+1) : '\0';
+                if (next == '|' || next == ']') {
+                    end = i+2;
+                    type = Token.Type.DOUBLE_BAR;
+                } else if (next == ':') {
+                    end = i+2;
+                    type = Token.Type.REPEAT_START;
+                } else {
+                    end = i+1;
+                    type = Token.Type.BAR;
+                }
+                break;
+            case COLON:
+                if (i+1 < n && s.charAt(i+1) == '|') {
+                    end = i+2;
+                    type = Token.Type.REPEAT_END;
+                }
+                break;
+            default:
+                break;
+            }
+
+            // a voice field is the last alternative, only tried if nothing else matched
+            if (end < 0 && i >= 2 && s.charAt(i-2) == 'V' && s.charAt(i-1) == ':') {
+                end = matchVoice(s, i);
+                type = Token.Type.VOICE;
+            }
+
+            if (end < 0) {
+                ++i;
+                continue;
+            }
+            if (!first && (type == Token.Type.REPEAT_START || type == Token.Type.VOICE)) {
+                return i;
+            }
+
+            switch (type) {
+            case KEYNOTE:
+            case REST:
+                addNote(s, i, end, tokens);
+                break;
+            case VOICE:
+                tokens.add(type, s.subSequence(i, end).toString().trim());
+                break;
+            default:
+                tokens.add(type, valueOf(s, i, end));
+            }
+            i = end;
+            first = false;
+            if (type == Token.Type.BAR || type == Token.Type.DOUBLE_BAR || type == Token.Type.REPEAT_END) {
+                return i;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Parses a KEYNOTE or REST the same way Token.parseValue() does and adds it to a TokenBuffer
+     * @param s the input
+     * @param from the index of the first character of the token
+     * @param to the index after the last character of the token
+     * @param tokens the buffer to add the token to
+     */
+    private static void addNote(CharSequence s, int from, int to, TokenBuffer tokens) {
+        int octave = 0;
+        int accidental = 0;
+        char keynote = 'z';
+        int nominator = 0, denominator = 0;
+        boolean isRational = false, isNeutral = false;
+
+        for (int i=from;i<to;i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case ',':
+                octave--;
+                break;
+            case '\'':
+                octave++;
+                break;
+            case '^':
+                accidental++;
+                break;
+            case '_':
+                accidental--;
+                break;
+            case '=':
+                isNeutral = true;
+                break;
+            case '/':
+                isRational = true;
+                break;
+            default:
+                if (c >= 'a' && c <= 'g') {
+                    keynote = Character.toUpperCase(c);
+                    octave++;
+                } else if (c >= 'A' && c <= 'G') {
+                    keynote = c;
+                } else if (isDigit(c)) {
+                    if (!isRational) {
+                        nominator = nominator*10 + (c - '0');
+                    } else {
+                        denominator = denominator*10 + (c - '0');
+                    }
+                }
+            }
+        }
+
+        if (!isRational && nominator != 0)
+            denominator = 1;
+        if (denominator == 0 && isRational)
+            denominator = 2;
+        if (nominator == 0 && isRational)
+            nominator = 1;
+        if (nominator == 0 && denominator == 0)
+            nominator = denominator = 1;
+
+        if (nominator < 0 || denominator < 0) {
+            throw new LexerException("Invalid note length: " + s.subSequence(from, to));
+        }
+
+        if (isNeutral) {
+            accidental = 0;
+        } else if (accidental == 0) {
+            accidental = Integer.MAX_VALUE;
+        }
+
+        if (keynote == 'z') {
+            tokens.addRest(nominator, denominator);
+        } else {
+            tokens.addNote(keynote, octave, accidental, nominator, denominator);
+        }
+    }
+
+    /**
+     * Gets the value of a fixed token (e.g. a bar line) without copying it out of the input
+     * @param s the input
+     * @param from the index of the first character of the token
+     * @param to the index after the last character of the token
+     * @return the value of the token
+     */
+    private static String valueOf(CharSequence s, int from, int to) {
+        char first = s.charAt(from);
+        if (to - from == 1) {
+            switch (first) {
+            case '[': return "[";
+            case ']': return "]";
+            case '|': return "|";
+            default: break;
+            }
+        } else {
+            char second = s.charAt(from+1);
+            switch (first) {
+            case '(':
+                return second == '2' ? "(2" : second == '3' ? "(3" : "(4";
+            case '[':
+                return second == '1' ? "[1" : "[2";
+            case ':':
+                return ":|";
+            case '|':
+                return second == '|' ? "||" : second == ']' ? "|]" : "|:";
+            default: break;
+            }
+        }
+        return s.subSequence(from, to).toString();
+    }
+
+    /**
+     * Gets the character class of a character
+     * @param c the character
+     * @return one of the character class constants
+     */
+    private static byte classOf(char c) {
+        return c < charClass.length ? charClass[c] : OTHER;
+    }
+
+    /**
+     * Checks if a character is a note letter (A-G or a-g)
+     * @param s the input
+     * @param i the index of the character, may be out of bounds
+     * @return true if the character at i is a note letter
+     */
+    private static boolean isNote(CharSequence s, int i) {
+        return i < s.length() && classOf(s.charAt(i)) == NOTE;
+    }
+
+    /**
+     * Matches a KEYNOTE: an optional accidental, a note letter, octave marks and a note length
+     * @param s the input
+     * @param i the index to start matching at
+     * @return the index after the match, or -1 if there is no KEYNOTE at i
+     */
+    private static int matchKeynote(CharSequence s, int i) {
+        char c = s.charAt(i);
+        int j = i;
+
+        if (c == '^' || c == '_') {
+            if (i+2 < s.length() && s.charAt(i+1) == c && isNote(s, i+2)) {
+                j = i+2;
+            } else if (isNote(s, i+1)) {
+                j = i+1;
+            } else {
+                return -1;
+            }
+        } else if (c == '=') {
+            if (!isNote(s, i+1)) {
+                return -1;
+            }
+            j = i+1;
+        }
+
+        //skip the note letter and any octave marks
+        j++;
+        while (j < s.length() && (s.charAt(j) == ',' || s.charAt(j) == '\'')) {
+            j++;
+        }
+        return skipLength(s, j);
+    }
+
+    /**
+     * Skips a note length: [0-9]*\/?[0-9]*
+     * @param s the input
+     * @param i the index the note length starts at
+     * @return the index after the note length
+     */
+    private static int skipLength(CharSequence s, int i) {
+        int n = s.length();
+        while (i < n && isDigit(s.charAt(i))) {
+            i++;
+        }
+        if (i < n && s.charAt(i) == '/') {
+            i++;
+        }
+        while (i < n && isDigit(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Checks if a character is one of 0-9
+     * @param c the character
+     * @return true if c is an ASCII digit
+     */
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Matches the text of a mid-tune voice field, the same way \s*.+(?=\n) does
+     * @param s the input
+     * @param i the index right after "V:"
+     * @return the index of the newline ending the match, or -1 if there is no match
+     */
+    private static int matchVoice(CharSequence s, int i) {
+        int n = s.length();
+        int spaces = i;
+        while (spaces < n && isSpace(s.charAt(spaces))) {
+            spaces++;
+        }
+
+        // backtrack over the leading whitespace until the rest of a line is followed by '\n'
+        int lineEnd = -1;
+        for (int k = spaces; k >= i; k--) {
+            if (k >= n || isLineTerminator(s.charAt(k))) {
+                lineEnd = -1;
+                continue;
+            }
+            if (lineEnd < 0) {
+                lineEnd = k;
+                while (lineEnd < n && !isLineTerminator(s.charAt(lineEnd))) {
+                    lineEnd++;
+                }
+                if (lineEnd < n && s.charAt(lineEnd) == '\n') {
+                    return lineEnd;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if a character is whitespace as defined by \s
+     * @param c the character
+     * @return true if c is one of ' ', \t, \n, \x0B, \f, \r
+     */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Checks if a character ends a line, i.e. is not matched by '.'
+     * @param c the character
+     * @return true if c is a line terminator
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
@@ -0,0 +1,187 @@
+package player;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A songbook: an abc file holding any number of tunes, each starting with an X: field.
+ *
+ * The file is memory-mapped and the tune boundaries are found in a single scan of its bytes
+ * (a tune starts at every line beginning with "X:", anything before the first one is the
+ * file header and is ignored). Tunes are then compiled independently of each other, in
+ * parallel on a ForkJoinPool, and returned in file order.
+ *
+ * Tune boundaries are found on the encoded bytes, so the charset has to encode "X:" and
+ * '\n' as the single ASCII bytes, like UTF-8 and ISO-8859-1 do.
+ */
+public class Songbook {
+    private final ByteBuffer bytes;
+    private final Charset charset;
+    private final int[] tuneStarts;
+    private volatile CompilationMetrics metrics = CompilationMetrics.NONE;
+
+    /**
+     * Creates a Songbook from a buffer holding the encoded file
+     * @param bytes, the encoded songbook, from its position to its limit
+     * @param charset, the charset the songbook is encoded in
+     */
+    public Songbook(ByteBuffer bytes, Charset charset) {
+        this.bytes = bytes.slice();
+        this.charset = charset;
+        this.tuneStarts = findTunes(this.bytes);
+    }
+
+    /**
+     * Memory-maps a songbook file
+     * @param file, the songbook file
+     * @param charset, the charset the file is encoded in
+     * @return a Songbook reading from the mapped file
+     * @throws IOException if the file cannot be read, or is too big to be mapped
+     */
+    public static Songbook open(File file, Charset charset) throws IOException {
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            FileChannel fc = stream.getChannel();
+            if (fc.size() > Integer.MAX_VALUE) {
+                throw new IOException("File too big to be read: " + file);
+            }
+            MappedByteBuffer bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()); //stays valid after closing the channel
+            return new Songbook(bb, charset);
+        }
+        finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Finds the offsets of the tunes of a songbook, i.e. of every line starting with "X:"
+     * @param bytes, the encoded songbook, from 0 to its limit
+     * @return the offset of the start of every tune, in increasing order
+     */
+    public static int[] findTunes(ByteBuffer bytes) {
+        int[] starts = new int[16];
+        int count = 0;
+        int n = bytes.limit();
+        boolean lineStart = true;
+
+        for (int i=0;i<n;i++) {
+            byte b = bytes.get(i);
+            if (lineStart && b == 'X' && i+1 < n && bytes.get(i+1) == ':') {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count*2);
+                }
+                starts[count++] = i;
+            }
+            lineStart = b == '\n';
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    /**
+     * Gets the number of tunes in the songbook
+     * @return the number of tunes
+     */
+    public int size() {
+        return tuneStarts.length;
+    }
+
+    /**
+     * Gets the encoded text of a tune
+     * @param i, the index of the tune
+     * @return a new buffer holding the tune, from its X: field to the start of the next tune
+     */
+    public ByteBuffer getTune(int i) {
+        int end = i+1 < tuneStarts.length ? tuneStarts[i+1] : bytes.limit();
+        ByteBuffer tune = bytes.duplicate();
+        tune.limit(end);
+        tune.position(tuneStarts[i]);
+        return tune.slice();
+    }
+
+    /**
+     * Sets the listener the phases of compiling each tune are reported to
+     * @param metrics, the listener, which must be thread safe. CompilationMetrics.NONE by default.
+     */
+    public void setMetrics(CompilationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Compiles a single tune
+     * @param i, the index of the tune
+     * @return the compiled tune, or a failed CompiledTune holding the exception
+     */
+    public CompiledTune compile(int i) {
+        try {
+            return CompiledTune.compile(i, getTune(i), charset, metrics);
+        } catch (RuntimeException e) {
+            return CompiledTune.failed(i, e);
+        }
+    }
+
+    /**
+     * Compiles all the tunes on the common ForkJoinPool
+     * @return the compiled tunes, in file order
+     */
+    public List<CompiledTune> compileAll() {
+        return compileAll(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Compiles all the tunes in parallel
+     * @param pool, the pool to compile the tunes on
+     * @return the compiled tunes, in file order
+     */
+    public List<CompiledTune> compileAll(ForkJoinPool pool) {
+        CompiledTune[] tunes = new CompiledTune[size()];
+        if (tunes.length > 0) {
+            pool.invoke(new CompileTask(tunes, 0, tunes.length));
+        }
+        return new ArrayList<CompiledTune>(Arrays.asList(tunes));
+    }
+
+    /**
+     * Compiles a range of tunes, splitting it in halves until there is one tune left
+     */
+    private class CompileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final CompiledTune[] tunes;
+        private final int from;
+        private final int to;
+
+        /**
+         * Creates a CompileTask object
+         * @param tunes, the array to store every tune at its index in
+         * @param from, the index of the first tune to compile
+         * @param to, the index after the last tune to compile
+         */
+        public CompileTask(CompiledTune[] tunes, int from, int to) {
+            this.tunes = tunes;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Compiles the range of tunes
+         */
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                tunes[from] = Songbook.this.compile(from);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new CompileTask(tunes, from, middle), new CompileTask(tunes, middle, to));
+            }
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package player;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Lexes an abc piece incrementally from a Reader, a CharBuffer or a (memory-mapped) ByteBuffer.
+ *
+ * The header is read when the StreamingLexer is created. The body is then read one line at
+ * a time as body tokens are requested through the Iterator interface, so only the current
+ * line and its tokens are held in memory, no matter how big the input is.
+ *
+ * Body lines are lexed by the ScanningLexer scanner and give the same tokens as Lexer.lexBody(),
+ * except that a mid-tune "V:" field has to have its voice name on the same line.
+ */
+public class StreamingLexer implements Iterator<Token>, TuneLexer {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private final Readable in;
+    private final CharBuffer chunk = CharBuffer.allocate(CHUNK_SIZE);
+    private final StringBuilder line = new StringBuilder();
+    private boolean endOfInput = false;
+
+    private final String head;
+    private final TokenBuffer pending = new TokenBuffer();
+    private int nextPending = 0;
+
+    /**
+     * Creates a new StreamingLexer object and reads the header of the piece
+     * @param in, the source of the abc piece, e.g. a Reader or a CharBuffer
+     * @throws LexerException if the header cannot be read or has no K: field
+     */
+    public StreamingLexer(Readable in) {
+        this.in = in;
+        this.chunk.flip(); //start with an empty chunk
+        this.head = readHeader();
+    }
+
+    /**
+     * Creates a StreamingLexer that decodes bytes as they are lexed, e.g. from a MappedByteBuffer
+     * @param bytes, the encoded abc piece. Its position is advanced as it is read.
+     * @param charset, the charset the piece is encoded in
+     * @return a new StreamingLexer reading from bytes
+     */
+    public static StreamingLexer forBuffer(ByteBuffer bytes, Charset charset) {
+        return new StreamingLexer(new DecodingReadable(bytes, charset));
+    }
+
+    /**
+     * Returns the header of the piece, without comments
+     * @return String, the header of the piece
+     */
+    public String getHead() {
+        return this.head;
+    }
+
+    /**
+     * Creates a list of header tokens
+     * @return ArrayList, list of header Tokens
+     */
+    public ArrayList<Token> lexHead() {
+        return Lexer.lexHeader(this.head);
+    }
+
+    /**
+     * Creates a list of all the remaining body tokens
+     * @return ArrayList, list of body Tokens
+     */
+    public ArrayList<Token> lexBody() {
+        ArrayList<Token> tokens = new ArrayList<Token>();
+        while (hasNext()) {
+            tokens.add(next());
+        }
+        return tokens;
+    }
+
+    /**
+     * Lexes all the remaining body tokens into a TokenBuffer, without creating Token objects
+     * @return TokenBuffer, the body tokens
+     */
+    public TokenBuffer lexBodyBuffer() {
+        TokenBuffer tokens = new TokenBuffer();
+        tokens.addAll(pending, nextPending, pending.size());
+        nextPending = pending.size();
+        while (readLine()) {
+            uncomment(line);
+            ScanningLexer.scan(line, tokens);
+        }
+        return tokens;
+    }
+
+    /**
+     * Checks if there are body tokens left, lexing more lines if needed
+     * @return true if next() will return a Token
+     */
+    @Override
+    public boolean hasNext() {
+        while (nextPending == pending.size()) {
+            pending.clear();
+            nextPending = 0;
+            if (!readLine()) {
+                return false;
+            }
+            uncomment(line);
+            ScanningLexer.scan(line, pending);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the next body token
+     * @return the next Token of the body
+     */
+    @Override
+    public Token next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return pending.get(nextPending++);
+    }
+
+    /**
+     * Tokens cannot be removed from the input
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Reads the header, up to and including the line with the K: field
+     * @return the header, without comments and without the newline ending the K: line
+     */
+    private String readHeader() {
+        StringBuilder header = new StringBuilder();
+        while (readLine()) {
+            boolean isKeyLine = line.indexOf("K:") >= 0;
+            header.append(line);
+            if (isKeyLine) {
+                if (header.charAt(header.length()-1) != '\n') {
+                    throw new LexerException("Reached end of file, no body after header?");
+                }
+                header.setLength(header.length()-1);
+                uncomment(header);
+                return header.toString();
+            }
+        }
+        throw new LexerException("No Key signature K: found in input");
+    }
+
+    /**
+     * Reads the next line of the input into this.line, including its '\n'
+     * @return false if the end of the input was reached before reading anything
+     */
+    private boolean readLine() {
+        line.setLength(0);
+        while (true) {
+            while (chunk.hasRemaining()) {
+                char c = chunk.get();
+                line.append(c);
+                if (c == '\n') {
+                    return true;
+                }
+            }
+            if (endOfInput) {
+                return line.length() > 0;
+            }
+
+            chunk.clear();
+            try {
+                endOfInput = in.read(chunk) < 0;
+            } catch (IOException e) {
+                throw new LexerException("Error reading input", e);
+            }
+            chunk.flip();
+        }
+    }
+
+    /**
+     * Removes comments from a line in place, the same way Lexer.uncomment does
+     * (a comment starts with '%' and ends before a line terminator)
+     * @param s, the text to un-comment
+     */
+    private static void uncomment(StringBuilder s) {
+        int start = s.indexOf("%");
+        while (start >= 0) {
+            int end = start;
+            while (end < s.length() && !isLineTerminator(s.charAt(end))) {
+                end++;
+            }
+            s.delete(start, end);
+            start = s.indexOf("%", start);
+        }
+    }
+
+    /**
+     * Checks if a character ends a line, i.e. is not matched by '.' in a regex
+     * @param c the character
+     * @return true if c is a line terminator
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Decodes a ByteBuffer a chunk at a time instead of all at once
+     */
+    private static class DecodingReadable implements Readable {
+        private final ByteBuffer bytes;
+        private final CharsetDecoder decoder;
+        private boolean decoded = false;
+        private boolean flushed = false;
+
+        /**
+         * Creates a DecodingReadable object
+         * @param bytes the bytes to decode
+         * @param charset the charset to decode them with
+         */
+        public DecodingReadable(ByteBuffer bytes, Charset charset) {
+            this.bytes = bytes;
+            // replace bad input like Charset.decode() does
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        /**
+         * Decodes as many bytes as fit into cb
+         * @param cb the buffer to decode into
+         * @return the number of chars decoded, or -1 at the end of the input
+         */
+        @Override
+        public int read(CharBuffer cb) throws IOException {
+            if (flushed) {
+                return -1;
+            }
+
+            int start = cb.position();
+            CoderResult result = CoderResult.UNDERFLOW;
+            if (!decoded) {
+                result = decoder.decode(bytes, cb, true);
+                decoded = result.isUnderflow();
+            }
+            if (decoded) {
+                result = decoder.flush(cb);
+                flushed = result.isUnderflow();
+            }
+            if (result.isError()) {
+                result.throwException();
+            }
+
+            int read = cb.position() - start;
+            return (read == 0 && flushed) ? -1 : read;
+        }
+    }
+}
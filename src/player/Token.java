@@ -98,9 +98,9 @@ public class Token {
         if (this.getType() == Token.Type.METER){
             if (this.getValue().charAt(0) == 'C'){
                 if (this.getValue().length() == 1){
-                    return new RationalNumber(4,4);
+                    return RationalNumber.valueOf(4,4);
                 } else
-                    return new RationalNumber(2,2);
+                    return RationalNumber.valueOf(2,2);
             }
         }
         
@@ -115,7 +115,7 @@ public class Token {
         nominator = Integer.parseInt(value.substring(0,index));
         denominator = Integer.parseInt(value.substring(index+1));
 
-        RationalNumber number = new RationalNumber(nominator, denominator);
+        RationalNumber number = RationalNumber.valueOf(nominator, denominator);
 
         return number;
     }
@@ -202,7 +202,7 @@ public class Token {
         
         this.setOctave(octave);
         this.setAccidental(accidental);
-        this.setDuration(new RationalNumber(nominator,denominator));
+        this.setDuration(RationalNumber.valueOf(nominator,denominator));
         this.value = Character.toString(keynote);
         
 
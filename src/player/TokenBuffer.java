@@ -0,0 +1,453 @@
+package player;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A growable list of body tokens, stored as parallel primitive arrays instead of Token objects.
+ *
+ * Each token takes 16 bytes: its type, pitch letter, octave and accidental are bytes, and its
+ * duration numerator, duration denominator and value are ints. Values are stored once in a
+ * table and referred to by index, so adding a token does not allocate (except for the first
+ * occurrence of a voice name).
+ *
+ * KEYNOTE and REST tokens are stored with the fields Token.parseValue() computes: the pitch
+ * letter ('z' for a rest), octave, accidental and duration. Other tokens only have a value.
+ */
+public class TokenBuffer {
+
+    /**
+     * Stored in place of the accidental of a note that has none (Token uses Integer.MAX_VALUE)
+     */
+    private static final byte NO_ACCIDENTAL = Byte.MAX_VALUE;
+
+    private static final Token.Type[] types = Token.Type.values();
+
+    private byte[] type;
+    private byte[] pitch;
+    private byte[] octave;
+    private byte[] accidental;
+    private int[] numerator;
+    private int[] denominator;
+    private int[] value;
+    private int size = 0;
+
+    private final List<String> valueTable = new ArrayList<String>();
+    private final Map<String, Integer> valueIndex = new HashMap<String, Integer>();
+
+    /**
+     * Creates an empty TokenBuffer
+     */
+    public TokenBuffer() {
+        this(64);
+    }
+
+    /**
+     * Creates an empty TokenBuffer
+     * @param capacity, the number of tokens it can hold before growing
+     */
+    public TokenBuffer(int capacity) {
+        capacity = Math.max(capacity, 1);
+        type = new byte[capacity];
+        pitch = new byte[capacity];
+        octave = new byte[capacity];
+        accidental = new byte[capacity];
+        numerator = new int[capacity];
+        denominator = new int[capacity];
+        value = new int[capacity];
+    }
+
+    /**
+     * Creates a TokenBuffer holding a list of body tokens
+     * @param tokens, the tokens to copy
+     * @return a new TokenBuffer with the same tokens
+     */
+    public static TokenBuffer of(List<Token> tokens) {
+        TokenBuffer buffer = new TokenBuffer(tokens.size());
+        for (Token tok : tokens) {
+            buffer.add(tok);
+        }
+        return buffer;
+    }
+
+    /**
+     * Gets the number of tokens
+     * @return the number of tokens in the buffer
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all the tokens, keeping the arrays and the value table for reuse
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Adds a KEYNOTE token
+     * @param letter, the upper case pitch letter
+     * @param octave, the octave of the note
+     * @param accidental, the accidental of the note, Integer.MAX_VALUE if it has none
+     * @param numerator, the numerator of the note length
+     * @param denominator, the denominator of the note length
+     * @throws LexerException if the octave or the accidental does not fit in a byte, in which case no token is added
+     */
+    public void addNote(char letter, int octave, int accidental, int numerator, int denominator) {
+        if (octave < Byte.MIN_VALUE || octave > Byte.MAX_VALUE) {
+            throw new LexerException("Octave out of range: " + octave);
+        }
+        if (accidental != Integer.MAX_VALUE && (accidental < Byte.MIN_VALUE || accidental >= NO_ACCIDENTAL)) {
+            throw new LexerException("Accidental out of range: " + accidental);
+        }
+        int i = append(Token.Type.KEYNOTE, -1);
+        this.pitch[i] = (byte)letter;
+        this.octave[i] = (byte)octave;
+        this.accidental[i] = accidental == Integer.MAX_VALUE ? NO_ACCIDENTAL : (byte)accidental;
+        this.numerator[i] = numerator;
+        this.denominator[i] = denominator;
+    }
+
+    /**
+     * Adds a REST token
+     * @param numerator, the numerator of the rest length
+     * @param denominator, the denominator of the rest length
+     */
+    public void addRest(int numerator, int denominator) {
+        int i = append(Token.Type.REST, -1);
+        this.pitch[i] = 'z';
+        this.accidental[i] = NO_ACCIDENTAL;
+        this.numerator[i] = numerator;
+        this.denominator[i] = denominator;
+    }
+
+    /**
+     * Adds a token that is not a KEYNOTE or a REST
+     * @param type, the type of the token
+     * @param value, the value of the token, already trimmed
+     */
+    public void add(Token.Type type, String value) {
+        append(type, valueId(value));
+    }
+
+    /**
+     * Adds a Token
+     * @param tok, the token to add
+     */
+    public void add(Token tok) {
+        RationalNumber duration = tok.getDuration();
+        int num = duration == null ? 0 : duration.getNumerator();
+        int den = duration == null ? 0 : duration.getDenominator();
+
+        switch (tok.getType()) {
+        case KEYNOTE:
+            addNote(tok.getValue().charAt(0), tok.getOctave(), tok.getAccidental(), num, den);
+            break;
+        case REST:
+            addRest(num, den);
+            break;
+        default:
+            add(tok.getType(), tok.getValue());
+        }
+    }
+
+    /**
+     * Adds all the tokens of another TokenBuffer
+     * @param other, the buffer to copy tokens from
+     * @param from, the index of the first token to copy
+     * @param to, the index after the last token to copy
+     */
+    public void addAll(TokenBuffer other, int from, int to) {
+        for (int j = from; j < to; j++) {
+            int i = append(other.getType(j), other.value[j] < 0 ? -1 : valueId(other.valueTable.get(other.value[j])));
+            this.pitch[i] = other.pitch[j];
+            this.octave[i] = other.octave[j];
+            this.accidental[i] = other.accidental[j];
+            this.numerator[i] = other.numerator[j];
+            this.denominator[i] = other.denominator[j];
+        }
+    }
+
+    /**
+     * Gets the type of a token
+     * @param i, the index of the token
+     * @return the type of the token
+     */
+    public Token.Type getType(int i) {
+        checkIndex(i);
+        return types[type[i]];
+    }
+
+    /**
+     * Gets the pitch letter of a KEYNOTE token, or 'z' for a REST token
+     * @param i, the index of the token
+     * @return the pitch letter of the token
+     */
+    public char getPitch(int i) {
+        checkIndex(i);
+        return (char)pitch[i];
+    }
+
+    /**
+     * Gets the octave of a KEYNOTE token
+     * @param i, the index of the token
+     * @return the octave of the token
+     */
+    public int getOctave(int i) {
+        checkIndex(i);
+        return octave[i];
+    }
+
+    /**
+     * Gets the accidental of a KEYNOTE token
+     * @param i, the index of the token
+     * @return the accidental of the token, Integer.MAX_VALUE if it has none
+     */
+    public int getAccidental(int i) {
+        checkIndex(i);
+        return accidental[i] == NO_ACCIDENTAL ? Integer.MAX_VALUE : accidental[i];
+    }
+
+    /**
+     * Gets the numerator of the length of a KEYNOTE or REST token
+     * @param i, the index of the token
+     * @return the numerator of the token's duration
+     */
+    public int getNumerator(int i) {
+        checkIndex(i);
+        return numerator[i];
+    }
+
+    /**
+     * Gets the denominator of the length of a KEYNOTE or REST token
+     * @param i, the index of the token
+     * @return the denominator of the token's duration
+     */
+    public int getDenominator(int i) {
+        checkIndex(i);
+        return denominator[i];
+    }
+
+    /**
+     * Gets the duration of a KEYNOTE or REST token
+     * @param i, the index of the token
+     * @return the duration of the token
+     */
+    public RationalNumber getDuration(int i) {
+        checkIndex(i);
+        return RationalNumber.valueOf(numerator[i], denominator[i]);
+    }
+
+    /**
+     * Gets the value of a token, the same as Token.getValue()
+     * @param i, the index of the token
+     * @return the value of the token
+     */
+    public String getValue(int i) {
+        checkIndex(i);
+        if (value[i] < 0) {
+            return String.valueOf((char)pitch[i]);
+        }
+        return valueTable.get(value[i]);
+    }
+
+    /**
+     * Creates a Token object for a token in the buffer
+     * @param i, the index of the token
+     * @return a new Token equal to the one that was added
+     */
+    public Token get(int i) {
+        Token tok = new Token(getType(i));
+        if (getValue(i) != null) {
+            tok.setValue(getValue(i));
+        }
+        if (tok.getType() == Token.Type.KEYNOTE || tok.getType() == Token.Type.REST) {
+            tok.setOctave(getOctave(i));
+            tok.setAccidental(getAccidental(i));
+            if (denominator[i] != 0) {
+                tok.setDuration(getDuration(i));
+            }
+        }
+        return tok;
+    }
+
+    /**
+     * Creates a list of Token objects for all the tokens in the buffer
+     * @return ArrayList, the tokens in the buffer
+     */
+    public ArrayList<Token> toTokens() {
+        ArrayList<Token> tokens = new ArrayList<Token>(size);
+        for (int i = 0; i < size; i++) {
+            tokens.add(get(i));
+        }
+        return tokens;
+    }
+
+    /**
+     * Creates a Cursor positioned at the first token
+     * @return a new Cursor over this buffer
+     */
+    public Cursor cursor() {
+        return new Cursor(0);
+    }
+
+    /**
+     * Reads the tokens of a TokenBuffer in order, without creating Token objects.
+     * A Cursor can also jump to any index, e.g. to skip over a chord.
+     */
+    public class Cursor {
+        private int position;
+
+        /**
+         * Creates a Cursor object
+         * @param position, the index of the current token
+         */
+        private Cursor(int position) {
+            this.position = position;
+        }
+
+        /**
+         * Checks if the cursor is on a token
+         * @return true if there is a current token
+         */
+        public boolean hasCurrent() {
+            return position < size;
+        }
+
+        /**
+         * Moves to the next token
+         */
+        public void advance() {
+            position++;
+        }
+
+        /**
+         * Moves to a token
+         * @param position, the index of the token to move to
+         */
+        public void seek(int position) {
+            this.position = position;
+        }
+
+        /**
+         * Gets the index of the current token
+         * @return the index of the current token
+         */
+        public int position() {
+            return position;
+        }
+
+        /**
+         * Gets the type of the current token
+         * @return the type of the current token
+         */
+        public Token.Type type() {
+            return getType(position);
+        }
+
+        /**
+         * Gets the pitch letter of the current token
+         * @return the pitch letter of the current token
+         */
+        public char pitch() {
+            return getPitch(position);
+        }
+
+        /**
+         * Gets the octave of the current token
+         * @return the octave of the current token
+         */
+        public int octave() {
+            return getOctave(position);
+        }
+
+        /**
+         * Gets the accidental of the current token
+         * @return the accidental of the current token, Integer.MAX_VALUE if it has none
+         */
+        public int accidental() {
+            return getAccidental(position);
+        }
+
+        /**
+         * Gets the numerator of the duration of the current token
+         * @return the numerator of the current token's duration
+         */
+        public int numerator() {
+            return getNumerator(position);
+        }
+
+        /**
+         * Gets the denominator of the duration of the current token
+         * @return the denominator of the current token's duration
+         */
+        public int denominator() {
+            return getDenominator(position);
+        }
+
+        /**
+         * Gets the value of the current token
+         * @return the value of the current token
+         */
+        public String value() {
+            return getValue(position);
+        }
+    }
+
+    /**
+     * Appends a token, growing the arrays if needed
+     * @param type, the type of the token
+     * @param valueId, the index of the token's value in the value table, -1 for notes and rests
+     * @return the index of the new token
+     */
+    private int append(Token.Type type, int valueId) {
+        if (size == this.type.length) {
+            int capacity = size * 2;
+            this.type = Arrays.copyOf(this.type, capacity);
+            this.pitch = Arrays.copyOf(this.pitch, capacity);
+            this.octave = Arrays.copyOf(this.octave, capacity);
+            this.accidental = Arrays.copyOf(this.accidental, capacity);
+            this.numerator = Arrays.copyOf(this.numerator, capacity);
+            this.denominator = Arrays.copyOf(this.denominator, capacity);
+            this.value = Arrays.copyOf(this.value, capacity);
+        }
+        int i = size++;
+        this.type[i] = (byte)type.ordinal();
+        this.pitch[i] = 0;
+        this.octave[i] = 0;
+        this.accidental[i] = 0;
+        this.numerator[i] = 0;
+        this.denominator[i] = 0;
+        this.value[i] = valueId;
+        return i;
+    }
+
+    /**
+     * Gets the index of a value in the value table, adding it if it's new
+     * @param v, the value
+     * @return the index of the value
+     */
+    private int valueId(String v) {
+        Integer id = valueIndex.get(v);
+        if (id == null) {
+            id = valueTable.size();
+            valueTable.add(v);
+            valueIndex.put(v, id);
+        }
+        return id;
+    }
+
+    /**
+     * Checks that an index refers to a token in the buffer
+     * @param i, the index
+     */
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+    }
+}
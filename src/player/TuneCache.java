@@ -0,0 +1,110 @@
+package player;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A directory of CachedTunes, each stored in a file named after the SHA-256 hash of the abc
+ * source it was compiled from. A changed source has another hash, so it is never played from
+ * a stale entry; entries of sources that no longer exist are simply never read again.
+ */
+public class TuneCache {
+    private static final String SUFFIX = ".abcc";
+
+    private final File dir;
+
+    /**
+     * Creates a TuneCache object
+     * @param dir the directory of the cache files, created when the first tune is stored
+     */
+    public TuneCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Hashes an abc source
+     * @param source the bytes of the source. Its position is not changed.
+     * @return the SHA-256 of the source, in hex
+     */
+    public static String hash(ByteBuffer source) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+        digest.update(source.duplicate());
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Gets the cache file of a source
+     * @param hash the hash of the source
+     * @return the file the tune of the source is stored in
+     */
+    private File file(String hash) {
+        return new File(dir, hash + SUFFIX);
+    }
+
+    /**
+     * Loads a tune, with a single memory-mapped read of its cache file
+     * @param hash the hash of the source of the tune
+     * @return the tune, or null if it is not in the cache or its file is not readable
+     */
+    public CachedTune load(String hash) {
+        File file = file(hash);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            FileInputStream stream = new FileInputStream(file);
+            try {
+                FileChannel fc = stream.getChannel();
+                return CachedTune.fromBytes(fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()));
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores a tune. The file is written under a temporary name and then renamed, so a tune
+     * being stored is never loaded half written.
+     * @param hash the hash of the source of the tune
+     * @param tune the tune
+     * @throws IOException if the cache file cannot be written
+     */
+    public void store(String hash, CachedTune tune) throws IOException {
+        dir.mkdirs();
+        File temp = File.createTempFile(hash, ".tmp", dir);
+        try {
+            FileOutputStream stream = new FileOutputStream(temp);
+            try {
+                ByteBuffer bytes = tune.toBytes();
+                while (bytes.hasRemaining()) {
+                    stream.getChannel().write(bytes);
+                }
+            } finally {
+                stream.close();
+            }
+            Files.move(temp.toPath(), file(hash).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+    }
+}
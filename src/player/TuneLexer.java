@@ -0,0 +1,28 @@
+package player;
+
+import java.util.ArrayList;
+
+/**
+ * A lexer of one tune: the Lexer, the ScanningLexer or the StreamingLexer.
+ * CompiledTune.compile takes any of them, so every lexer is compiled the same way.
+ */
+public interface TuneLexer {
+
+    /**
+     * Returns the header of the tune, without comments
+     * @return String, the header of the tune
+     */
+    public String getHead();
+
+    /**
+     * Creates a list of header tokens
+     * @return ArrayList, list of header Tokens
+     */
+    public ArrayList<Token> lexHead();
+
+    /**
+     * Lexes the body tokens into a TokenBuffer
+     * @return TokenBuffer, the body tokens
+     */
+    public TokenBuffer lexBodyBuffer();
+}
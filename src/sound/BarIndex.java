@@ -0,0 +1,93 @@
+package sound;
+
+import java.util.Arrays;
+
+/**
+ * The tick every bar of every voice of a rendered tune starts at, so that playback can start at a
+ * bar without walking the notes before it.
+ *
+ * Bars are numbered from 0, in the order they are played: the bars of a repeated section are
+ * counted again when it is played again. A voice may have fewer bars than another, if it ends first.
+ */
+public class BarIndex {
+    private final int[][] startTicks;   // per voice, per bar
+
+    /*
+     * Rep invariant:
+     *   startTicks and every array in it are non-null,
+     *   the start ticks of a voice are >= 0 and in ascending order
+     */
+
+    /**
+     * Creates a BarIndex object
+     * @param startTicks the start ticks of the bars of each voice, in ascending order. They are copied.
+     */
+    public BarIndex(int[][] startTicks) {
+        this.startTicks = new int[startTicks.length][];
+        for (int v = 0; v < startTicks.length; v++) {
+            this.startTicks[v] = Arrays.copyOf(startTicks[v], startTicks[v].length);
+            for (int b = 0; b < startTicks[v].length; b++) {
+                if (startTicks[v][b] < 0 || (b > 0 && startTicks[v][b] < startTicks[v][b-1])) {
+                    throw new IllegalArgumentException("Bar " + b + " of voice " + v + " starts at tick " + startTicks[v][b]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the voices
+     * @return the number of voices, one per track
+     */
+    public int getVoiceCount() {
+        return startTicks.length;
+    }
+
+    /**
+     * Counts the bars of a voice
+     * @param voice the index of the voice
+     * @return the number of bars of the voice
+     */
+    public int getBarCount(int voice) {
+        return startTicks[voice].length;
+    }
+
+    /**
+     * Counts the bars of the tune
+     * @return the number of bars of the longest voice, 0 if there are no voices
+     */
+    public int getBarCount() {
+        int bars = 0;
+        for (int[] voice : startTicks) {
+            bars = Math.max(bars, voice.length);
+        }
+        return bars;
+    }
+
+    /**
+     * Gets the tick a bar of a voice starts at
+     * @param voice the index of the voice
+     * @param bar the number of the bar, from 0 to getBarCount(voice) - 1
+     * @return the start tick of the bar
+     */
+    public int getStartTick(int voice, int bar) {
+        return startTicks[voice][bar];
+    }
+
+    /**
+     * Gets the tick a bar of the tune starts at
+     * @param bar the number of the bar, from 0 to getBarCount() - 1
+     * @return the earliest start tick of the bar in the voices that have it
+     */
+    public int getStartTick(int bar) {
+        if (bar < 0 || bar >= getBarCount()) {
+            throw new IndexOutOfBoundsException("No bar " + bar + " in " + getBarCount() + " bars");
+        }
+        int tick = Integer.MAX_VALUE;
+        for (int[] voice : startTicks) {
+            if (bar < voice.length) {
+                tick = Math.min(tick, voice[bar]);
+            }
+        }
+        return tick;
+    }
+}
@@ -0,0 +1,373 @@
+package sound;
+
+import java.util.Arrays;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+/**
+ * The note on and note off events of a piece, each packed into one long, grouped into tracks.
+ *
+ * Adding a note only appends two longs to an array, so rendering a piece allocates nothing per
+ * note. The events are put in order with a primitive sort, and only become javax.sound.midi
+ * objects when toSequence is called, e.g. to play them or write them to a file.
+ *
+ * An event is packed, from the most significant bit down, as
+ *   tick (31 bits) | track (12 bits) | on (1 bit) | channel (4 bits) | pitch (7 bits) | velocity (8 bits)
+ * so sorting the longs sorts the events by tick, then track, with the note offs of a tick before
+ * its note ons, so that a note ending where the same pitch starts again does not cut it off.
+ */
+public class EventTimeline {
+    private static final int TRACK_SHIFT = 20;
+    private static final int ON_SHIFT = 19;
+    private static final int CHANNEL_SHIFT = 15;
+    private static final int PITCH_SHIFT = 8;
+    private static final int TICK_SHIFT = 32;
+    private static final int MAX_TRACKS = 1 << 12;
+
+    private static final int SET_TEMPO = 0x51;       // type of the meta event that sets the tempo
+    private static final int END_OF_TRACK = 0x2F;    // type of the meta event that ends a track
+
+    private final int beatsPerMinute;
+    private final int ticksPerQuarterNote;
+    private long[] events = new long[64];
+    private int size = 0;
+    private int track = 0;
+    private int length = 0;                          // the tick the timeline ends at if it is after the last event
+    private boolean sorted = true;
+
+    /*
+     * Rep invariant:
+     *   0 <= size <= events.length,
+     *   0 <= track < MAX_TRACKS, and every event is in a track <= track,
+     *   if sorted, events[0..size) is in ascending order
+     */
+
+    /**
+     * Creates an empty EventTimeline, with one track
+     * @param beatsPerMinute the tempo, in quarter notes per minute. Must be > 0
+     * @param ticksPerQuarterNote the number of ticks per quarter note. Must be > 0
+     */
+    public EventTimeline(int beatsPerMinute, int ticksPerQuarterNote) {
+        this.beatsPerMinute = beatsPerMinute;
+        this.ticksPerQuarterNote = ticksPerQuarterNote;
+    }
+
+    /**
+     * Starts a new track. Notes added from now on go into it.
+     */
+    public void newTrack() {
+        if (track + 1 >= MAX_TRACKS) {
+            throw new RuntimeException("An EventTimeline cannot have more than " + MAX_TRACKS + " tracks");
+        }
+        track++;
+    }
+
+    /**
+     * Adds a note on event and a note off event to the current track. A note of 0 ticks
+     * would not be heard, and is left out.
+     * @param note the MIDI pitch. Must be from 0 to 127
+     * @param startTick the tick the note starts at. Must be >= 0
+     * @param numTicks the number of ticks the note lasts. Must be >= 0
+     * @param channel the MIDI channel. Must be from 0 to 15
+     * @param velocity the MIDI velocity. Must be from 0 to 127
+     */
+    public void addNote(int note, int startTick, int numTicks, int channel, int velocity) {
+        if (note < 0 || note > 127 || channel < 0 || channel > 15 || velocity < 0 || velocity > 127
+                || startTick < 0 || numTicks < 0 || (long) startTick + numTicks > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid note: pitch " + note + ", tick " + startTick
+                    + ", " + numTicks + " ticks, channel " + channel + ", velocity " + velocity);
+        }
+        if (numTicks == 0) {
+            return;
+        }
+        if (size + 2 > events.length) {
+            events = Arrays.copyOf(events, events.length * 2);
+        }
+
+        long event = (long) track << TRACK_SHIFT | (long) channel << CHANNEL_SHIFT
+                | (long) note << PITCH_SHIFT | velocity;
+        long on = (long) startTick << TICK_SHIFT | 1L << ON_SHIFT | event;
+        long off = (long) (startTick + numTicks) << TICK_SHIFT | event;
+        if (sorted && size > 0 && on < events[size - 1]) {
+            sorted = false;
+        }
+        events[size++] = on;
+        events[size++] = off;
+    }
+
+    /**
+     * Adds the notes of a whole voice to the current track in one go, growing the timeline at most
+     * once. The notes should be in order of their start ticks, e.g. as a voice is played, so that
+     * the timeline only needs a short sort; notes out of order are still sorted, only slower.
+     * Notes of 0 ticks are left out.
+     * @param notes the MIDI pitches. Each must be from 0 to 127
+     * @param startTicks the ticks the notes start at, as long as notes. Each must be >= 0
+     * @param numTicks the number of ticks each note lasts, as long as notes. Each must be >= 0
+     * @param channel the MIDI channel of every note. Must be from 0 to 15
+     * @param velocity the MIDI velocity of every note. Must be from 0 to 127
+     */
+    public void addNotes(int[] notes, int[] startTicks, int[] numTicks, int channel, int velocity) {
+        if (startTicks.length != notes.length || numTicks.length != notes.length) {
+            throw new IllegalArgumentException("Expected " + notes.length + " start ticks and lengths, got "
+                    + startTicks.length + " and " + numTicks.length);
+        }
+        if (size + 2L * notes.length > events.length) {
+            events = Arrays.copyOf(events, (int) Math.max(events.length * 2L, size + 2L * notes.length));
+        }
+        for (int i = 0; i < notes.length; i++) {
+            addNote(notes[i], startTicks[i], numTicks[i], channel, velocity);
+        }
+    }
+
+    /**
+     * Adds all the notes of another timeline to the current track, on the given channel, e.g. to
+     * gather voices that were rendered into timelines of their own
+     * @param other the timeline to add the notes of. Its tracks and channels are not kept
+     * @param channel the MIDI channel to play the notes on. Must be from 0 to 15
+     */
+    public void addTimeline(EventTimeline other, int channel) {
+        if (channel < 0 || channel > 15) {
+            throw new IllegalArgumentException("Invalid channel: " + channel);
+        }
+        if (size + (long) other.size > events.length) {
+            events = Arrays.copyOf(events, (int) Math.max(events.length * 2L, size + (long) other.size));
+        }
+        long fields = (long) (MAX_TRACKS - 1) << TRACK_SHIFT | 0xFL << CHANNEL_SHIFT;
+        long stamp = (long) track << TRACK_SHIFT | (long) channel << CHANNEL_SHIFT;
+        for (int i = 0; i < other.size; i++) {
+            long event = other.events[i] & ~fields | stamp;
+            if (sorted && size > 0 && event < events[size - 1]) {
+                sorted = false;
+            }
+            events[size++] = event;
+        }
+        length = Math.max(length, other.length);
+    }
+
+    /**
+     * Copies the notes that start in a range of ticks, moved to start at tick 0, e.g. to play only
+     * some bars. A note that runs past the end of the range is cut off at its end; a note that started
+     * before the range is left out. The slice lasts until the end of the range, even if its last
+     * notes end before, so a rest at the end of the range is kept. The first event is found by binary search, so only the events of
+     * the range are read.
+     * @param fromTick the first tick of the range. Must be >= 0
+     * @param toTick the tick after the range. Must be >= fromTick
+     * @return a new timeline with the same tempo, resolution and tracks
+     */
+    public EventTimeline slice(int fromTick, int toTick) {
+        if (fromTick < 0 || toTick < fromTick) {
+            throw new IllegalArgumentException("Invalid range: ticks " + fromTick + " to " + toTick);
+        }
+        sort();
+        EventTimeline slice = new EventTimeline(beatsPerMinute, ticksPerQuarterNote);
+        slice.track = track;
+
+        // the first event at or after fromTick
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getTick(mid) < fromTick) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        long shift = (long) fromTick << TICK_SHIFT;
+        int[] sounding = new int[16 * 128];   // the notes started in the range and not ended, per channel and pitch
+        int open = 0;
+        int i = lo;
+        for (; i < size && getTick(i) < toTick; i++) {
+            int key = getChannel(i) * 128 + getPitch(i);
+            if (isNoteOn(i)) {
+                sounding[key]++;
+                open++;
+                slice.append(events[i] - shift);
+            } else if (sounding[key] > 0) {
+                sounding[key]--;
+                open--;
+                slice.append(events[i] - shift);
+            }
+        }
+        slice.length = toTick - fromTick;
+        long end = (long) slice.length << TICK_SHIFT;
+        for (; i < size && open > 0; i++) {
+            int key = getChannel(i) * 128 + getPitch(i);
+            if (!isNoteOn(i) && sounding[key] > 0) {
+                sounding[key]--;
+                open--;
+                slice.append(events[i] & ((1L << TICK_SHIFT) - 1) | end);
+            }
+        }
+        return slice;
+    }
+
+    /**
+     * Adds a packed event at the end of the timeline
+     * @param event the event
+     */
+    private void append(long event) {
+        if (size == events.length) {
+            events = Arrays.copyOf(events, events.length * 2);
+        }
+        if (sorted && size > 0 && event < events[size - 1]) {
+            sorted = false;
+        }
+        events[size++] = event;
+    }
+
+    /**
+     * Puts the events in order of tick, then track, with note offs before note ons at the same tick.
+     * Adding notes in order of their start ticks keeps the timeline nearly sorted, which sorts fast.
+     */
+    public void sort() {
+        if (!sorted) {
+            Arrays.sort(events, 0, size);
+            sorted = true;
+        }
+    }
+
+    /**
+     * Counts the events
+     * @return the number of note on and note off events, twice the number of notes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Counts the tracks
+     * @return the number of tracks, at least 1
+     */
+    public int getTrackCount() {
+        return track + 1;
+    }
+
+    /**
+     * Gets the tempo
+     * @return the tempo, in quarter notes per minute
+     */
+    public int getBeatsPerMinute() {
+        return beatsPerMinute;
+    }
+
+    /**
+     * Gets the resolution
+     * @return the number of ticks per quarter note
+     */
+    public int getTicksPerQuarterNote() {
+        return ticksPerQuarterNote;
+    }
+
+    /**
+     * Gets the time of a tick at the tempo of the timeline
+     * @param tick the tick
+     * @return the nanoseconds from the start of the timeline to the tick
+     */
+    public long toNanos(int tick) {
+        return (long) (tick * (60e9 / ((double) beatsPerMinute * ticksPerQuarterNote)));
+    }
+
+    /**
+     * Gets the tick of an event, after sort
+     * @param i the index of the event
+     * @return the tick the event happens at
+     */
+    public int getTick(int i) {
+        return (int) (events[i] >>> TICK_SHIFT);
+    }
+
+    /**
+     * Gets the track of an event, after sort
+     * @param i the index of the event
+     * @return the track of the event, starting at 0
+     */
+    public int getTrack(int i) {
+        return (int) (events[i] >>> TRACK_SHIFT) & (MAX_TRACKS - 1);
+    }
+
+    /**
+     * Checks whether an event starts or ends a note, after sort
+     * @param i the index of the event
+     * @return true for a note on, false for a note off
+     */
+    public boolean isNoteOn(int i) {
+        return (events[i] >>> ON_SHIFT & 1) != 0;
+    }
+
+    /**
+     * Gets the channel of an event, after sort
+     * @param i the index of the event
+     * @return the MIDI channel
+     */
+    public int getChannel(int i) {
+        return (int) (events[i] >>> CHANNEL_SHIFT) & 0xF;
+    }
+
+    /**
+     * Gets the pitch of an event, after sort
+     * @param i the index of the event
+     * @return the MIDI pitch
+     */
+    public int getPitch(int i) {
+        return (int) (events[i] >>> PITCH_SHIFT) & 0x7F;
+    }
+
+    /**
+     * Gets the velocity of an event, after sort
+     * @param i the index of the event
+     * @return the MIDI velocity
+     */
+    public int getVelocity(int i) {
+        return (int) events[i] & 0xFF;
+    }
+
+    /**
+     * Gets the length of the timeline
+     * @return the tick of the last event, or the end of the range of a slice if it is later, 0 if there is none
+     */
+    public int getTickLength() {
+        sort();
+        return Math.max(length, size == 0 ? 0 : getTick(size - 1));
+    }
+
+    /**
+     * Builds the javax.sound.midi Sequence of the timeline, with one Track per track and the tempo
+     * at tick 0 of the first one, which ends at the length of the timeline. The events are sorted
+     * first, so every Track is filled in order.
+     * @return a new Sequence
+     */
+    public Sequence toSequence() {
+        sort();
+        try {
+            Sequence sequence = new Sequence(Sequence.PPQ, ticksPerQuarterNote);
+            Track[] tracks = new Track[getTrackCount()];
+            for (int t = 0; t < tracks.length; t++) {
+                tracks[t] = sequence.createTrack();
+            }
+
+            // store the tempo in the first track, for when the sequence is written to a file
+            int microsecondsPerQuarter = 60000000 / beatsPerMinute;
+            byte[] tempo = { (byte)(microsecondsPerQuarter >> 16), (byte)(microsecondsPerQuarter >> 8), (byte)microsecondsPerQuarter };
+            tracks[0].add(new MidiEvent(new MetaMessage(SET_TEMPO, tempo, tempo.length), 0));
+
+            for (int i = 0; i < size; i++) {
+                ShortMessage msg = new ShortMessage();
+                msg.setMessage(isNoteOn(i) ? ShortMessage.NOTE_ON : ShortMessage.NOTE_OFF,
+                        getChannel(i), getPitch(i), getVelocity(i));
+                tracks[getTrack(i)].add(new MidiEvent(msg, getTick(i)));
+            }
+
+            // moves the end of the first track past the last note off, e.g. to a rest at the end of a slice
+            tracks[0].add(new MidiEvent(new MetaMessage(END_OF_TRACK, new byte[0], 0), getTickLength()));
+            return sequence;
+        } catch (InvalidMidiDataException e) {
+            throw new RuntimeException("Cannot build the MIDI sequence", e);
+        }
+    }
+}
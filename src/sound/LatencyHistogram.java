@@ -0,0 +1,92 @@
+package sound;
+
+/**
+ * A histogram of how late events were sent, with a bucket per power of two nanoseconds, e.g. to
+ * see the jitter of a MidiScheduler. Events sent early count as 0 nanoseconds late.
+ *
+ * It is meant to be written by the one thread that sends the events, and read once it is done.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final long[] buckets = new long[BUCKETS];
+    private long count = 0;
+    private long totalNanos = 0;
+    private long maxNanos = 0;
+
+    /**
+     * Records how late one event was
+     * @param nanos the nanoseconds between when the event was due and when it was sent
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets[bucket(nanos)]++;
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    /**
+     * Gets the bucket of a latency
+     * @param nanos the latency in nanoseconds
+     * @return the index of the smallest power of two that is >= nanos
+     */
+    private static int bucket(long nanos) {
+        return nanos <= 1 ? 0 : BUCKETS - Long.numberOfLeadingZeros(nanos - 1);
+    }
+
+    /**
+     * Gets the number of events recorded
+     * @return the number of events
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the mean latency
+     * @return the mean of the recorded latencies in nanoseconds, 0 if there is none
+     */
+    public long getMeanNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    /**
+     * Gets the largest latency
+     * @return the largest recorded latency in nanoseconds, 0 if there is none
+     */
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Estimates a percentile of the latencies
+     * @param percentile the percentile, from 0 to 100
+     * @return the upper bound of the histogram bucket the percentile falls in, in nanoseconds,
+     *         0 if there is none
+     */
+    public long getPercentileNanos(double percentile) {
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += buckets[b];
+            if (seen >= rank && seen > 0) {
+                return 1L << b;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Gets a summary of the latencies
+     * @return the count, mean, 50th, 99th and 99.9th percentiles and max, in microseconds
+     */
+    @Override
+    public String toString() {
+        return String.format("%d events, late by mean %.1f us, p50 <= %.1f us, p99 <= %.1f us, p99.9 <= %.1f us, max %.1f us",
+                count, getMeanNanos() / 1e3, getPercentileNanos(50) / 1e3, getPercentileNanos(99) / 1e3,
+                getPercentileNanos(99.9) / 1e3, maxNanos / 1e3);
+    }
+}
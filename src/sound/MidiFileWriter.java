@@ -0,0 +1,56 @@
+package sound;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+
+/**
+ * Writes the sequence built by a SequencePlayer to a Standard MIDI File, instead of playing it.
+ * This needs no MIDI device and runs as fast as the file can be written.
+ */
+public class MidiFileWriter {
+
+    private static int MULTI_TRACK = 1; // type 1 MIDI file: several tracks played at the same time
+    private static final int MAX_RESOLUTION = 0x7FFF;  // the division field of the header has 15 bits for ticks per quarter
+
+    /**
+     * Writes a type 1 MIDI file with one track per track of the player, e.g. per voice
+     * @param player the player holding the notes
+     * @param file the .mid file to write
+     * @throws IOException if the file cannot be written
+     * @throws IllegalArgumentException if the player has more ticks per quarter note than a MIDI file can hold
+     */
+    public static void write(SequencePlayer player, File file) throws IOException {
+        MidiSystem.write(checkedSequence(player), MULTI_TRACK, file);
+    }
+
+    /**
+     * Writes a type 1 MIDI file with one track per track of the player, e.g. per voice
+     * @param player the player holding the notes
+     * @param out the stream to write the file to
+     * @throws IOException if the file cannot be written
+     * @throws IllegalArgumentException if the player has more ticks per quarter note than a MIDI file can hold
+     */
+    public static void write(SequencePlayer player, OutputStream out) throws IOException {
+        MidiSystem.write(checkedSequence(player), MULTI_TRACK, out);
+    }
+
+    /**
+     * Gets the sequence of a player, checking that its resolution fits in a MIDI file.
+     * MidiSystem.write would keep only the low 15 bits and write a file that cannot be read.
+     * @param player the player holding the notes
+     * @return the sequence to write
+     * @throws IllegalArgumentException if the resolution is above 32767 ticks per quarter note
+     */
+    private static Sequence checkedSequence(SequencePlayer player) {
+        Sequence sequence = player.getSequence();
+        if (sequence.getResolution() > MAX_RESOLUTION) {
+            throw new IllegalArgumentException("A MIDI file cannot hold " + sequence.getResolution()
+                    + " ticks per quarter note, the most is " + MAX_RESOLUTION);
+        }
+        return sequence;
+    }
+}
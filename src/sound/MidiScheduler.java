@@ -0,0 +1,127 @@
+package sound;
+
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Plays the events of an EventTimeline by sending them to a Receiver itself, on the calling
+ * thread, instead of handing a Sequence to the JDK Sequencer.
+ *
+ * The time every event is due is computed from its tick and the start of playback, not from the
+ * previous event, so lateness never adds up. The thread parks with LockSupport.parkNanos until
+ * shortly before an event is due, then spins until it is, which keeps the events on time even
+ * when the host is loaded, at the cost of some CPU near every event. How late each message was
+ * sent is recorded in a LatencyHistogram.
+ *
+ * Messages are sent with a timestamp of -1, to be played as soon as they arrive. A Receiver's
+ * timestamps are on the clock of its device, not of this playback, and a receiver that schedules
+ * timestamped messages itself, such as the Gervill synthesizer, would delay them a second time or
+ * play them as late. The thread already waits until each message is due.
+ */
+public class MidiScheduler {
+    private static final long SPIN_NANOS = 1000000; // stop parking this long before an event is due
+    private static final int ALL_NOTES_OFF = 123;   // the control change that stops every note of a channel
+
+    private final EventTimeline timeline;
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * Creates a MidiScheduler
+     * @param timeline the events to play, at the tempo and resolution of the timeline
+     */
+    public MidiScheduler(EventTimeline timeline) {
+        this.timeline = timeline;
+    }
+
+    /**
+     * Gets how late the events played so far were sent
+     * @return the histogram of the events' latencies
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Plays the timeline, blocking until its last event is sent and its length has passed, so that a
+     * rest at the end of a slice is kept. If the thread is interrupted, playback stops, every channel
+     * is sent all notes off, and the interrupt status is kept.
+     * @param receiver the receiver to send the events to, e.g. MidiSystem.getReceiver()
+     * @return true if every event was sent, false if playback was interrupted
+     */
+    public boolean play(Receiver receiver) {
+        timeline.sort();
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < timeline.size(); i++) {
+                // build the message before waiting, so that sending it is all that is left when it is due
+                ShortMessage msg = new ShortMessage(timeline.isNoteOn(i) ? ShortMessage.NOTE_ON : ShortMessage.NOTE_OFF,
+                        timeline.getChannel(i), timeline.getPitch(i), timeline.getVelocity(i));
+                long due = start + timeline.toNanos(timeline.getTick(i));
+                if (!waitUntil(due)) {
+                    allNotesOff(receiver);
+                    return false;
+                }
+                long now = System.nanoTime();
+                receiver.send(msg, -1);
+                latency.record(now - due);
+            }
+            if (!waitUntil(start + timeline.toNanos(timeline.getTickLength()))) {
+                allNotesOff(receiver);
+                return false;
+            }
+        } catch (InvalidMidiDataException e) {
+            throw new RuntimeException("Cannot play the timeline", e);
+        }
+        return true;
+    }
+
+    /**
+     * Waits until a time, parking while it is far and spinning once it is near
+     * @param due the System.nanoTime() to wait for
+     * @return true once the time is reached, false if the thread was interrupted first
+     */
+    private static boolean waitUntil(long due) {
+        long remaining;
+        while ((remaining = due - System.nanoTime()) > SPIN_NANOS) {
+            LockSupport.parkNanos(remaining - SPIN_NANOS);
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+        }
+        while (due - System.nanoTime() > 0) {
+            // spin, parking again could wake up too late
+        }
+        return !Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Stops the notes still sounding on every channel
+     * @param receiver the receiver the notes were sent to
+     */
+    private static void allNotesOff(Receiver receiver) throws InvalidMidiDataException {
+        for (int channel = 0; channel < 16; channel++) {
+            receiver.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, channel, ALL_NOTES_OFF, 0), -1);
+        }
+    }
+
+    /**
+     * Plays a fast run of notes to a RecordingReceiver, and prints how late they were sent.
+     * @param args nothing, or the number of notes to play, 16 per second
+     */
+    public static void main(String[] args) {
+        int notes = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        // 240 beats per minute at 4 ticks per beat, so a tick lasts 62.5 ms
+        EventTimeline timeline = new EventTimeline(240, 4);
+        for (int i = 0; i < notes; i++) {
+            timeline.addNote(new Pitch('C').transpose(i % Pitch.OCTAVE).toMidiNote(), i, 1, 0, 100);
+        }
+
+        MidiScheduler scheduler = new MidiScheduler(timeline);
+        RecordingReceiver receiver = new RecordingReceiver();
+        scheduler.play(receiver);
+        System.out.println(scheduler.getLatency());
+    }
+}
@@ -12,6 +12,9 @@ package sound;
  *   new Pitch('F').transpose(-2) makes E-flat.
  *   new Pitch('C').transpose(OCTAVE) makes high C.
  *   new Pitch('C').transpose(-OCTAVE) makes low C.
+ *
+ * To find the MIDI note of a note without making any Pitch, use Pitch.toMidiNote(letter, octave,
+ * accidental); Pitch.valueOf(midiNote) gives a shared Pitch for each of the 128 MIDI notes.
  */
 public class Pitch {
     private final int value;
@@ -41,6 +44,30 @@ public class Pitch {
         7   // G
     };
     
+    /**
+     * The MIDI note of each letter in the middle octave, indexed by letter - 'A'
+     */
+    private static final int[] midiNotes = {
+        69, // A
+        71, // B
+        60, // C
+        62, // D
+        64, // E
+        65, // F
+        67  // G
+    };
+
+    /**
+     * A Pitch for every MIDI note, spelled with sharps, indexed by MIDI note
+     */
+    private static final Pitch[] midiPitches = new Pitch[128];
+    static {
+        Pitch middleC = new Pitch('C');
+        for (int note = 0; note < midiPitches.length; note++) {
+            midiPitches[note] = middleC.transpose(note - 60);
+        }
+    }
+
     private Pitch(int value, int accidental, int octave) {
         this.value = value;
         this.accidental = accidental;
@@ -69,6 +96,32 @@ public class Pitch {
      * Number of pitches in an octave.
      */
     public static final int OCTAVE = 12;
+
+    /**
+     * Gets the shared Pitch of a MIDI note, without making a new one.
+     * @param midiNote a MIDI note, from 0 to 127
+     * @return the Pitch p, spelled with sharps, such that p.toMidiNote() == midiNote.
+     * For example, Pitch.valueOf(61) is C-sharp above middle C.
+     */
+    public static Pitch valueOf(int midiNote) {
+        if (midiNote < 0 || midiNote >= midiPitches.length)
+            throw new IllegalArgumentException(midiNote + " must be in the range 0-127");
+        return midiPitches[midiNote];
+    }
+
+    /**
+     * Finds the MIDI note of a note, without making any Pitch.
+     * @param c a note in {'A',...,'G'}
+     * @param octave the number of octaves above the middle octave, negative for below
+     * @param accidental the number of sharps, negative for flats
+     * @return the same as new Pitch(c).transpose(OCTAVE*octave + accidental).toMidiNote()
+     */
+    public static int toMidiNote(char c, int octave, int accidental) {
+        int index = c - 'A';
+        if (index < 0 || index >= midiNotes.length)
+            throw new IllegalArgumentException(c + " must be in the range A-G");
+        return midiNotes[index] + OCTAVE * octave + accidental;
+    }
     
     /**
      * @return pitch made by adding semitonesUp sharps to this pitch,
@@ -0,0 +1,82 @@
+package sound;
+
+import java.util.Arrays;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+
+/**
+ * A Receiver that plays nothing, and keeps the timestamp and the time of arrival of every message
+ * it is sent, e.g. to measure a MidiScheduler without a synthesizer.
+ */
+public class RecordingReceiver implements Receiver {
+    private long[] timestamps = new long[64];
+    private long[] arrivals = new long[64];
+    private MidiMessage[] messages = new MidiMessage[64];
+    private int size = 0;
+    private boolean closed = false;
+
+    /**
+     * Records a message
+     * @param message the message
+     * @param timeStamp the time the message is for, in microseconds, -1 if none
+     */
+    @Override
+    public synchronized void send(MidiMessage message, long timeStamp) {
+        if (closed) {
+            throw new IllegalStateException("The receiver is closed");
+        }
+        if (size == messages.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            arrivals = Arrays.copyOf(arrivals, size * 2);
+            messages = Arrays.copyOf(messages, size * 2);
+        }
+        arrivals[size] = System.nanoTime();
+        timestamps[size] = timeStamp;
+        messages[size] = message;
+        size++;
+    }
+
+    /**
+     * Stops accepting messages
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+    }
+
+    /**
+     * Counts the messages received
+     * @return the number of messages
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Gets a message
+     * @param i the index of the message, in the order it arrived
+     * @return the message
+     */
+    public synchronized MidiMessage getMessage(int i) {
+        return messages[i];
+    }
+
+    /**
+     * Gets the timestamp a message was sent with
+     * @param i the index of the message, in the order it arrived
+     * @return the timestamp, in microseconds
+     */
+    public synchronized long getTimestamp(int i) {
+        return timestamps[i];
+    }
+
+    /**
+     * Gets the time a message arrived
+     * @param i the index of the message, in the order it arrived
+     * @return the System.nanoTime() when it arrived
+     */
+    public synchronized long getArrival(int i) {
+        return arrivals[i];
+    }
+}
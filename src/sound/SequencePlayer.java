@@ -1,34 +1,50 @@
 package sound;
 
 import java.text.MessageFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MetaEventListener;
+import javax.sound.midi.MetaMessage;
 import javax.sound.midi.MidiMessage;
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
 import javax.sound.midi.Sequence;
 import javax.sound.midi.Sequencer;
 import javax.sound.midi.ShortMessage;
 import javax.sound.midi.Track;
 
+import events.PlaybackFinishedEvent;
+import events.PlaybackStartedEvent;
+
 /**
  * Schedules and plays a sequence of notes at given time steps (or "ticks").
  */
 public class SequencePlayer {
 
-    private Sequencer sequencer;
-    private Track track;
+    private EventTimeline timeline;
+    private Sequence sequence;  // built from the timeline when it is needed, null until then
     private int beatsPerMinute;
-
-    private static int DEFAULT_CHANNEL = 0;    // midi channel - for our purpose always 0
+    private int channel = 0;    // the channel of the current track
+    private String title;       // the tune, for the playback events
+    private int index;
+    private BarIndex bars;      // where the bars of the tracks start, null if not known
+
+    private static int END_OF_TRACK = 0x2F;    // type of the meta event sent at the end of a track
+    private static int SET_TEMPO = 0x51;       // type of the meta event that sets the tempo
+    private static int PERCUSSION_CHANNEL = 9; // General MIDI plays drums on it, so no track gets it
     private static int DEFAULT_VELOCITY = 100; // the volume
 
     /*
      * Rep invariant:
-     *   sequencer is non-null,
-     *   track is non-null,
-     *   beatsPerMinute is positive
+     *   timeline is non-null,
+     *   sequence is null, or was built from timeline after its last note or track was added,
+     *   beatsPerMinute is positive,
+     *   0 <= channel <= 15, channel != PERCUSSION_CHANNEL
      */
 
     /**
@@ -40,31 +56,93 @@ public class SequencePlayer {
      */
     public SequencePlayer(int beatsPerMinute, int ticksPerQuarterNote)
             throws MidiUnavailableException, InvalidMidiDataException {
-        this.sequencer = MidiSystem.getSequencer();
-
-        // Create a sequence object with with tempo-based timing, where
-        // the resolution of the time step is based on ticks per quarter note.
-        Sequence sequence = new Sequence(Sequence.PPQ, ticksPerQuarterNote);
+        // Notes are collected in an EventTimeline. The sequence, with tempo-based timing where
+        // the resolution of the time step is based on ticks per quarter note, is only built
+        // from it to play it or write it, and the sequencer is only opened to play it.
+        if (beatsPerMinute <= 0) {
+            throw new IllegalArgumentException("The tempo must be positive: " + beatsPerMinute);
+        }
+        this.timeline = new EventTimeline(beatsPerMinute, ticksPerQuarterNote);
         this.beatsPerMinute = beatsPerMinute;
 
-        // Create an empty track. Notes will be added to this track.
-        this.track = sequence.createTrack();
-
-        sequencer.setSequence(sequence);
+        checkRep();
+    }
 
+    /**
+     * Starts a new track, e.g. for the next voice of a song. Notes added from now on go into it,
+     * on the next MIDI channel, so that every track can be mixed on its own. The 15 melodic
+     * channels are shared again by the 16th track onwards.
+     */
+    public void newTrack() {
+        timeline.newTrack();
+        channel = (channel + 1) % 16;
+        if (channel == PERCUSSION_CHANNEL) {
+            channel++;
+        }
+        sequence = null;
         checkRep();
     }
 
     /**
-     * @param eventType the MIDI status byte; must be a valid MidiMessage type in ShortMessage
-     * @param note a MIDI data byte; must be a valid pitch value
-     * @param tick the tick of the event; must be >= 0
+     * Gets the channel of the current track
+     * @return the MIDI channel that notes added now are played on
+     */
+    public int getChannel() {
+        return channel;
+    }
+
+    /**
+     * Sets the tune the notes come from, which the playback events are recorded with
+     * @param title the T: field of the tune
+     * @param index the X: field of the tune
+     */
+    public void setTune(String title, int index) {
+        this.title = title;
+        this.index = index;
+    }
+
+    /**
+     * Sets where the bars of the tracks start, so that playback can start at a bar
+     * @param bars the bar index, with one voice per track
+     */
+    public void setBarIndex(BarIndex bars) {
+        this.bars = bars;
+    }
+
+    /**
+     * Gets where the bars of the tracks start
+     * @return the bar index, null if it was not set
+     */
+    public BarIndex getBarIndex() {
+        return bars;
+    }
+
+    /**
+     * Counts the MIDI events of the sequence
+     * @return the number of events in all the tracks, including the tempo and end of track events
+     */
+    public int getEventCount() {
+        return timeline.size() + 1 + timeline.getTrackCount();
+    }
+
+    /**
+     * Gets the notes added so far, as note on and note off events
+     * @return the timeline the notes are added to
      */
-    private void addMidiEvent(int eventType, int note, int tick) throws InvalidMidiDataException {
-        ShortMessage msg = new ShortMessage();
-        msg.setMessage(eventType, DEFAULT_CHANNEL, note, DEFAULT_VELOCITY);
-        MidiEvent event = new MidiEvent(msg, tick);
-        this.track.add(event);
+    public EventTimeline getTimeline() {
+        return timeline;
+    }
+
+    /**
+     * Gets the sequence of tracks the notes are added to, building it from the timeline if
+     * notes were added since it was last built
+     * @return the sequence, e.g. to write it to a MIDI file
+     */
+    public Sequence getSequence() {
+        if (sequence == null) {
+            sequence = timeline.toSequence();
+        }
+        return sequence;
     }
 
     /**
@@ -76,34 +154,273 @@ public class SequencePlayer {
      */
     public void addNote(int note, int startTick, int numTicks) {
         try {
-            // schedule two events in the track, one for starting a note and
+            // schedule two events in the timeline, one for starting a note and
             // the other for ending the note.
-            addMidiEvent(ShortMessage.NOTE_ON, note, startTick);
-            addMidiEvent(ShortMessage.NOTE_OFF, note, startTick + numTicks);
-        } catch (InvalidMidiDataException e) {
+            timeline.addNote(note, startTick, numTicks, channel, DEFAULT_VELOCITY);
+            sequence = null;
+        } catch (IllegalArgumentException e) {
             String msg = MessageFormat.format("Cannot add note with the pitch {0} at tick {1} " +
                     "for duration of {2}", note, startTick, numTicks);
             throw new RuntimeException(msg, e);
         }
     }
 
+    /**
+     * Schedules the notes of a whole voice in the current track, in one go. This is faster than
+     * adding them one by one when they are in order of their start ticks.
+     *
+     * @param notes the pitch values of the notes; each must be a valid note
+     * @param startTicks the starting ticks, as long as notes; each must be >= 0
+     * @param numTicks the number of ticks each note is played for, as long as notes; each must be >= 0
+     */
+    public void addNotes(int[] notes, int[] startTicks, int[] numTicks) {
+        try {
+            timeline.addNotes(notes, startTicks, numTicks, channel, DEFAULT_VELOCITY);
+            sequence = null;
+        } catch (IllegalArgumentException e) {
+            sequence = null;
+            throw new RuntimeException("Cannot add the notes of the track", e);
+        }
+    }
+
+    /**
+     * Adds all the notes of another player to the current track, on its channel, e.g. a voice
+     * that was rendered on another thread
+     * @param other the player to add the notes of. It must have the same ticks per quarter note
+     */
+    public void addAll(SequencePlayer other) {
+        if (other.timeline.getTicksPerQuarterNote() != timeline.getTicksPerQuarterNote()) {
+            throw new RuntimeException("Cannot add notes of " + other.timeline.getTicksPerQuarterNote()
+                    + " ticks per quarter note to a track of " + timeline.getTicksPerQuarterNote());
+        }
+        timeline.addTimeline(other.timeline, channel);
+        sequence = null;
+    }
+
     /**
      * The sequencer is opened to begin playing its track.
+     * Blocks until the end of the track is reached, without using the CPU while it waits.
+     * If the thread is interrupted, playback stops and the interrupt status is kept.
      */
     public void play() throws MidiUnavailableException {
-        sequencer.open();
+        await(playAsync());
+    }
+
+    /**
+     * Waits until a playback is done, and stops it if the thread is interrupted first
+     * @param playing the future of the playback
+     */
+    private static void await(CompletableFuture<Void> playing) {
+        try {
+            playing.get();
+        } catch (InterruptedException e) {
+            playing.cancel(true);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error while playing the track", e.getCause());
+        }
+    }
+
+    /**
+     * The sequencer is opened to begin playing its track, and this returns right away.
+     * The sequencer is closed when the end of the track is reached.
+     * @return a future that completes once the track has been played and the sequencer is closed.
+     *         Cancelling it stops the sequencer and closes it.
+     */
+    public CompletableFuture<Void> playAsync() throws MidiUnavailableException {
+        return playAsync(getSequence(), timeline.getTickLength());
+    }
+
+    /**
+     * The sequencer is opened to begin playing the tracks from the start of a bar to the end.
+     * Blocks until the end of the track is reached, or the thread is interrupted.
+     * @param bar the number of the bar to start at, from 0
+     * @throws IllegalStateException if the player has no bar index
+     */
+    public void playFrom(int bar) throws MidiUnavailableException {
+        playRange(bar, requireBarIndex().getBarCount());
+    }
+
+    /**
+     * The sequencer is opened to play some bars of the tracks. Only the notes that start in these
+     * bars are played, and a note that runs past the last of them is cut off at its end.
+     * Blocks until the last bar is played, or the thread is interrupted.
+     * @param fromBar the number of the first bar to play, from 0
+     * @param toBar the number of the bar after the last one to play, at most the number of bars
+     * @throws IllegalStateException if the player has no bar index
+     */
+    public void playRange(int fromBar, int toBar) throws MidiUnavailableException {
+        EventTimeline range = slice(fromBar, toBar);
+        await(playAsync(range.toSequence(), range.getTickLength()));
+    }
+
+    /**
+     * Copies the notes of some bars, moved to start at tick 0. The copy lasts until the start of the
+     * bar after the last one, so a rest at the end of the last bar is kept.
+     * @param fromBar the number of the first bar, from 0
+     * @param toBar the number of the bar after the last one, at most the number of bars
+     * @return the notes that start in the bars
+     * @throws IllegalStateException if the player has no bar index
+     */
+    private EventTimeline slice(int fromBar, int toBar) {
+        BarIndex barIndex = requireBarIndex();
+        int barCount = barIndex.getBarCount();
+        if (fromBar < 0 || toBar <= fromBar || toBar > barCount) {
+            throw new IndexOutOfBoundsException("Invalid bars " + fromBar + " to " + toBar + " of " + barCount);
+        }
+        int fromTick = barIndex.getStartTick(fromBar);
+        int toTick = toBar == barCount ? Math.max(timeline.getTickLength(), fromTick) : barIndex.getStartTick(toBar);
+        return timeline.slice(fromTick, toTick);
+    }
+
+    /**
+     * Gets the bar index, to play from a bar
+     * @return the bar index
+     * @throws IllegalStateException if it was not set
+     */
+    private BarIndex requireBarIndex() {
+        if (bars == null) {
+            throw new IllegalStateException("The player has no bar index to start at a bar");
+        }
+        return bars;
+    }
+
+    /**
+     * The sequencer is opened to begin playing a sequence, and this returns right away.
+     * The sequencer is closed when the end of the track is reached.
+     * @param sequence the sequence to play, all or some of the notes of the player
+     * @param ticks the length of the sequence, for the playback events
+     * @return a future that completes once the track has been played and the sequencer is closed.
+     *         Cancelling it stops the sequencer and closes it.
+     */
+    private CompletableFuture<Void> playAsync(Sequence sequence, final int ticks) throws MidiUnavailableException {
+        final Sequencer sequencer = MidiSystem.getSequencer();
+        try {
+            sequencer.setSequence(sequence);
+        } catch (InvalidMidiDataException e) {
+            throw new RuntimeException("Cannot play the sequence", e);
+        }
+
+        // the sequencer sends an end of track meta event when it is done playing
+        final CompletableFuture<Void> endOfTrack = new CompletableFuture<Void>();
+        final MetaEventListener listener = new MetaEventListener() {
+            @Override
+            public void meta(MetaMessage meta) {
+                if (meta.getType() == END_OF_TRACK) {
+                    endOfTrack.complete(null);
+                }
+            }
+        };
+        sequencer.addMetaEventListener(listener);
+
+        try {
+            sequencer.open();
+        } catch (MidiUnavailableException e) {
+            sequencer.removeMetaEventListener(listener);
+            sequencer.close();
+            throw e;
+        }
         sequencer.setTempoInBPM(this.beatsPerMinute);
 
+        PlaybackStartedEvent started = new PlaybackStartedEvent();
+        started.setTune(title, index);
+        started.ticks = ticks;
+        started.beatsPerMinute = beatsPerMinute;
+        started.commit();
+        final PlaybackFinishedEvent finished = new PlaybackFinishedEvent();
+        finished.begin();
+
         // start playing!
         sequencer.start();
 
-        // busy-wait until the sequencer stops playing.
-        while (sequencer.isRunning()) {
-            Thread.yield();
-        }
+        // when done playing or stopped, close the sequencer, off the sequencer's event thread
+        final CompletableFuture<Void> done = new CompletableFuture<Void>();
+        endOfTrack.whenCompleteAsync(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable error) {
+                sequencer.stop();
+                sequencer.removeMetaEventListener(listener);
+                sequencer.close();
+
+                finished.end();
+                if (finished.shouldCommit()) {
+                    finished.setTune(title, index);
+                    finished.ticks = ticks;
+                    finished.beatsPerMinute = beatsPerMinute;
+                    finished.completed = error == null;
+                    finished.commit();
+                }
+                if (error == null) {
+                    done.complete(null);
+                } else {
+                    done.completeExceptionally(error);
+                }
+            }
+        });
+
+        // cancelling the playback stops the sequencer before the end of the track
+        done.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable error) {
+                if (error != null) {
+                    endOfTrack.completeExceptionally(error);
+                }
+            }
+        });
+        return done;
+    }
+
+    /**
+     * Plays the notes with a MidiScheduler on this thread instead of with the JDK Sequencer,
+     * sending them straight to a receiver. Blocks until the last note is sent.
+     * @param receiver the receiver to send the notes to, e.g. MidiSystem.getReceiver()
+     * @return how late each note was sent
+     */
+    public LatencyHistogram playTo(Receiver receiver) {
+        return playTo(receiver, timeline);
+    }
+
+    /**
+     * Plays some bars with a MidiScheduler on this thread, like playRange does with the JDK Sequencer.
+     * Blocks until the last bar is played.
+     * @param receiver the receiver to send the notes to, e.g. MidiSystem.getReceiver()
+     * @param fromBar the number of the first bar to play, from 0
+     * @param toBar the number of the bar after the last one to play, at most the number of bars
+     * @return how late each note was sent
+     * @throws IllegalStateException if the player has no bar index
+     */
+    public LatencyHistogram playTo(Receiver receiver, int fromBar, int toBar) {
+        return playTo(receiver, slice(fromBar, toBar));
+    }
 
-        // when done playing, close the sequencer
-        sequencer.close();
+    /**
+     * Plays a timeline with a MidiScheduler on this thread
+     * @param receiver the receiver to send the notes to
+     * @param range all or some of the notes of the player
+     * @return how late each note was sent
+     */
+    private LatencyHistogram playTo(Receiver receiver, EventTimeline range) {
+        MidiScheduler scheduler = new MidiScheduler(range);
+
+        PlaybackStartedEvent started = new PlaybackStartedEvent();
+        started.setTune(title, index);
+        started.ticks = range.getTickLength();
+        started.beatsPerMinute = beatsPerMinute;
+        started.commit();
+        PlaybackFinishedEvent finished = new PlaybackFinishedEvent();
+        finished.begin();
+
+        boolean completed = scheduler.play(receiver);
+
+        finished.end();
+        if (finished.shouldCommit()) {
+            finished.setTune(title, index);
+            finished.ticks = range.getTickLength();
+            finished.beatsPerMinute = beatsPerMinute;
+            finished.completed = completed;
+            finished.commit();
+        }
+        return scheduler.getLatency();
     }
 
     /**
@@ -114,39 +431,48 @@ public class SequencePlayer {
     @Override
     public String toString() {
         String trackInfo = "";
-        
-        for (int i = 0; i < track.size(); i++) {
-            MidiEvent e = track.get(i);
-            MidiMessage msg = e.getMessage();
-            String msgString = "";
-
-            if (msg instanceof javax.sound.midi.ShortMessage) {
-                ShortMessage smg = ((ShortMessage) msg);
-                int command = smg.getCommand();
-                String commandType = "UnknownCommand";
-
-                // determine the type of the command in this message
-                if (command == ShortMessage.NOTE_OFF) {
-                    commandType = "NOTE_OFF";
-                } else if (command == ShortMessage.NOTE_ON) {
-                    commandType = "NOTE_ON ";
-                }
+        Track[] tracks = getSequence().getTracks();
 
-                msgString = "Event: " + commandType + " Pitch: " + smg.getData1() + " ";
-            } else {
-                msgString = "***** End of track *****  ";
+        for (int t = 0; t < tracks.length; t++) {
+            if (tracks.length > 1) {
+                trackInfo = trackInfo + "***** Track " + t + " *****\n";
             }
 
-            trackInfo = trackInfo + msgString + " Tick: " + e.getTick() + "\n";
+            for (int i = 0; i < tracks[t].size(); i++) {
+                MidiEvent e = tracks[t].get(i);
+                MidiMessage msg = e.getMessage();
+                String msgString = "";
+
+                if (msg instanceof javax.sound.midi.ShortMessage) {
+                    ShortMessage smg = ((ShortMessage) msg);
+                    int command = smg.getCommand();
+                    String commandType = "UnknownCommand";
+
+                    // determine the type of the command in this message
+                    if (command == ShortMessage.NOTE_OFF) {
+                        commandType = "NOTE_OFF";
+                    } else if (command == ShortMessage.NOTE_ON) {
+                        commandType = "NOTE_ON ";
+                    }
+
+                    msgString = "Event: " + commandType + " Pitch: " + smg.getData1() + " ";
+                } else if (((MetaMessage) msg).getType() == SET_TEMPO) {
+                    continue;
+                } else {
+                    msgString = "***** End of track *****  ";
+                }
+
+                trackInfo = trackInfo + msgString + " Tick: " + e.getTick() + "\n";
+            }
         }
 
         return trackInfo;
     }
 
     private void checkRep() {
-        assert sequencer != null : "sequencer should be non-null";
-        assert track != null : "track should be non-null";
+        assert timeline != null : "timeline should be non-null";
         assert beatsPerMinute >= 0 : "should be positive number of beats per minute";
+        assert channel >= 0 && channel <= 15 && channel != PERCUSSION_CHANNEL : "should be a melodic channel";
     }
 
     /**
@@ -1,5 +1,11 @@
 package sound;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiUnavailableException;
 
@@ -126,4 +132,48 @@ public class SequencePlayerTest {
         }
 
     }
+
+    /**
+     * Plays a scale without blocking, and waits for the end of the track
+     */
+    @Test
+    public void playAsyncTest() {
+        try {
+            SequencePlayer player = new SequencePlayer(240, 2);
+            for (int i = 0; i < 8; i++) {
+                player.addNote(new Pitch('C').transpose(i).toMidiNote(), i, 1);
+            }
+
+            CompletableFuture<Void> done = player.playAsync();
+            assertFalse(done.isDone());
+
+            // 8 eighth notes at 240 beats per minute take 1 second
+            done.get(10, TimeUnit.SECONDS);
+        } catch (MidiUnavailableException e) {
+            e.printStackTrace();
+        } catch (InvalidMidiDataException e) {
+            e.printStackTrace();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Starts a long track without blocking, and stops it by cancelling its future
+     */
+    @Test
+    public void cancelTest() {
+        try {
+            SequencePlayer player = new SequencePlayer(60, 1);
+            player.addNote(new Pitch('C').toMidiNote(), 0, 60);
+
+            CompletableFuture<Void> done = player.playAsync();
+            assertTrue(done.cancel(true));
+            assertTrue(done.isCompletedExceptionally());
+        } catch (MidiUnavailableException e) {
+            e.printStackTrace();
+        } catch (InvalidMidiDataException e) {
+            e.printStackTrace();
+        }
+    }
 }
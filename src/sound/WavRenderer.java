@@ -0,0 +1,195 @@
+package sound;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Synthesizer;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * Renders the notes of a SequencePlayer to a WAV file with the JDK software synthesizer (Gervill),
+ * without an audio device and as fast as the synthesizer can compute the samples.
+ *
+ * The synthesizer is opened with AudioSynthesizer.openStream, which makes it write its output to
+ * an AudioInputStream instead of a sound card. Every note is sent up front with its time as the
+ * timestamp, and the stream is read for as long as the tune lasts, plus a tail for the last notes
+ * to fade out.
+ *
+ * AudioSynthesizer is not part of the public API, so it is called by reflection. On Java 9 and
+ * later the JVM has to be started with
+ *   --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED
+ *
+ * A WavRenderer owns one synthesizer and renders one tune at a time. renderAll renders many tunes
+ * in parallel, with a WavRenderer per thread.
+ */
+public class WavRenderer {
+    /** 44.1 kHz, 16 bit, stereo, signed little-endian PCM */
+    public static final AudioFormat FORMAT = new AudioFormat(44100f, 16, 2, true, false);
+
+    private static final long TAIL_MICROSECONDS = 1000000;  // rendered after the last note ends
+
+    private final Synthesizer synthesizer;
+    private final Method openStream;
+
+    /**
+     * Creates a WavRenderer with a synthesizer of its own
+     * @throws MidiUnavailableException if there is no software synthesizer
+     */
+    public WavRenderer() throws MidiUnavailableException {
+        synthesizer = MidiSystem.getSynthesizer();
+        try {
+            openStream = synthesizer.getClass().getMethod("openStream", AudioFormat.class, Map.class);
+        } catch (NoSuchMethodException e) {
+            throw new MidiUnavailableException("The synthesizer " + synthesizer.getDeviceInfo().getName()
+                    + " cannot render to a stream");
+        }
+    }
+
+    /**
+     * Renders the notes of a player to a WAV file
+     * @param player the notes to render, at the tempo of the player
+     * @param file the WAV file to write
+     * @throws IOException if the file cannot be written
+     * @throws MidiUnavailableException if the synthesizer cannot be opened
+     */
+    public void write(SequencePlayer player, File file) throws IOException, MidiUnavailableException {
+        AudioInputStream audio = render(player);
+        try {
+            AudioSystem.write(audio, AudioFileFormat.Type.WAVE, file);
+        } finally {
+            audio.close();
+        }
+    }
+
+    /**
+     * Renders the notes of a player. The synthesizer stays open until the stream is closed, and
+     * cannot render another tune until then.
+     * @param player the notes to render, at the tempo of the player
+     * @return the samples, in FORMAT, as long as the tune plus a second
+     * @throws MidiUnavailableException if the synthesizer cannot be opened
+     */
+    public AudioInputStream render(SequencePlayer player) throws MidiUnavailableException {
+        final AudioInputStream stream = openStream();
+        EventTimeline timeline = player.getTimeline();
+        timeline.sort();
+        try {
+            Receiver receiver = synthesizer.getReceiver();
+            for (int i = 0; i < timeline.size(); i++) {
+                ShortMessage msg = new ShortMessage(timeline.isNoteOn(i) ? ShortMessage.NOTE_ON : ShortMessage.NOTE_OFF,
+                        timeline.getChannel(i), timeline.getPitch(i), timeline.getVelocity(i));
+                receiver.send(msg, timeline.toNanos(timeline.getTick(i)) / 1000);
+            }
+        } catch (InvalidMidiDataException e) {
+            synthesizer.close();
+            throw new RuntimeException("Cannot render the timeline", e);
+        }
+
+        long microseconds = timeline.toNanos(timeline.getTickLength()) / 1000 + TAIL_MICROSECONDS;
+        long frames = (long) (microseconds * (double) FORMAT.getFrameRate() / 1000000);
+        return new AudioInputStream(stream, FORMAT, frames) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                synthesizer.close();
+            }
+        };
+    }
+
+    /**
+     * Opens the synthesizer to write to a stream
+     * @return the stream the synthesizer writes its samples to
+     * @throws MidiUnavailableException if the synthesizer cannot be opened
+     */
+    private AudioInputStream openStream() throws MidiUnavailableException {
+        try {
+            return (AudioInputStream) openStream.invoke(synthesizer, FORMAT, null);
+        } catch (IllegalAccessException e) {
+            throw new MidiUnavailableException("Cannot open the synthesizer to a stream, start the JVM with "
+                    + "--add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED");
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof MidiUnavailableException) {
+                throw (MidiUnavailableException) e.getCause();
+            }
+            throw new RuntimeException("Cannot open the synthesizer", e.getCause());
+        }
+    }
+
+    /**
+     * Renders many players to WAV files in parallel, each thread with a WavRenderer of its own
+     * @param players the players to render
+     * @param files the file to write each player to, in the same order
+     * @param threads the number of threads to render on
+     * @return the exception each player failed with, in the same order, null for the ones written
+     */
+    public static List<Exception> renderAll(final List<SequencePlayer> players, final List<File> files, int threads) {
+        if (players.size() != files.size()) {
+            throw new IllegalArgumentException(players.size() + " players for " + files.size() + " files");
+        }
+        final List<WavRenderer> renderers = Collections.synchronizedList(new ArrayList<WavRenderer>());
+        final ThreadLocal<WavRenderer> renderer = new ThreadLocal<WavRenderer>() {
+            @Override
+            protected WavRenderer initialValue() {
+                try {
+                    WavRenderer r = new WavRenderer();
+                    renderers.add(r);
+                    return r;
+                } catch (MidiUnavailableException e) {
+                    throw new RuntimeException("Cannot create a synthesizer", e);
+                }
+            }
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> done = new ArrayList<Future<Void>>();
+            for (int i = 0; i < players.size(); i++) {
+                final int index = i;
+                done.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        renderer.get().write(players.get(index), files.get(index));
+                        return null;
+                    }
+                }));
+            }
+
+            List<Exception> errors = new ArrayList<Exception>();
+            for (Future<Void> f : done) {
+                try {
+                    f.get();
+                    errors.add(null);
+                } catch (ExecutionException e) {
+                    errors.add(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while rendering", e);
+                }
+            }
+            return errors;
+        } finally {
+            pool.shutdownNow();
+            for (WavRenderer r : renderers) {
+                r.synthesizer.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package test;
+
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import org.junit.Test;
+import ast.*;
+import player.AbcGenerator;
+import player.CompiledTune;
+import player.DurationVisitor;
+import player.Lexer;
+import player.Parser;
+import player.PlayerVisitor;
+import player.RationalNumber;
+import player.ScanningLexer;
+import player.Songbook;
+
+/**
+ * Tests the AbcGenerator
+ * Testing Strategy:
+ *  - the same seed and settings give the same text, another seed gives another text
+ *  - generated tunes lex the same with the regex Lexer and the ScanningLexer, and parse
+ *  - every voice of a generated tune ends on the same tick
+ *  - densities of 0 leave out chords, tuplets, accidentals and repeats, and high densities put them in
+ *  - a songbook of a given size compiles without failures
+ */
+public class AbcGeneratorTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Parses a tune with the ScanningLexer
+     * @param tune the tune
+     * @return the Song
+     */
+    private Song parse(String tune) {
+        ScanningLexer lexer = new ScanningLexer(tune);
+        Parser parser = new Parser();
+        parser.parse(lexer.lexHead(), lexer.lexBodyBuffer());
+        return parser.getSong();
+    }
+
+    /**
+     * Tests that the output only depends on the seed and the index of the tune
+     */
+    @Test
+    public void deterministicTest() throws IOException {
+        StringBuilder first = new StringBuilder();
+        StringBuilder second = new StringBuilder();
+        new AbcGenerator(42).writeSongbook(first, 5);
+        new AbcGenerator(42).writeSongbook(second, 5);
+        assertEquals(first.toString(), second.toString());
+
+        assertEquals(new AbcGenerator(42).generateTune(3), new AbcGenerator(42).generateTune(3));
+        assertTrue(first.toString().contains(new AbcGenerator(42).generateTune(3)));
+        assertFalse(new AbcGenerator(42).generateTune(1).equals(new AbcGenerator(43).generateTune(1)));
+    }
+
+    /**
+     * Tests that generated tunes with everything in them lex the same with both lexers and
+     * that their voices stay together
+     */
+    @Test
+    public void validTunesTest() {
+        AbcGenerator generator = new AbcGenerator(7);
+        generator.setBars(40);
+        generator.setVoices(3);
+        generator.setChordDensity(0.3);
+        generator.setTupletDensity(0.3);
+        generator.setRepeatDepth(3);
+        generator.setAccidentalDensity(0.3);
+
+        for (int i=1;i<=20;i++) {
+            String tune = generator.generateTune(i);
+            Lexer lexer = new Lexer(tune);
+            ScanningLexer scanner = new ScanningLexer(tune);
+            assertEquals(lexer.lexBody(), scanner.lexBody());
+
+            Song song = parse(tune);
+            assertEquals(3, song.getVoices().size());
+
+            DurationVisitor durationV = new DurationVisitor();
+            durationV.visit(song);
+            int ticksPerQuarter = durationV.getTicksPerQuarter(song.getDefaultNoteLength());
+            int ticks = -1;
+            for (Voice voice : song.getVoices()) {
+                PlayerVisitor visitor = new PlayerVisitor(ticksPerQuarter, song.getTempo(), song.getDefaultNoteLength());
+                voice.accept(visitor);
+                if (ticks >= 0) {
+                    assertEquals("tune " + i + " voice " + voice.getName(), ticks, visitor.getCurrentTick());
+                }
+                ticks = visitor.getCurrentTick();
+            }
+            // at least the 40 bars of 4/4, plus the repeats
+            assertTrue(ticks >= 40*4*ticksPerQuarter);
+        }
+    }
+
+    /**
+     * Tests the densities
+     */
+    @Test
+    public void densityTest() {
+        AbcGenerator plain = new AbcGenerator(1);
+        plain.setChordDensity(0);
+        plain.setTupletDensity(0);
+        plain.setRepeatDepth(0);
+        plain.setAccidentalDensity(0);
+        String body = plain.generateTune(1).split("K:.*\n")[1];
+        assertFalse(body.contains("["));
+        assertFalse(body.contains("("));
+        assertFalse(body.contains(":"));
+        assertFalse(body.matches("(?s).*[\\^_=].*"));
+
+        // 32 bars of 4/4 in eighth notes, of single notes and rests
+        RationalNumber length = new RationalNumber(0, 1);
+        for (NoteElement n : parse(plain.generateTune(1)).getVoices().get(0).getNotes()) {
+            assertTrue(n instanceof SingleNote || n instanceof Rest);
+            length = length.add(n.getDuration());
+        }
+        assertEquals(32*8, length.getValue(), 0);
+
+        AbcGenerator dense = new AbcGenerator(1);
+        dense.setChordDensity(1);
+        dense.setTupletDensity(1);
+        dense.setRepeatDepth(2);
+        dense.setAccidentalDensity(1);
+        body = dense.generateTune(1).split("K:.*\n")[1];
+        assertTrue(body.contains("["));
+        assertTrue(body.contains("("));
+        assertTrue(body.contains(":|"));
+        assertTrue(body.matches("(?s).*[\\^_=].*"));
+
+        boolean repeats = false;
+        for (NoteElement n : parse(dense.generateTune(1)).getVoices().get(0).getNotes()) {
+            repeats = repeats || n instanceof Repeat;
+        }
+        assertTrue(repeats);
+    }
+
+    /**
+     * Tests that invalid settings are rejected
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void invalidDensityTest() {
+        new AbcGenerator(1).setChordDensity(1.5);
+    }
+
+    /**
+     * Tests writing a songbook of a given size
+     */
+    @Test
+    public void songbookOfSizeTest() throws IOException {
+        StringBuilder text = new StringBuilder();
+        int tunes = new AbcGenerator(5).writeSongbookOfSize(text, 200000);
+        assertTrue(text.length() >= 200000);
+
+        List<CompiledTune> compiled = new Songbook(ByteBuffer.wrap(text.toString().getBytes(UTF8)), UTF8).compileAll();
+        assertEquals(tunes, compiled.size());
+        for (CompiledTune tune : compiled) {
+            assertTrue(tune.isCompiled());
+        }
+    }
+}
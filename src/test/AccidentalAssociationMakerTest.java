@@ -11,6 +11,8 @@ import org.junit.Test;
  *  - test getting a note with an accidental
  *  - test setting a local accidental
  *  - test revert
+ *  - test the key signatures with 1 to 7 sharps and flats, major and minor, and an unknown key
+ *  - test that makers of the same key do not share their accidentals
  */
 public class AccidentalAssociationMakerTest {
 
@@ -67,4 +69,47 @@ public class AccidentalAssociationMakerTest {
         assertEquals(new AccidentalAssociationMaker("Ab"), associator);
     }
 
+    /**
+     * Tests the accidentals of key signatures with sharps and flats
+     */
+    @Test
+    public void keySignaturesTest() {
+        String letters = "ABCDEFG";
+        String[] keys = {"C", "Am", "G", "C#m", "C#", "F", "Bbm", "Cb", "H"};
+        int[][] expected = {
+                // A  B  C  D  E  F  G
+                { 0, 0, 0, 0, 0, 0, 0},
+                { 0, 0, 0, 0, 0, 0, 0},
+                { 0, 0, 0, 0, 0, 1, 0},
+                { 0, 0, 1, 1, 0, 1, 1},
+                { 1, 1, 1, 1, 1, 1, 1},
+                { 0,-1, 0, 0, 0, 0, 0},
+                {-1,-1, 0,-1,-1, 0,-1},
+                {-1,-1,-1,-1,-1,-1,-1},
+                { 0, 0, 0, 0, 0, 0, 0},
+        };
+        for (int k = 0; k < keys.length; k++) {
+            AccidentalAssociationMaker associator = new AccidentalAssociationMaker(keys[k]);
+            for (int i = 0; i < letters.length(); i++) {
+                assertEquals(keys[k] + " " + letters.charAt(i), expected[k][i], associator.getAccidental(letters.charAt(i)));
+            }
+        }
+    }
+
+    /**
+     * Tests that a local accidental in one voice does not change another voice in the same key
+     */
+    @Test
+    public void independentTest() {
+        AccidentalAssociationMaker first = new AccidentalAssociationMaker("D");
+        AccidentalAssociationMaker second = new AccidentalAssociationMaker("D");
+        first.setAccidental('F', 0);
+        assertEquals(1, second.getAccidental('F'));
+        assertEquals(1, new AccidentalAssociationMaker("D").getAccidental('F'));
+        assertFalse(first.equals(second));
+
+        first.revert();
+        assertEquals(second, first);
+        assertEquals(second.hashCode(), first.hashCode());
+    }
 }
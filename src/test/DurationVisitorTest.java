@@ -1,6 +1,7 @@
 package test;
 
 import static org.junit.Assert.*;
+import java.util.Arrays;
 import org.junit.Test;
 import ast.*;
 import player.RationalNumber;
@@ -12,6 +13,7 @@ import player.DurationVisitor;
  *  - test visiting an empty song
  *  - test visiting a simple one-voice song
  *  - test visiting a song with multiple voices
+ *  - test the ticks per quarter note just below and above the 32767 of a MIDI file
  */
 public class DurationVisitorTest {
 
@@ -82,5 +84,19 @@ public class DurationVisitorTest {
         visitor.visit(s);
         assertEquals(12880, visitor.getTicksPerQuarter());
     }
-    
+
+    /**
+     * Tests that note lengths too fine for a MIDI resolution are rejected
+     */
+    @Test
+    public void resolutionLimitTest() {
+        // triplets to 13-tuplets need 15015 ticks per default note length
+        assertEquals(30030, DurationVisitor.getTicksPerQuarter(Arrays.asList(3, 5, 7, 11, 13), new RationalNumber(1, 8)));
+        try {
+            DurationVisitor.getTicksPerQuarter(Arrays.asList(3, 5, 7, 11, 13), new RationalNumber(1, 16));
+            fail("expected 60060 ticks per quarter note to be rejected");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("too fine"));
+        }
+    }
 }
@@ -0,0 +1,212 @@
+package test;
+
+import static org.junit.Assert.*;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import org.junit.Test;
+import sound.EventTimeline;
+
+/**
+ * Tests the EventTimeline
+ * Testing Strategy:
+ *  - every field of an event comes back unpacked as it was added
+ *  - after sort, events are in order of tick and track, with note offs before note ons at a tick
+ *  - the Sequence has one Track per track, the tempo first, and the events of each track in order
+ *  - the timeline grows past its first array; notes of 0 ticks are left out; invalid notes throw
+ *  - adding the notes of a track in one go gives the same events as adding them one by one
+ *  - a slice keeps the notes that start in its range, moved to tick 0, cut off at its end,
+ *    and leaves out the notes that started before it; it and its Sequence last until the end of the range
+ */
+public class EventTimelineTest {
+
+    /**
+     * Tests packing and unpacking an event
+     */
+    @Test
+    public void packTest() {
+        EventTimeline timeline = new EventTimeline(120, 12);
+        timeline.newTrack();
+        timeline.newTrack();
+        timeline.addNote(127, 1000000, 7, 15, 100);
+        timeline.sort();
+
+        assertEquals(2, timeline.size());
+        assertEquals(3, timeline.getTrackCount());
+        assertTrue(timeline.isNoteOn(0));
+        assertFalse(timeline.isNoteOn(1));
+        for (int i = 0; i < 2; i++) {
+            assertEquals(2, timeline.getTrack(i));
+            assertEquals(127, timeline.getPitch(i));
+            assertEquals(15, timeline.getChannel(i));
+            assertEquals(100, timeline.getVelocity(i));
+        }
+        assertEquals(1000000, timeline.getTick(0));
+        assertEquals(1000007, timeline.getTick(1));
+        assertEquals(1000007, timeline.getTickLength());
+    }
+
+    /**
+     * Tests the order of the events after sort
+     */
+    @Test
+    public void sortTest() {
+        EventTimeline timeline = new EventTimeline(120, 4);
+        timeline.addNote(60, 0, 4, 0, 100);     // C ends at 4
+        timeline.addNote(64, 0, 8, 0, 100);     // chord with E
+        timeline.addNote(60, 4, 4, 0, 100);     // C again at 4
+        timeline.newTrack();
+        timeline.addNote(48, 2, 2, 0, 100);
+        timeline.sort();
+
+        int[] ticks = {0, 0, 2, 4, 4, 4, 8, 8};
+        int[] tracks = {0, 0, 1, 0, 0, 1, 0, 0};
+        boolean[] on = {true, true, true, false, true, false, false, false};
+        for (int i = 0; i < timeline.size(); i++) {
+            assertEquals("tick of " + i, ticks[i], timeline.getTick(i));
+            assertEquals("track of " + i, tracks[i], timeline.getTrack(i));
+            assertEquals("on of " + i, on[i], timeline.isNoteOn(i));
+        }
+        // the C ending at 4 is before the C starting at 4
+        assertEquals(60, timeline.getPitch(3));
+        assertEquals(60, timeline.getPitch(4));
+    }
+
+    /**
+     * Tests building the Sequence
+     */
+    @Test
+    public void toSequenceTest() {
+        EventTimeline timeline = new EventTimeline(120, 4);
+        timeline.addNote(62, 4, 4, 0, 100);
+        timeline.addNote(60, 0, 4, 0, 100);
+        timeline.newTrack();
+        timeline.addNote(48, 0, 8, 0, 90);
+
+        Sequence sequence = timeline.toSequence();
+        assertEquals(4, sequence.getResolution());
+        Track[] tracks = sequence.getTracks();
+        assertEquals(2, tracks.length);
+
+        // tempo, C on, C off, D on, D off, end of track
+        assertEquals(6, tracks[0].size());
+        assertTrue(tracks[0].get(0).getMessage() instanceof MetaMessage);
+        int[] pitches = {60, 60, 62, 62};
+        int[] commands = {ShortMessage.NOTE_ON, ShortMessage.NOTE_OFF, ShortMessage.NOTE_ON, ShortMessage.NOTE_OFF};
+        long lastTick = 0;
+        for (int i = 0; i < 4; i++) {
+            MidiEvent e = tracks[0].get(i + 1);
+            ShortMessage m = (ShortMessage) e.getMessage();
+            assertEquals(pitches[i], m.getData1());
+            assertEquals(commands[i], m.getCommand());
+            assertTrue(e.getTick() >= lastTick);
+            lastTick = e.getTick();
+        }
+
+        assertEquals(3, tracks[1].size());
+        assertEquals(90, ((ShortMessage) tracks[1].get(0).getMessage()).getData2());
+        assertEquals(8, sequence.getTickLength());
+    }
+
+    /**
+     * Tests a timeline of many notes, and notes of 0 ticks
+     */
+    @Test
+    public void growTest() {
+        EventTimeline timeline = new EventTimeline(120, 4);
+        for (int i = 0; i < 10000; i++) {
+            timeline.addNote(60 + i % 12, 10000 - i, 1 + i % 3, 0, 100);
+            timeline.addNote(60, i, 0, 0, 100);
+        }
+        assertEquals(20000, timeline.size());
+        timeline.sort();
+        for (int i = 1; i < timeline.size(); i++) {
+            assertTrue(timeline.getTick(i - 1) <= timeline.getTick(i));
+        }
+    }
+
+    /**
+     * Tests adding whole tracks of notes, in order and out of order, against adding them one by one
+     */
+    @Test
+    public void addNotesTest() {
+        int[][] notes = { {60, 62, 64, 65}, {48, 55, 52} };
+        int[][] startTicks = { {0, 2, 4, 6}, {6, 0, 3} };
+        int[][] numTicks = { {2, 2, 2, 0}, {2, 3, 3} };
+
+        EventTimeline one = new EventTimeline(120, 4);
+        EventTimeline batch = new EventTimeline(120, 4);
+        for (int t = 0; t < notes.length; t++) {
+            if (t > 0) {
+                one.newTrack();
+                batch.newTrack();
+            }
+            for (int i = 0; i < notes[t].length; i++) {
+                one.addNote(notes[t][i], startTicks[t][i], numTicks[t][i], 0, 100);
+            }
+            batch.addNotes(notes[t], startTicks[t], numTicks[t], 0, 100);
+        }
+        one.sort();
+        batch.sort();
+
+        assertEquals(12, batch.size());
+        assertEquals(one.size(), batch.size());
+        for (int i = 0; i < one.size(); i++) {
+            assertEquals(one.getTick(i), batch.getTick(i));
+            assertEquals(one.getTrack(i), batch.getTrack(i));
+            assertEquals(one.isNoteOn(i), batch.isNoteOn(i));
+            assertEquals(one.getPitch(i), batch.getPitch(i));
+        }
+    }
+
+    /**
+     * Tests slicing a range of ticks out of a timeline
+     */
+    @Test
+    public void sliceTest() {
+        EventTimeline timeline = new EventTimeline(120, 4);
+        timeline.addNote(60, 0, 8, 0, 100);     // sounds into the range, left out
+        timeline.addNote(62, 8, 4, 0, 100);
+        timeline.addNote(60, 10, 2, 0, 100);    // same pitch as the one left out
+        timeline.newTrack();
+        timeline.addNote(48, 12, 8, 1, 100);    // runs past the end, cut off at 16
+        timeline.addNote(50, 16, 4, 1, 100);    // starts at the end, left out
+
+        EventTimeline slice = timeline.slice(6, 16);
+        assertEquals(2, slice.getTrackCount());
+        assertEquals(120, slice.getBeatsPerMinute());
+        assertEquals(4, slice.getTicksPerQuarterNote());
+        slice.sort();
+        int[][] expected = { {2, 62, 1}, {4, 60, 1}, {6, 60, 0}, {6, 62, 0}, {6, 48, 1}, {10, 48, 0} };
+        assertEquals(expected.length, slice.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("tick of " + i, expected[i][0], slice.getTick(i));
+            assertEquals("pitch of " + i, expected[i][1], slice.getPitch(i));
+            assertEquals("on of " + i, expected[i][2] == 1, slice.isNoteOn(i));
+        }
+        assertEquals(10, slice.getTickLength());
+        assertEquals(0, timeline.slice(20, 40).size());
+        assertEquals(20, timeline.slice(20, 40).getTickLength());
+        assertEquals(20, timeline.slice(20, 40).toSequence().getTickLength());
+        assertEquals(10, slice.toSequence().getTickLength());
+        assertEquals(timeline.size() - 2, timeline.slice(0, 16).size());
+    }
+
+    /**
+     * Tests that the arrays of a track must be of the same length
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void addNotesLengthTest() {
+        new EventTimeline(120, 4).addNotes(new int[] {60, 62}, new int[] {0, 1}, new int[] {1}, 0, 100);
+    }
+
+    /**
+     * Tests that a pitch out of the MIDI range is rejected
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void invalidPitchTest() {
+        new EventTimeline(120, 4).addNote(128, 0, 1, 0, 100);
+    }
+}
@@ -0,0 +1,90 @@
+package test;
+
+import static org.junit.Assert.*;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+import events.TrackBuiltEvent;
+import events.TuneLexedEvent;
+import events.TuneParsedEvent;
+import events.VoiceRenderedEvent;
+import player.CompilationMetrics;
+import player.CompiledTune;
+
+/**
+ * Tests the Java Flight Recorder events of compiling and rendering a tune
+ * Testing Strategy:
+ *  - a recording gets one lexed and one parsed event per tune, one rendered event per voice
+ *    and one track built event, all with the title and index of the tune and their counts
+ */
+public class FlightRecorderTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String TUNE = "X:7\nT:Recorded\nV:1\nV:2\nK:C\nV:1\nA B c d |\nV:2\nC4 |\n";
+
+    /**
+     * Tests the events of compiling and rendering a two voice tune
+     */
+    @Test
+    public void eventsTest() throws Exception {
+        Recording recording = new Recording();
+        recording.enable(TuneLexedEvent.class);
+        recording.enable(TuneParsedEvent.class);
+        recording.enable(VoiceRenderedEvent.class);
+        recording.enable(TrackBuiltEvent.class);
+        recording.start();
+
+        CompiledTune tune = CompiledTune.compile(0, ByteBuffer.wrap(TUNE.getBytes(UTF8)), UTF8);
+        tune.render(CompilationMetrics.NONE);
+
+        recording.stop();
+        File file = File.createTempFile("abcplayer", ".jfr");
+        file.deleteOnExit();
+        recording.dump(file.toPath());
+        recording.close();
+
+        List<RecordedEvent> lexed = new ArrayList<RecordedEvent>();
+        List<RecordedEvent> parsed = new ArrayList<RecordedEvent>();
+        List<RecordedEvent> rendered = new ArrayList<RecordedEvent>();
+        List<RecordedEvent> built = new ArrayList<RecordedEvent>();
+        for (RecordedEvent e : RecordingFile.readAllEvents(file.toPath())) {
+            String name = e.getEventType().getName();
+            if (name.equals("abcplayer.TuneLexed")) {
+                lexed.add(e);
+            } else if (name.equals("abcplayer.TuneParsed")) {
+                parsed.add(e);
+            } else if (name.equals("abcplayer.VoiceRendered")) {
+                rendered.add(e);
+            } else if (name.equals("abcplayer.TrackBuilt")) {
+                built.add(e);
+            }
+        }
+
+        assertEquals(1, lexed.size());
+        assertEquals("Recorded", lexed.get(0).getString("title"));
+        assertEquals(7, lexed.get(0).getInt("index"));
+        assertEquals(5, lexed.get(0).getInt("headTokens"));
+        // V:1 A B c d | V:2 C4 |
+        assertEquals(9, lexed.get(0).getInt("bodyTokens"));
+
+        assertEquals(1, parsed.size());
+        assertEquals("Recorded", parsed.get(0).getString("title"));
+        assertEquals(2, parsed.get(0).getInt("voices"));
+        assertEquals(5, parsed.get(0).getInt("notes"));
+
+        assertEquals(2, rendered.size());
+        assertEquals(rendered.get(0).getLong("ticks"), rendered.get(1).getLong("ticks"));
+        // four eighth notes last two quarter notes
+        assertEquals(2 * tune.getTicksPerQuarter(), rendered.get(0).getLong("ticks"));
+
+        assertEquals(1, built.size());
+        assertEquals(7, built.get(0).getInt("index"));
+        assertEquals(2, built.get(0).getInt("tracks"));
+        assertEquals(tune.getTicksPerQuarter(), built.get(0).getInt("ticksPerQuarter"));
+    }
+}
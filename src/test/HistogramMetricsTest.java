@@ -0,0 +1,94 @@
+package test;
+
+import static org.junit.Assert.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import org.junit.Test;
+import player.AbcGenerator;
+import player.CompilationMetrics.Phase;
+import player.CompiledTune;
+import player.HistogramMetrics;
+import player.Songbook;
+
+/**
+ * Tests the CompilationMetrics reported while compiling, and the HistogramMetrics
+ * Testing Strategy:
+ *  - percentiles and totals of runs reported by hand
+ *  - every phase of a compiled and rendered tune is reported once, with its item counts
+ *  - a songbook compiled in parallel reports every phase once per tune
+ *  - the export has a histogram per phase, with cumulative buckets
+ */
+public class HistogramMetricsTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String TUNE = "X:1\nT:Metrics\nK:C\nA B [CE] (3cde |\n";
+
+    /**
+     * Tests the totals and percentiles of runs reported by hand
+     */
+    @Test
+    public void percentileTest() {
+        HistogramMetrics metrics = new HistogramMetrics();
+        for (int i = 1; i <= 100; i++) {
+            metrics.phaseCompleted(Phase.PARSE, i * 1000, i, 10);
+        }
+        assertEquals(100, metrics.getCount(Phase.PARSE));
+        assertEquals(5050 * 1000, metrics.getTotalNanos(Phase.PARSE));
+        assertEquals(5050, metrics.getTotalItems(Phase.PARSE));
+        assertEquals(1000, metrics.getTotalAllocatedBytes(Phase.PARSE));
+
+        // the median is 50000 ns, in the bucket up to 2^16
+        assertEquals(1L << 16, metrics.getPercentileNanos(Phase.PARSE, 50));
+        assertEquals(1L << 17, metrics.getPercentileNanos(Phase.PARSE, 100));
+        assertEquals(1L << 10, metrics.getPercentileNanos(Phase.PARSE, 1));
+        assertEquals(0, metrics.getPercentileNanos(Phase.RENDER, 50));
+    }
+
+    /**
+     * Tests the phases reported for one tune
+     */
+    @Test
+    public void compileTest() {
+        HistogramMetrics metrics = new HistogramMetrics();
+        CompiledTune tune = CompiledTune.compile(0, ByteBuffer.wrap(TUNE.getBytes(UTF8)), UTF8, metrics);
+        tune.render(metrics);
+
+        for (Phase phase : Phase.values()) {
+            assertEquals(phase.name(), 1, metrics.getCount(phase));
+            assertTrue(phase.name(), metrics.getTotalNanos(phase) > 0);
+        }
+        assertEquals(3, metrics.getTotalItems(Phase.LEX_HEAD));
+        // A B [ C E ] (3 c d e |
+        assertEquals(11, metrics.getTotalItems(Phase.LEX_BODY));
+        assertEquals(4, metrics.getTotalItems(Phase.PARSE));
+        assertEquals(4, metrics.getTotalItems(Phase.DURATION));
+        // 7 notes on and off, the tempo and the end of track
+        assertEquals(16, metrics.getTotalItems(Phase.RENDER));
+    }
+
+    /**
+     * Tests the phases reported for a songbook
+     */
+    @Test
+    public void songbookTest() throws Exception {
+        StringBuilder text = new StringBuilder();
+        new AbcGenerator(3).writeSongbook(text, 20);
+        Songbook book = new Songbook(ByteBuffer.wrap(text.toString().getBytes(UTF8)), UTF8);
+        HistogramMetrics metrics = new HistogramMetrics();
+        book.setMetrics(metrics);
+
+        List<CompiledTune> tunes = book.compileAll();
+        assertEquals(20, metrics.getCount(Phase.LEX_HEAD));
+        assertEquals(20, metrics.getCount(Phase.LEX_BODY));
+        assertEquals(20, metrics.getCount(Phase.PARSE));
+        assertEquals(20, metrics.getCount(Phase.DURATION));
+        assertEquals(0, metrics.getCount(Phase.RENDER));
+        assertTrue(tunes.get(0).isCompiled());
+
+        String export = metrics.export();
+        assertTrue(export.contains("abcplayer_phase_seconds_count{phase=\"parse\"} 20\n"));
+        assertTrue(export.contains("abcplayer_phase_seconds_bucket{phase=\"parse\",le=\"+Inf\"} 20\n"));
+        assertTrue(export.contains("abcplayer_phase_seconds_count{phase=\"render\"} 0\n"));
+        assertTrue(export.contains("abcplayer_phase_items_total{phase=\"lex_body\"} " + metrics.getTotalItems(Phase.LEX_BODY) + "\n"));
+    }
+}
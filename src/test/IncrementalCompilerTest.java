@@ -0,0 +1,315 @@
+package test;
+
+import static org.junit.Assert.*;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import ast.*;
+import player.AbcGenerator;
+import player.DurationVisitor;
+import player.IncrementalCompiler;
+import player.Parser;
+import player.ParserException;
+import player.ScanningLexer;
+
+/**
+ * Tests the IncrementalCompiler
+ * Testing Strategy:
+ *  - after every edit, the Song, its bar lines and ticks per quarter note are the ones a full compile of
+ *    the text gives, and the text fails to compile exactly when a full compile fails
+ *  - edits of notes, bar lines, repeats, endings, voice fields and comments, and random edits of generated tunes
+ *  - an edit of one note of a long tune lexes and parses a few bars, not the whole tune
+ *  - an edit of the header compiles the whole tune again
+ *  - an edit that breaks the tune throws, and a later edit can fix it
+ *  - a tune without voice fields gets its voice with its first note and loses it with its last
+ */
+public class IncrementalCompilerTest {
+    private static final String TUNE = "X:1\nT:Edited\nM:4/4\nL:1/8\nQ:120\nV:1\nV:2\nK:G\n"
+            + "V:1\n|: G A B c | d2 ^c2 d4 :| [1 e4 e4 | [2 f4 f4 || (3GAB [GBd]2 z4 |\n"
+            + "V:2\n|: G,4 D4 | G,8 :| [1 C8 | [2 D8 || G,2 G,2 G,4 |\n"
+            + "V:1\n|: g8 | f/e/d/c/ B4 :| g8 |]\n"
+            + "V:2\n|: G8 | D8 :| G,8 |]\n";
+
+    /**
+     * Compiles a text in full, the way a tune is compiled without an IncrementalCompiler
+     * @param text the tune
+     * @return the Song, null if the text does not compile
+     */
+    private static Song compile(String text) {
+        try {
+            ScanningLexer lexer = new ScanningLexer(text);
+            Parser parser = new Parser();
+            parser.parse(lexer.lexHead(), lexer.lexBodyBuffer());
+            return parser.getSong();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks that an IncrementalCompiler holds what a full compile of its text gives
+     * @param compiler the compiler
+     */
+    private static void assertCompiled(IncrementalCompiler compiler) {
+        Song expected = compile(compiler.getText());
+        if (expected == null) {
+            assertFalse("expected an error for " + compiler.getText(), compiler.isCompiled());
+            return;
+        }
+        assertTrue("unexpected " + compiler.getError() + " for " + compiler.getText(), compiler.isCompiled());
+        assertEquals(compiler.getText(), expected, compiler.getSong());
+        for (Voice v : expected.getVoices()) {
+            for (Voice w : compiler.getSong().getVoices()) {
+                if (v.getName() == null ? w.getName() == null : v.getName().equals(w.getName())) {
+                    assertBarLines(compiler.getText(), v.getNotes(), v.getBarLines(), w.getNotes(), w.getBarLines());
+                }
+            }
+        }
+
+        DurationVisitor durationV = new DurationVisitor();
+        durationV.visit(expected);
+        assertEquals(durationV.getTicksPerQuarter(expected.getDefaultNoteLength()), compiler.getTicksPerQuarter());
+    }
+
+    /**
+     * Checks that equal notes have the same bar lines, including the bar lines in their Repeats
+     * @param text the tune
+     * @param expected the notes of the full compile
+     * @param expectedBarLines the bar lines of the full compile
+     * @param actual the notes of the IncrementalCompiler, equal to expected
+     * @param actualBarLines the bar lines of the IncrementalCompiler
+     */
+    private static void assertBarLines(String text, List<NoteElement> expected, List<Integer> expectedBarLines,
+            List<NoteElement> actual, List<Integer> actualBarLines) {
+        assertEquals(text, expectedBarLines, actualBarLines);
+        for (int i = 0; i < expected.size(); i++) {
+            if (expected.get(i) instanceof Repeat) {
+                Repeat e = (Repeat) expected.get(i), a = (Repeat) actual.get(i);
+                assertBarLines(text, e.getNotes(), e.getBarLines(), a.getNotes(), a.getBarLines());
+            }
+        }
+    }
+
+    /**
+     * Replaces the first occurrence of a string after an index, and checks the result
+     * @param compiler the compiler
+     * @param from the index to search from
+     * @param target the text to replace
+     * @param replacement the text to put in its place
+     */
+    private static void replace(IncrementalCompiler compiler, int from, String target, String replacement) {
+        int start = compiler.getText().indexOf(target, from);
+        assertTrue(target + " not found", start >= 0);
+        try {
+            compiler.edit(start, start + target.length(), replacement);
+        } catch (RuntimeException e) {
+            // checked against the full compile below
+        }
+        assertCompiled(compiler);
+    }
+
+    /**
+     * Gets the index of the body of a tune
+     * @param text the tune
+     * @return the index after the K: line
+     */
+    private static int bodyStart(String text) {
+        return text.indexOf('\n', text.indexOf("K:")) + 1;
+    }
+
+    /**
+     * Tests that a tune compiles the same as in full
+     */
+    @Test
+    public void compileTest() {
+        IncrementalCompiler compiler = new IncrementalCompiler(TUNE);
+        assertCompiled(compiler);
+        assertEquals(TUNE, compiler.getText());
+        assertEquals(2, compiler.getSong().getVoices().size());
+    }
+
+    /**
+     * Tests edits of notes and chords, which keep the Song object
+     */
+    @Test
+    public void noteEditTest() {
+        IncrementalCompiler compiler = new IncrementalCompiler(TUNE);
+        Song song = compiler.getSong();
+        int body = bodyStart(TUNE);
+        replace(compiler, body, "B c", "_B c");
+        replace(compiler, body, "d4 :|", "d3/2 ^d/ :|");                // the accidental lasts to the bar line
+        replace(compiler, body, "[GBd]2", "[GB^d]2 ^d");
+        replace(compiler, body, "f/e/d/c/", "f/e/d/c/4");                // a new denominator
+        replace(compiler, body, "c/4", "c/");                             // and gone again
+        replace(compiler, body, "G,8 :|", "");
+        assertSame(song, compiler.getSong());
+    }
+
+    /**
+     * Tests edits of bar lines, repeats and endings, which move the bounds of bars and sections
+     */
+    @Test
+    public void barEditTest() {
+        IncrementalCompiler compiler = new IncrementalCompiler(TUNE);
+        int body = bodyStart(TUNE);
+        replace(compiler, body, "B c |", "B c ||");                       // the |: has no :| left
+        replace(compiler, body, "B c ||", "B c :|");
+        replace(compiler, body, "d2 ^c2 d4 :|", "d2 ^c2 d4 |");           // two :| repeat from the same |:
+        replace(compiler, body, "[1 e4 e4 |", "[1 e4 e4");                // the first ending runs to [2
+        replace(compiler, body, "|: G,4", "G,4");
+        replace(compiler, body, "|: g8", "|: g8 :| a8 |:");
+        replace(compiler, body, "a8 |:", "a8 ||");
+        replace(compiler, body, "||", "|");
+        replace(compiler, body, "(3GAB", "(3G|AB");                       // a tuplet across a bar line
+        replace(compiler, body, "(3G|AB", "(3GAB");
+    }
+
+    /**
+     * Tests edits of voice fields, which move chunks from one voice to another
+     */
+    @Test
+    public void voiceEditTest() {
+        IncrementalCompiler compiler = new IncrementalCompiler(TUNE);
+        int body = bodyStart(TUNE);
+        replace(compiler, body, "V:2\n|: G,4", "V:1\n|: G,4");            // voice 1 gets two more sections
+        replace(compiler, body, "V:1\n|: G,4", "V:2\n|: G,4");
+        replace(compiler, body, "[2 f4 f4 ||", "[2 f4 f4 ||\nV:2\nA8 |\nV:1\n");
+        replace(compiler, body, "G,4 |\nV:1\n|: g8", "G,4\nV:2\ng8");     // the last bar of voice 2 goes on
+        replace(compiler, body, "G,4\nV:2\ng8", "G,4 |\nV:1\n|: g8");
+        replace(compiler, body, "V:2\nA8", "V:3\nA8");                    // an undeclared voice
+        replace(compiler, body, "V:3\nA8 |\n", "V:3\n");                  // is fine with no notes
+        replace(compiler, body, "V:1\n|: G A", "|: G A");                 // the body must start with a voice
+        replace(compiler, body, "|: G A", "V:2\n|: G A");
+    }
+
+    /**
+     * Tests adding and removing comments, which blank out the rest of a line
+     */
+    @Test
+    public void commentTest() {
+        IncrementalCompiler compiler = new IncrementalCompiler(TUNE);
+        int body = bodyStart(TUNE);
+        replace(compiler, body, "(3GAB", "%(3GAB");
+        replace(compiler, body, "%(3GAB", "(3GAB");
+        replace(compiler, body, "V:1\n|: g8", "V:1 % the last section\n|: g8");
+        replace(compiler, body, "V:2\n|: G8 | D8", "V:2\n|: G8 | D8 % :|\n");
+    }
+
+    /**
+     * Tests that an edit of the header compiles the whole tune again
+     */
+    @Test
+    public void headerEditTest() {
+        IncrementalCompiler compiler = new IncrementalCompiler(TUNE);
+        replace(compiler, 0, "K:G", "K:F");                                // every B and F changes
+        assertEquals("F", compiler.getSong().getKeySignature());
+        assertTrue(compiler.getRelexedLength() >= TUNE.length() - bodyStart(TUNE));
+        replace(compiler, 0, "L:1/8", "L:1/4");
+        replace(compiler, 0, "V:2\nK", "K");                               // voice 2 is no longer declared
+        replace(compiler, 0, "K:", "V:2\nK:");
+    }
+
+    /**
+     * Tests that an edit that breaks the tune throws, and that fixing it compiles it again
+     */
+    @Test
+    public void errorTest() {
+        IncrementalCompiler compiler = new IncrementalCompiler(TUNE);
+        int start = TUNE.indexOf("|: g8");
+        try {
+            compiler.edit(start, start + 5, "|: g8 |: a8");
+            fail("expected a ParserException");
+        } catch (ParserException e) {
+            assertFalse(compiler.isCompiled());
+            assertSame(e, compiler.getError());
+        }
+        compiler.edit(start + 6, start + 8, ":|");
+        assertCompiled(compiler);
+        assertTrue(compiler.isCompiled());
+
+        try {
+            compiler.edit(0, compiler.getText().indexOf("K:") + 2, "X:1\nT:No key\n");
+            fail("expected the tune to have no key signature");
+        } catch (RuntimeException e) {
+            assertNull(compiler.getSong());
+        }
+        compiler.edit(0, compiler.getText().indexOf("\n|:"), TUNE.substring(0, TUNE.indexOf("\n|:")));
+        assertCompiled(compiler);
+    }
+
+    /**
+     * Tests a tune without voice fields, whose voice only exists while it has notes
+     */
+    @Test
+    public void anonymousVoiceTest() {
+        String tune = "X:2\nT:No voices\nK:C\n| z4 |\n";
+        IncrementalCompiler compiler = new IncrementalCompiler(tune);
+        assertCompiled(compiler);
+        replace(compiler, bodyStart(tune), "z4", "");
+        assertTrue(compiler.getSong().getVoices().isEmpty());
+        replace(compiler, bodyStart(tune), "| ", "| C D E F ");
+        assertEquals(1, compiler.getSong().getVoices().size());
+        replace(compiler, bodyStart(tune), "E F", "E F\nV:1\n");            // no voice is declared
+    }
+
+    /**
+     * Tests that an edit of one note of a long tune only lexes and parses the bars around it
+     */
+    @Test
+    public void proportionalTest() {
+        AbcGenerator generator = new AbcGenerator(5);
+        generator.setBars(2000);
+        generator.setVoices(2);
+        String tune = generator.generateTune(1);
+        IncrementalCompiler compiler = new IncrementalCompiler(tune);
+        assertCompiled(compiler);
+        int tokens = compiler.getReparsedTokens();
+
+        int middle = tune.length() / 2;
+        int note = middle;
+        while (!Character.isLetter(tune.charAt(note)) || tune.charAt(note - 1) == 'V' || tune.charAt(note + 1) == ':') {
+            note++;
+        }
+        compiler.edit(note, note + 1, "^" + tune.charAt(note));
+        assertCompiled(compiler);
+        assertTrue("lexed " + compiler.getRelexedLength() + " characters", compiler.getRelexedLength() < 200);
+        assertTrue("parsed " + compiler.getReparsedTokens() + " of " + tokens + " tokens",
+                compiler.getReparsedTokens() < 50);
+    }
+
+    /**
+     * Tests random edits of generated tunes against full compiles
+     */
+    @Test
+    public void randomEditTest() {
+        String[] snippets = { "C", "^f", "_B,", "=e'", "z", "2", "/", "3/2", " ", "|", "||", "|]", "|:", ":|",
+                "[1", "[2", "[CEG]", "[", "]", "(3", "(2", "\n", "\nV:1\n", "\nV:2\n", "V:" };
+        Random random = new Random(24);
+        AbcGenerator generator = new AbcGenerator(7);
+        generator.setBars(12);
+        generator.setRepeatDepth(2);
+        for (int t=1;t<=8;t++) {
+            generator.setVoices(1 + t % 2);
+            IncrementalCompiler compiler = new IncrementalCompiler(generator.generateTune(t));
+            assertCompiled(compiler);
+            for (int i=0;i<150;i++) {
+                String text = compiler.getText();
+                int body = bodyStart(text);
+                int start = body + random.nextInt(text.length() - body + 1);
+                int end = Math.min(text.length(), start + (random.nextBoolean() ? 0 : 1 + random.nextInt(4)));
+                String replacement = random.nextInt(4) == 0 ? "" : snippets[random.nextInt(snippets.length)];
+                if (random.nextInt(20) == 0) {
+                    // a comment, at the end of a line
+                    start = end = text.indexOf('\n', start) < 0 ? text.length() : text.indexOf('\n', start);
+                    replacement = " % :| [1 V:3";
+                }
+                try {
+                    compiler.edit(start, end, replacement);
+                } catch (RuntimeException e) {
+                    // checked against the full compile below
+                }
+                assertCompiled(compiler);
+            }
+        }
+    }
+}
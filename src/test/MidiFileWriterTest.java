@@ -0,0 +1,154 @@
+package test;
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiFileFormat;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import org.junit.Test;
+import ast.Song;
+import player.DurationVisitor;
+import player.Lexer;
+import player.Main;
+import player.Parser;
+import player.PlayerVisitor;
+import sound.MidiFileWriter;
+import sound.SequencePlayer;
+
+/**
+ * Tests writing songs to Standard MIDI Files, without a MIDI device
+ * Testing Strategy:
+ *  - a song with several voices is written as a type 1 file with one track per voice
+ *  - the file holds every note on event of the song
+ *  - a resolution above the 15 bits of a MIDI file is rejected, and the file is not written
+ *  - a directory of abc files converts to one .mid file per tune, skipping a file that cannot be read
+ */
+public class MidiFileWriterTest {
+
+    /**
+     * Counts the note on events of a sequence
+     * @param sequence the sequence
+     * @return the number of NOTE_ON messages in all its tracks
+     */
+    private int countNotes(Sequence sequence) {
+        int count = 0;
+        for (Track track : sequence.getTracks()) {
+            for (int i=0;i<track.size();i++) {
+                if (track.get(i).getMessage() instanceof ShortMessage
+                        && ((ShortMessage) track.get(i).getMessage()).getCommand() == ShortMessage.NOTE_ON) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Tests writing a song with two voices
+     */
+    @Test
+    public void writeTest() throws IOException, InvalidMidiDataException {
+        Lexer lexer = new Lexer(Main.readFile("sample_abc/fur_elise.abc"));
+        Parser parser = new Parser();
+        parser.parse(lexer.lexHead(), lexer.lexBody());
+        Song song = parser.getSong();
+
+        DurationVisitor durationV = new DurationVisitor();
+        durationV.visit(song);
+        PlayerVisitor visitor = new PlayerVisitor(durationV.getTicksPerQuarter(song.getDefaultNoteLength()), song.getTempo(), song.getDefaultNoteLength());
+        visitor.visit(song);
+
+        File file = File.createTempFile("fur_elise", ".mid");
+        file.deleteOnExit();
+        MidiFileWriter.write(visitor.getPlayer(), file);
+
+        MidiFileFormat format = MidiSystem.getMidiFileFormat(file);
+        assertEquals(1, format.getType());
+        Sequence written = MidiSystem.getSequence(file);
+        assertEquals(song.getVoices().size(), written.getTracks().length);
+        assertEquals(countNotes(visitor.getPlayer().getSequence()), countNotes(written));
+        assertTrue(countNotes(written) > 0);
+    }
+
+    /**
+     * Tests that a player with more ticks per quarter note than a MIDI file holds is not written
+     */
+    @Test
+    public void resolutionTest() throws Exception {
+        // e.g. a tune with /3, /5, /7, /11 and /13 note lengths
+        SequencePlayer player = new SequencePlayer(120, 60060);
+        player.addNote(60, 0, 60060);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            MidiFileWriter.write(player, out);
+            fail("expected the resolution to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(0, out.size());
+        }
+
+        player = new SequencePlayer(120, 0x7FFF);
+        player.addNote(60, 0, 0x7FFF);
+        MidiFileWriter.write(player, out);
+        Sequence written = MidiSystem.getSequence(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(0x7FFF, written.getResolution());
+    }
+
+    /**
+     * Tests converting the sample files
+     */
+    @Test
+    public void convertDirectoryTest() throws IOException {
+        File outDir = File.createTempFile("midi", "");
+        outDir.delete();
+
+        int abcFiles = new File("sample_abc").list().length;
+        assertEquals(abcFiles, Main.convertDirectory(new File("sample_abc"), outDir));
+        assertEquals(abcFiles, outDir.list().length);
+        for (File f : outDir.listFiles()) {
+            assertTrue(f.getName().endsWith(".mid"));
+            f.delete();
+        }
+        outDir.delete();
+    }
+
+    /**
+     * Tests that a file that cannot be read is skipped, and the other files are still converted
+     */
+    @Test
+    public void unreadableFileTest() throws IOException {
+        File inDir = File.createTempFile("abc", "");
+        inDir.delete();
+        inDir.mkdirs();
+        File outDir = new File(inDir, "midi");
+        File good = new File(inDir, "scale.abc");
+        FileOutputStream out = new FileOutputStream(good);
+        out.write(Main.readFile("sample_abc/scale.abc").getBytes());
+        out.close();
+        // too big to be memory-mapped, but sparse, so it takes no space
+        File huge = new File(inDir, "huge.abc");
+        RandomAccessFile file = new RandomAccessFile(huge, "rw");
+        file.setLength(3L << 30);
+        file.close();
+
+        try {
+            assertEquals(1, Main.convertDirectory(inDir, outDir));
+            assertArrayEquals(new String[] { "scale.mid" }, outDir.list());
+        } finally {
+            for (File f : outDir.listFiles()) {
+                f.delete();
+            }
+            outDir.delete();
+            good.delete();
+            huge.delete();
+            inDir.delete();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package test;
+
+import static org.junit.Assert.*;
+import javax.sound.midi.ShortMessage;
+import org.junit.Test;
+import sound.BarIndex;
+import sound.EventTimeline;
+import sound.LatencyHistogram;
+import sound.MidiScheduler;
+import sound.RecordingReceiver;
+import sound.SequencePlayer;
+
+/**
+ * Tests the MidiScheduler, against a RecordingReceiver
+ * Testing Strategy:
+ *  - every event is sent once, in timeline order, without a timestamp
+ *  - no event is sent before it is due, and every event's latency is recorded
+ *  - an interrupted playback stops, sends all notes off on every channel and keeps the interrupt
+ *  - playing a range of bars sends only the notes that start in them, and lasts until the end of the last bar
+ *  - the LatencyHistogram percentiles, mean and max, with and without events
+ */
+public class MidiSchedulerTest {
+
+    /**
+     * Tests playing a short timeline of notes and chords
+     */
+    @Test
+    public void playTest() {
+        // 600 beats per minute at 4 ticks per beat, so a tick lasts 25 ms
+        EventTimeline timeline = new EventTimeline(600, 4);
+        for (int i = 0; i < 20; i++) {
+            timeline.addNote(60 + i % 12, i, 1, 0, 100);
+            timeline.addNote(48, i, 2, 1, 80);
+        }
+        MidiScheduler scheduler = new MidiScheduler(timeline);
+        RecordingReceiver receiver = new RecordingReceiver();
+        assertTrue(scheduler.play(receiver));
+
+        assertEquals(80, receiver.size());
+        assertEquals(80, scheduler.getLatency().getCount());
+        for (int i = 0; i < receiver.size(); i++) {
+            ShortMessage msg = (ShortMessage) receiver.getMessage(i);
+            assertEquals(timeline.isNoteOn(i) ? ShortMessage.NOTE_ON : ShortMessage.NOTE_OFF, msg.getCommand());
+            assertEquals(timeline.getChannel(i), msg.getChannel());
+            assertEquals(timeline.getPitch(i), msg.getData1());
+            assertEquals(-1, receiver.getTimestamp(i));
+
+            // sent no earlier than due, relative to the first event at tick 0, which may have been late
+            long sinceFirst = receiver.getArrival(i) - receiver.getArrival(0);
+            long slack = scheduler.getLatency().getMaxNanos() + 1000;
+            assertTrue("event " + i + " was early", sinceFirst >= timeline.toNanos(timeline.getTick(i)) - slack);
+        }
+    }
+
+    /**
+     * Tests playing some bars of a SequencePlayer, with a rest at the end of the last one
+     */
+    @Test
+    public void playRangeTest() throws Exception {
+        // 600 beats per minute at 4 ticks per beat, so a tick lasts 25 ms
+        SequencePlayer player = new SequencePlayer(600, 4);
+        player.addNote(60, 0, 4);
+        player.addNote(62, 4, 2);
+        player.addNote(64, 8, 4);
+        player.setBarIndex(new BarIndex(new int[][] { {0, 4, 8} }));
+        RecordingReceiver receiver = new RecordingReceiver();
+
+        long start = System.nanoTime();
+        player.playTo(receiver, 1, 2);
+        long elapsed = System.nanoTime() - start;
+        assertEquals(2, receiver.size());
+        assertEquals(62, ((ShortMessage) receiver.getMessage(0)).getData1());
+        assertEquals(62, ((ShortMessage) receiver.getMessage(1)).getData1());
+        assertTrue("the rest after the note was cut", elapsed >= player.getTimeline().toNanos(4));
+    }
+
+    /**
+     * Tests that an interrupted playback stops every note
+     */
+    @Test
+    public void interruptTest() {
+        EventTimeline timeline = new EventTimeline(60, 1);
+        timeline.addNote(60, 0, 1, 0, 100);
+        timeline.addNote(62, 10, 1, 0, 100);
+        MidiScheduler scheduler = new MidiScheduler(timeline);
+        RecordingReceiver receiver = new RecordingReceiver();
+
+        Thread.currentThread().interrupt();
+        try {
+            assertFalse(scheduler.play(receiver));
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+        assertEquals(16, receiver.size());
+        for (int i = 0; i < 16; i++) {
+            ShortMessage msg = (ShortMessage) receiver.getMessage(i);
+            assertEquals(ShortMessage.CONTROL_CHANGE, msg.getCommand());
+            assertEquals(i, msg.getChannel());
+            assertEquals(123, msg.getData1());
+        }
+    }
+
+    /**
+     * Tests the LatencyHistogram
+     */
+    @Test
+    public void histogramTest() {
+        LatencyHistogram latency = new LatencyHistogram();
+        assertEquals(0, latency.getPercentileNanos(50));
+        assertEquals(0, latency.getMeanNanos());
+
+        for (int i = 0; i < 98; i++) {
+            latency.record(1000);
+        }
+        latency.record(-5);
+        latency.record(1000000);
+        assertEquals(100, latency.getCount());
+        assertEquals(1024, latency.getPercentileNanos(50));
+        assertEquals(1024, latency.getPercentileNanos(99));
+        assertEquals(1 << 20, latency.getPercentileNanos(100));
+        assertEquals(1000000, latency.getMaxNanos());
+        assertEquals((98 * 1000 + 1000000) / 100, latency.getMeanNanos());
+    }
+}
@@ -16,8 +16,8 @@ import player.*;
  * Testing Strategy:
  *  - test parsing of header
  *  - test parsing of individual tokens into the appropriate NoteElements
- *  - test splitTokensByVoice
- *  - test repeats
+ *  - test splitTokensByVoice, and that voices keep their own accidentals
+ *  - test repeats, which are parsed into Repeat and Ending nodes
  *  - test ParserExceptions
  */
 public class ParserIntegrationTest {
@@ -213,11 +213,14 @@ public class ParserIntegrationTest {
         Parser parser = new Parser();
         parser.parseVoice(lexer.lexBody());
         
+        // the section is parsed once and played twice
         Song expected = new Song();
         SingleNote repeated = new SingleNote('G', new RationalNumber(1, 1), 0, 0);
-        expected.add(repeated);
-        expected.add(repeated);
+        ArrayList<NoteElement> section = new ArrayList<NoteElement>();
+        section.add(repeated);
+        expected.add(new Repeat(section));
         assertEquals(expected, parser.getSong());
+        assertEquals(new RationalNumber(2, 1), parser.getSong().getDuration());
     }
     
     /**
@@ -236,14 +239,41 @@ public class ParserIntegrationTest {
         SingleNote parsedA = new SingleNote('A', new RationalNumber(1, 1), 0, 0);
         SingleNote parsedC = new SingleNote('C', new RationalNumber(1, 1), 0, 0);
 
-        expected.add(parsedA);
-        expected.add(parsedG);
-        expected.add(parsedA);
+        ArrayList<NoteElement> ending = new ArrayList<NoteElement>();
+        ending.add(parsedG);
+        ArrayList<NoteElement> section = new ArrayList<NoteElement>();
+        section.add(parsedA);
+        section.add(new Ending(ending));
+        expected.add(new Repeat(section));
         expected.add(parsedC);
 
         assertEquals(expected, parser.getSong());
+        assertEquals(new RationalNumber(4, 1), parser.getSong().getDuration()); // AGAC
     }
     
+    /**
+     * Test the parsing of a repeat that repeats an earlier repeat
+     */
+    @Test
+    public void parseNestedRepeatsTest() {
+        Lexer lexer = new Lexer(correctHeader + "A:|B:|");
+        // should be played as AABAB, the inner repeat is only played once when the outer one is repeated
+
+        Parser parser = new Parser();
+        parser.parseVoice(lexer.lexBody());
+
+        Song expected = new Song();
+        ArrayList<NoteElement> inner = new ArrayList<NoteElement>();
+        inner.add(new SingleNote('A', new RationalNumber(1, 1), 0, 0));
+        ArrayList<NoteElement> outer = new ArrayList<NoteElement>();
+        outer.add(new Repeat(inner));
+        outer.add(new SingleNote('B', new RationalNumber(1, 1), 0, 0));
+        expected.add(new Repeat(outer));
+
+        assertEquals(expected, parser.getSong());
+        assertEquals(new RationalNumber(5, 1), parser.getSong().getDuration());
+    }
+
     /**
      * Tests the parsing of an expression with unbalanced repeats
      */
@@ -254,6 +284,37 @@ public class ParserIntegrationTest {
         parser.parseVoice(lexer.lexBody());
     }
     
+    /**
+     * Tests that voices, which are parsed concurrently, each keep their own accidentals
+     */
+    @Test
+    public void voiceAccidentalsTest() {
+        Lexer lexer = new Lexer("X:1\nT:Title\nV:1\nV:2\nK:G\nV:1\n=F F ^C C\nV:2\nF C\n");
+
+        Parser parser = new Parser();
+        parser.parse(lexer.lexHead(), lexer.lexBody());
+
+        Voice voice1 = new Voice("1");
+        voice1.addNote(new SingleNote('F', new RationalNumber(1, 1), 0, 0));
+        voice1.addNote(new SingleNote('F', new RationalNumber(1, 1), 0, 0));
+        voice1.addNote(new SingleNote('C', new RationalNumber(1, 1), 0, 1));
+        voice1.addNote(new SingleNote('C', new RationalNumber(1, 1), 0, 1));
+
+        // the accidentals of voice 1 don't carry over into voice 2
+        Voice voice2 = new Voice("2");
+        voice2.addNote(new SingleNote('F', new RationalNumber(1, 1), 0, 1));
+        voice2.addNote(new SingleNote('C', new RationalNumber(1, 1), 0, 0));
+
+        Song expected = new Song();
+        expected.setIndex(1);
+        expected.setTitle("Title");
+        expected.addVoice(voice1);
+        expected.addVoice(voice2);
+        expected.setKeySignature("G");
+
+        assertEquals(expected, parser.getSong());
+    }
+
     /**
      * Tests splitTokensByVoice
      */
@@ -1,5 +1,7 @@
 package test;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.HashMap;
 import org.junit.Test;
@@ -8,6 +10,7 @@ import player.Token;
 import player.ParserException;
 import player.Parser;
 import player.RationalNumber;
+import player.TokenBuffer;
 import ast.*;
 
 /**
@@ -19,6 +22,7 @@ import ast.*;
  *  - test parsing of a song with multiple voices
  *  - test repeats
  *  - test ParserExceptions
+ *  - test the bracket index, and that parse time grows linearly with the number of chords
  */
 public class ParserTest {
     
@@ -414,11 +418,14 @@ public class ParserTest {
         Parser parser = new Parser();
         parser.parseVoice(tokens);
         
+        // the section is parsed once and played twice
         Song expected = new Song();
         SingleNote repeated = new SingleNote('G', new RationalNumber(1, 1), 0, 0);
-        expected.add(repeated);
-        expected.add(repeated);
+        ArrayList<NoteElement> section = new ArrayList<NoteElement>();
+        section.add(repeated);
+        expected.add(new Repeat(section));
         assertEquals(expected, parser.getSong());
+        assertEquals(new RationalNumber(2, 1), parser.getSong().getDuration());
     }
     
     /**
@@ -476,12 +483,16 @@ public class ParserTest {
         SingleNote parsedA = new SingleNote('A', new RationalNumber(1, 1), 0, 0);
         SingleNote parsedC = new SingleNote('C', new RationalNumber(1, 1), 0, 0);
 
-        expected.add(parsedA);
-        expected.add(parsedG);
-        expected.add(parsedA);
+        ArrayList<NoteElement> ending = new ArrayList<NoteElement>();
+        ending.add(parsedG);
+        ArrayList<NoteElement> section = new ArrayList<NoteElement>();
+        section.add(parsedA);
+        section.add(new Ending(ending));
+        expected.add(new Repeat(section));
         expected.add(parsedC);
 
         assertEquals(expected, parser.getSong());
+        assertEquals(new RationalNumber(4, 1), parser.getSong().getDuration()); // AGAC
     }
     
     /**
@@ -717,4 +728,74 @@ public class ParserTest {
         assertEquals(expected, parser.getSong());
     }
     
+    /**
+     * Tests the bracket index of chords and endings
+     */
+    @Test
+    public void matchBracketsTest() {
+        // |: [A B] [1 C :| [2 D || E :|
+        TokenBuffer tokens = new TokenBuffer();
+        tokens.add(Token.Type.REPEAT_START, "|:");
+        tokens.add(Token.Type.CHORD_START, "[");
+        tokens.addNote('A', 0, Integer.MAX_VALUE, 1, 1);
+        tokens.addNote('B', 0, Integer.MAX_VALUE, 1, 1);
+        tokens.add(Token.Type.CHORD_END, "]");
+        tokens.add(Token.Type.REPEAT_NUMBER, "[1");
+        tokens.addNote('C', 0, Integer.MAX_VALUE, 1, 1);
+        tokens.add(Token.Type.REPEAT_END, ":|");
+        tokens.add(Token.Type.REPEAT_NUMBER, "[2");
+        tokens.addNote('D', 0, Integer.MAX_VALUE, 1, 1);
+        tokens.add(Token.Type.DOUBLE_BAR, "||");
+        tokens.addNote('E', 0, Integer.MAX_VALUE, 1, 1);
+        tokens.add(Token.Type.REPEAT_END, ":|");
+
+        int[] expected = {-1, 4, -1, -1, -1, 7, -1, -1, -1, -1, -1, -1, -1};
+        assertArrayEquals(expected, new Parser().matchBrackets(tokens));
+    }
+
+    /**
+     * Times parsing a voice of chords
+     * @param chords the number of chords in the voice
+     * @return the best CPU time out of a few runs, in nanoseconds
+     */
+    private long timeChordVoice(int chords) {
+        TokenBuffer tokens = new TokenBuffer();
+        for (int i=0;i<chords;i++) {
+            tokens.add(Token.Type.CHORD_START, "[");
+            tokens.addNote('C', 0, Integer.MAX_VALUE, 1, 1);
+            tokens.addNote('E', 0, Integer.MAX_VALUE, 1, 1);
+            tokens.addNote('G', 0, Integer.MAX_VALUE, 1, 1);
+            tokens.add(Token.Type.CHORD_END, "]");
+            if (i % 4 == 3) {
+                tokens.add(Token.Type.BAR, "|");
+            }
+        }
+
+        // count the CPU time of this thread only, so garbage collection of the growing song is left out
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long best = Long.MAX_VALUE;
+        for (int round=0;round<5;round++) {
+            Parser parser = new Parser();
+            long start = threads.getCurrentThreadCpuTime();
+            parser.parseVoice(tokens);
+            best = Math.min(best, threads.getCurrentThreadCpuTime() - start);
+            assertEquals(chords, parser.getSong().getVoices().get(0).getNotes().size());
+        }
+        return best;
+    }
+
+    /**
+     * Tests that parsing 100k and 200k chord voices takes time linear in the number of chords
+     */
+    @Test
+    public void chordScalingTest() {
+        timeChordVoice(100000); // warm up the JIT
+        long small = timeChordVoice(100000);
+        long large = timeChordVoice(200000);
+        System.out.printf("Parser: 100k chords %.1f ms, 200k chords %.1f ms%n", small / 1e6, large / 1e6);
+
+        // doubling the input of a linear parser doubles the time, a quadratic one would take 4 times as long
+        assertTrue(large < 3 * small);
+    }
+
 }
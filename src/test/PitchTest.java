@@ -0,0 +1,63 @@
+package test;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import sound.Pitch;
+
+/**
+ * Tests the MIDI note lookups of Pitch
+ * Testing Strategy:
+ *  - toMidiNote(letter, octave, accidental) agrees with transposing a Pitch, for every letter,
+ *    octaves below and above the middle one, and flats and sharps
+ *  - valueOf gives the same Pitch object every time, with the MIDI note it was asked for
+ *  - letters and MIDI notes out of range throw
+ */
+public class PitchTest {
+
+    /**
+     * Tests the MIDI note lookup against transposing a Pitch
+     */
+    @Test
+    public void toMidiNoteTest() {
+        for (char c = 'A'; c <= 'G'; c++) {
+            for (int octave = -4; octave <= 3; octave++) {
+                for (int accidental = -2; accidental <= 2; accidental++) {
+                    int expected = new Pitch(c).transpose(Pitch.OCTAVE*octave + accidental).toMidiNote();
+                    assertEquals(c + " " + octave + " " + accidental, expected, Pitch.toMidiNote(c, octave, accidental));
+                }
+            }
+        }
+        assertEquals(60, Pitch.toMidiNote('C', 0, 0));
+        assertEquals(70, Pitch.toMidiNote('B', 0, -1));
+        assertEquals(73, Pitch.toMidiNote('C', 1, 1));
+    }
+
+    /**
+     * Tests the shared Pitch of every MIDI note
+     */
+    @Test
+    public void valueOfTest() {
+        for (int note = 0; note < 128; note++) {
+            assertEquals(note, Pitch.valueOf(note).toMidiNote());
+            assertSame(Pitch.valueOf(note), Pitch.valueOf(note));
+        }
+        assertEquals(new Pitch('C'), Pitch.valueOf(60));
+        assertEquals("^C", Pitch.valueOf(61).toString());
+    }
+
+    /**
+     * Tests that a letter out of A-G is rejected
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void invalidLetterTest() {
+        Pitch.toMidiNote('H', 0, 0);
+    }
+
+    /**
+     * Tests that a MIDI note out of 0-127 is rejected
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void invalidMidiNoteTest() {
+        Pitch.valueOf(128);
+    }
+}
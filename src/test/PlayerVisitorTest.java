@@ -0,0 +1,226 @@
+package test;
+
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import ast.*;
+import player.DurationVisitor;
+import player.Parser;
+import player.PlayerVisitor;
+import player.RationalNumber;
+import player.ScanningLexer;
+import sound.BarIndex;
+import sound.EventTimeline;
+import sound.SequencePlayer;
+
+/**
+ * Tests the PlayerVisitor, without playing anything
+ * Testing Strategy:
+ *  - note lengths convert to ticks exactly, including tuplet notes
+ *  - chords advance by their own length, whatever the lengths of their notes
+ *  - voices with different tuplets stay aligned to the tick after 10k bars
+ *  - every voice gets its own track and channel, skipping the percussion channel, with the same
+ *    notes whether the voices are rendered in parallel or one after another
+ *  - the bar index has a bar per bar line of each voice as it is played, repeats counted again,
+ *    with pickup bars and bars shorter or longer than the meter
+ */
+public class PlayerVisitorTest {
+
+    /**
+     * Tests converting note lengths to ticks
+     */
+    @Test
+    public void toTicksTest() {
+        // L:1/8 at 12 ticks per quarter note, a note of length 1 lasts 6 ticks
+        PlayerVisitor visitor = new PlayerVisitor(12, 100, new RationalNumber(1, 8));
+        assertEquals(6, visitor.toTicks(new RationalNumber(1, 1)));
+        assertEquals(4, visitor.toTicks(new RationalNumber(2, 3)));
+        assertEquals(9, visitor.toTicks(new RationalNumber(3, 2)));
+        assertEquals(2, visitor.toTicks(new RationalNumber(1, 3)));
+    }
+
+    /**
+     * Tests that a chord advances by its length
+     */
+    @Test
+    public void chordTest() {
+        PlayerVisitor visitor = new PlayerVisitor(12, 100, new RationalNumber(1, 8));
+        Voice voice = new Voice();
+        ArrayList<NoteElement> notes = new ArrayList<NoteElement>();
+        notes.add(new SingleNote('C', new RationalNumber(1, 1), 0, 0));
+        notes.add(new SingleNote('E', new RationalNumber(2, 1), 0, 0));
+        voice.addNote(new Chord(new RationalNumber(1, 1), notes));
+        voice.addNote(new Rest(new RationalNumber(1, 2)));
+
+        voice.accept(visitor);
+        assertEquals(9, visitor.getCurrentTick());
+    }
+
+    /**
+     * Tests that four voices of 10k bars of 4/4, in straight notes, triplets, duplets, quadruplets
+     * and thirds of a note, all end on the same tick
+     */
+    @Test
+    public void voiceAlignmentTest() {
+        final int bars = 10000;
+        String[] voiceBars = {
+                "C2 C2 C2 C2 |",
+                "(3CDE (3CDE (3CDE (3CDE |",
+                "(2CC (2CC C C |",
+                "(4CDEF (4CDEF C/3 C/3 C/3 C |",
+        };
+
+        StringBuilder abc = new StringBuilder("X:1\nT:Alignment\nM:4/4\nL:1/8\n");
+        for (int v=0;v<voiceBars.length;v++) {
+            abc.append("V:").append(v).append('\n');
+        }
+        abc.append("K:C\n");
+        for (int v=0;v<voiceBars.length;v++) {
+            abc.append("V:").append(v).append('\n');
+            for (int i=0;i<bars;i++) {
+                abc.append(voiceBars[v]);
+            }
+            abc.append('\n');
+        }
+
+        ScanningLexer lexer = new ScanningLexer(abc.toString());
+        Parser parser = new Parser();
+        parser.parse(lexer.lexHead(), lexer.lexBodyBuffer());
+        Song song = parser.getSong();
+
+        DurationVisitor durationV = new DurationVisitor();
+        durationV.visit(song);
+        int ticksPerQuarter = durationV.getTicksPerQuarter(song.getDefaultNoteLength());
+
+        for (Voice voice : song.getVoices()) {
+            PlayerVisitor visitor = new PlayerVisitor(ticksPerQuarter, song.getTempo(), song.getDefaultNoteLength());
+            voice.accept(visitor);
+            assertEquals("voice " + voice.getName(), bars*4*ticksPerQuarter, visitor.getCurrentTick());
+        }
+    }
+
+    /**
+     * Tests that the voices of a song are rendered into a track and channel each, the same way
+     * on several threads as on one
+     */
+    @Test
+    public void trackPerVoiceTest() {
+        String abc = "X:1\nT:Voices\nM:4/4\nL:1/8\nV:1\nV:2\nV:3\nK:C\n"
+                + "V:1\nC2 D2 E2 F2 |]\nV:2\n[CEG]8 |]\nV:3\nz4 (3cde c2 |]\n";
+        ScanningLexer lexer = new ScanningLexer(abc);
+        Parser parser = new Parser();
+        parser.parse(lexer.lexHead(), lexer.lexBodyBuffer());
+        Song song = parser.getSong();
+        DurationVisitor durationV = new DurationVisitor();
+        durationV.visit(song);
+        int ticksPerQuarter = durationV.getTicksPerQuarter(song.getDefaultNoteLength());
+
+        ForkJoinPool three = new ForkJoinPool(3);
+        ForkJoinPool one = new ForkJoinPool(1);
+        PlayerVisitor parallel = new PlayerVisitor(ticksPerQuarter, song.getTempo(), song.getDefaultNoteLength());
+        PlayerVisitor sequential = new PlayerVisitor(ticksPerQuarter, song.getTempo(), song.getDefaultNoteLength());
+        try {
+            parallel.visit(song, three);
+            sequential.visit(song, one);
+        } finally {
+            three.shutdown();
+            one.shutdown();
+        }
+
+        EventTimeline timeline = parallel.getPlayer().getTimeline();
+        EventTimeline expected = sequential.getPlayer().getTimeline();
+        timeline.sort();
+        expected.sort();
+        assertEquals(3, timeline.getTrackCount());
+        assertEquals(2 * (4 + 3 + 4), timeline.size());
+        assertEquals(expected.size(), timeline.size());
+        for (int i = 0; i < timeline.size(); i++) {
+            assertEquals(timeline.getTrack(i), timeline.getChannel(i));
+            assertEquals(expected.getTick(i), timeline.getTick(i));
+            assertEquals(expected.getTrack(i), timeline.getTrack(i));
+            assertEquals(expected.getPitch(i), timeline.getPitch(i));
+        }
+    }
+
+    /**
+     * Renders a tune
+     * @param abc the tune
+     * @param ticksPerQuarter the resolution to render at, 0 for the one the DurationVisitor calculates
+     * @return the visitor that rendered it
+     */
+    private static PlayerVisitor render(String abc, int ticksPerQuarter) {
+        ScanningLexer lexer = new ScanningLexer(abc);
+        Parser parser = new Parser();
+        parser.parse(lexer.lexHead(), lexer.lexBodyBuffer());
+        Song song = parser.getSong();
+        if (ticksPerQuarter == 0) {
+            DurationVisitor durationV = new DurationVisitor();
+            durationV.visit(song);
+            ticksPerQuarter = durationV.getTicksPerQuarter(song.getDefaultNoteLength());
+        }
+        PlayerVisitor visitor = new PlayerVisitor(ticksPerQuarter, song.getTempo(), song.getDefaultNoteLength());
+        visitor.visit(song);
+        return visitor;
+    }
+
+    /**
+     * Tests the bar index of the voices of a song
+     */
+    @Test
+    public void barIndexTest() {
+        PlayerVisitor visitor = render("X:1\nT:Bars\nM:3/4\nL:1/8\nQ:120\nV:1\nV:2\nK:C\n"
+                + "V:1\n|: C2 D2 E2 :| F6 | G4 z2 |]\nV:2\nC,6 | D,6 |]\n", 0);
+        int barTicks = 3 * visitor.getPlayer().getTimeline().getTicksPerQuarterNote();
+        BarIndex bars = visitor.getPlayer().getBarIndex();
+        assertEquals(2, bars.getVoiceCount());
+        assertEquals(4, bars.getBarCount());
+        // the voices are in the order of the Song
+        int longer = bars.getBarCount(0) == 4 ? 0 : 1;
+        assertEquals(2, bars.getBarCount(1 - longer));
+        for (int b = 0; b < 4; b++) {
+            assertEquals(barTicks * b, bars.getStartTick(longer, b));
+            assertEquals(barTicks * b, bars.getStartTick(b));
+        }
+
+    }
+
+    /**
+     * Tests that bars start at the bar lines, not on the grid of the meter
+     */
+    @Test
+    public void pickupBarTest() {
+        // a pickup of one quarter note, a bar of 5/4 in 4/4, a repeat ending at a ||, an ending skipped on replay
+        PlayerVisitor visitor = render("X:1\nT:Pickup\nM:4/4\nL:1/4\nK:C\n"
+                + "G | C D E F | G A B c d || |: c B | A2 [1 G2 :| [2 C2 |]\n", 1);
+        BarIndex bars = visitor.getPlayer().getBarIndex();
+        int[] starts = {0, 1, 5, 10, 12, 16, 18, 20};
+        assertEquals(starts.length, bars.getBarCount());
+        for (int b = 0; b < starts.length; b++) {
+            assertEquals("bar " + b, starts[b], bars.getStartTick(b));
+        }
+
+        // bar lines with nothing between them, and a rest, each start one bar
+        visitor = render("X:1\nT:Empty\nM:3/4\nL:1/4\nK:C\n| C D E | | z3 || |: F G A :|\n", 1);
+        bars = visitor.getPlayer().getBarIndex();
+        assertEquals(4, bars.getBarCount());
+        assertEquals(3, bars.getStartTick(1));
+        assertEquals(6, bars.getStartTick(2));
+        assertEquals(9, bars.getStartTick(3));
+    }
+
+    /**
+     * Tests that tracks skip the percussion channel, and share channels after the 15th
+     */
+    @Test
+    public void channelTest() throws Exception {
+        SequencePlayer player = new SequencePlayer(120, 4);
+        int[] channels = {0, 1, 2, 3, 4, 5, 6, 7, 8, 10, 11, 12, 13, 14, 15, 0, 1};
+        for (int t = 0; t < channels.length; t++) {
+            if (t > 0) {
+                player.newTrack();
+            }
+            assertEquals("track " + t, channels[t], player.getChannel());
+        }
+    }
+}
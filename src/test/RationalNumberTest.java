@@ -1,6 +1,8 @@
 package test;
 
 import static org.junit.Assert.*;
+import java.util.HashSet;
+import java.util.Set;
 import org.junit.Test;
 import player.RationalNumber;
 
@@ -14,6 +16,9 @@ import player.RationalNumber;
  *  - test the multiplication by a constant
  *  - test the multiplication of two RationalNumbers
  *  - test the lcm and gcd methods
+ *  - test that numbers are kept in lowest terms, and that equal numbers have equal hash codes
+ *  - test that small numbers are shared instead of allocated
+ *  - test that results too big for an int throw an ArithmeticException
  */
 public class RationalNumberTest {
     
@@ -132,5 +137,69 @@ public class RationalNumberTest {
     public void complexLcmTest() {
         assertEquals(404865780, RationalNumber.lcm(9834, 82340));
     }
-  
+
+    /**
+     * Tests that RationalNumbers are reduced
+     */
+    @Test
+    public void lowestTermsTest() {
+        RationalNumber a = new RationalNumber(6, 32);
+        assertEquals(3, a.getNumerator());
+        assertEquals(16, a.getDenominator());
+        assertEquals("0/1", new RationalNumber(0, 5).toString());
+        assertEquals(new RationalNumber(1, 2), new RationalNumber(1, 3).add(new RationalNumber(1, 6)));
+
+        Set<RationalNumber> set = new HashSet<RationalNumber>();
+        set.add(new RationalNumber(2, 4));
+        assertTrue(set.contains(new RationalNumber(1, 2)));
+        assertEquals(new RationalNumber(3, 9).hashCode(), new RationalNumber(1, 3).hashCode());
+    }
+
+    /**
+     * Tests that small results are shared instances
+     */
+    @Test
+    public void cacheTest() {
+        assertSame(RationalNumber.valueOf(1, 2), RationalNumber.valueOf(4, 8));
+        assertSame(RationalNumber.valueOf(3, 2), RationalNumber.valueOf(1, 1).mul(RationalNumber.valueOf(3, 2)));
+        assertSame(RationalNumber.valueOf(1, 3), RationalNumber.valueOf(1, 2).mul(RationalNumber.valueOf(2, 3)));
+        assertSame(RationalNumber.valueOf(5, 8), RationalNumber.valueOf(1, 2).add(RationalNumber.valueOf(1, 8)));
+        assertEquals(new RationalNumber(1000, 3), RationalNumber.valueOf(1000, 3));
+    }
+
+    /**
+     * Tests adding many durations, whose unreduced denominators would overflow
+     */
+    @Test
+    public void longSumTest() {
+        RationalNumber sum = RationalNumber.valueOf(0, 1);
+        for (int i = 0; i < 100000; i++) {
+            sum = sum.add(RationalNumber.valueOf(1, 3)).add(RationalNumber.valueOf(1, 6)).add(RationalNumber.valueOf(3, 4));
+        }
+        assertEquals(new RationalNumber(125000, 1), sum);
+    }
+
+    /**
+     * Tests that a product too big for an int throws
+     */
+    @Test(expected = ArithmeticException.class)
+    public void mulOverflowTest() {
+        RationalNumber.valueOf(1, 100000).mul(RationalNumber.valueOf(1, 100003));
+    }
+
+    /**
+     * Tests that a sum too big for an int throws
+     */
+    @Test(expected = ArithmeticException.class)
+    public void addOverflowTest() {
+        RationalNumber.valueOf(Integer.MAX_VALUE, 1).add(RationalNumber.valueOf(1, 1));
+    }
+
+    /**
+     * Tests that an lcm too big for an int throws
+     */
+    @Test(expected = ArithmeticException.class)
+    public void lcmOverflowTest() {
+        RationalNumber.lcm(100000, 100003);
+    }
 }
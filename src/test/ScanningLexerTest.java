@@ -0,0 +1,130 @@
+package test;
+
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import org.junit.Test;
+import player.Lexer;
+import player.Main;
+import player.ScanningLexer;
+import player.Token;
+import player.TokenBuffer;
+
+/**
+ * Tests the ScanningLexer class against the regex Lexer
+ * Testing Strategy:
+ *  - every file in sample_abc/ lexes to the same tokens with both lexers
+ *  - tricky inputs (lookbehinds, lookaheads, mid-tune voices) lex the same
+ *  - scanBar splits a body at bar lines, |: and voice fields, and the bars hold the tokens of the body
+ *  - compare the throughput of both lexers on a large body
+ */
+public class ScanningLexerTest {
+
+    /**
+     * Checks that both lexers produce the same tokens, including the fields Token.equals ignores
+     * @param input the abc string to lex
+     */
+    private void assertSameTokens(String input) {
+        ArrayList<Token> expected = new Lexer(input).lexBody();
+        ArrayList<Token> actual = new ScanningLexer(input).lexBody();
+
+        assertEquals(expected.size(), actual.size());
+        for (int i=0;i<expected.size();++i) {
+            assertEquals(expected.get(i).getType(), actual.get(i).getType());
+            assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+            assertEquals(expected.get(i), actual.get(i));
+        }
+    }
+
+    /**
+     * Tests that every sample file lexes the same with both lexers
+     */
+    @Test
+    public void sampleFilesTest() throws IOException {
+        for (File f : new File("sample_abc").listFiles()) {
+            assertSameTokens(Main.readFile(f.getPath()));
+        }
+    }
+
+    /**
+     * Tests barlines and brackets, which the regex tells apart with lookarounds
+     */
+    @Test
+    public void barsAndBracketsTest() {
+        assertSameTokens("K: C\n[|A|]]|:B:||[1c[2d[e]f||]|");
+    }
+
+    /**
+     * Tests accidentals that are not followed by a note
+     */
+    @Test
+    public void danglingAccidentalsTest() {
+        assertSameTokens("K: C\n^^^A __B =^C ^ _ = ^^");
+    }
+
+    /**
+     * Tests mid-tune voice fields, including one that is not followed by a newline
+     */
+    @Test
+    public void voiceTest() {
+        assertSameTokens("K: C\nV: upper\nA B|\nV:A\nc\nV:  lower  \nd\nV: last");
+    }
+
+    /**
+     * Tests that scanBar ends a bar after |, || and :|, and before |: and voice fields
+     */
+    @Test
+    public void scanBarTest() {
+        String body = "A B | c V:1\nd |: e :| f [1 g |\nV:2\n";
+        TokenBuffer whole = new TokenBuffer();
+        ScanningLexer.scan(body, whole);
+
+        TokenBuffer bars = new TokenBuffer();
+        ArrayList<String> texts = new ArrayList<String>();
+        int start = 0;
+        while (start < body.length()) {
+            int end = ScanningLexer.scanBar(body, start, bars);
+            assertTrue(end > start);
+            texts.add(body.substring(start, end));
+            start = end;
+        }
+        assertEquals(whole.toTokens(), bars.toTokens());
+        assertEquals("[A B |,  c V:, 1\nd , |: e :|,  f [1 g |, \nV:2\n]", texts.toString());
+    }
+
+    /**
+     * Compares the throughput of both lexers on the bodies of the sample files repeated
+     */
+    @Test
+    public void throughputTest() throws IOException {
+        StringBuilder body = new StringBuilder("K: C\n");
+        for (int i=0;i<50;i++) {
+            for (File f : new File("sample_abc").listFiles()) {
+                body.append(new Lexer(Main.readFile(f.getPath())).getBody()).append('\n');
+            }
+        }
+        String input = body.toString();
+        double megabytes = input.length() / (1024.0*1024.0);
+
+        Lexer regexLexer = new Lexer(input);
+        Lexer scanningLexer = new ScanningLexer(input);
+
+        // take the best of a few rounds, the first ones also warm up the JIT
+        double regexSeconds = Double.MAX_VALUE, scanningSeconds = Double.MAX_VALUE;
+        int regexTokens = 0, scanningTokens = 0;
+        for (int round=0;round<5;round++) {
+            long start = System.nanoTime();
+            regexTokens = regexLexer.lexBody().size();
+            regexSeconds = Math.min(regexSeconds, (System.nanoTime() - start) / 1e9);
+
+            start = System.nanoTime();
+            scanningTokens = scanningLexer.lexBody().size();
+            scanningSeconds = Math.min(scanningSeconds, (System.nanoTime() - start) / 1e9);
+        }
+
+        System.out.printf("Lexer: %.1f MB/s, ScanningLexer: %.1f MB/s (%.2f MB, %d tokens)%n",
+                megabytes / regexSeconds, megabytes / scanningSeconds, megabytes, scanningTokens);
+        assertEquals(regexTokens, scanningTokens);
+    }
+}
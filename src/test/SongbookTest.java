@@ -0,0 +1,133 @@
+package test;
+
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import player.CompiledTune;
+import player.Lexer;
+import player.Main;
+import player.Parser;
+import player.ParserException;
+import player.Songbook;
+
+/**
+ * Tests the Songbook class
+ * Testing Strategy:
+ *  - tune boundaries are only found at lines starting with X:, text before the first tune is ignored
+ *  - every tune compiles to the same Song as its own file does, and comes back in file order
+ *  - a tune that fails to compile does not stop the other tunes
+ *  - compiling a big songbook on one thread and on many gives the same result
+ */
+public class SongbookTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Reads the sample files
+     * @return the contents of every file in sample_abc/, ending with a newline
+     */
+    private List<String> sampleTunes() throws IOException {
+        List<String> tunes = new ArrayList<String>();
+        for (File f : new File("sample_abc").listFiles()) {
+            tunes.add(Main.readFile(f.getPath()) + "\n");
+        }
+        return tunes;
+    }
+
+    /**
+     * Creates a Songbook from a String
+     * @param text the songbook
+     * @return a Songbook over the UTF-8 encoding of text
+     */
+    private Songbook songbook(String text) {
+        return new Songbook(ByteBuffer.wrap(text.getBytes(UTF8)), UTF8);
+    }
+
+    /**
+     * Tests finding the tune boundaries
+     */
+    @Test
+    public void findTunesTest() {
+        String text = "% file header\nX in the header\nX:1\nT:A\nK:C\nA\nX:2\nT:B X:3\nK:C\nB\n";
+        int[] starts = Songbook.findTunes(ByteBuffer.wrap(text.getBytes(UTF8)));
+        assertArrayEquals(new int[] {text.indexOf("X:1"), text.indexOf("X:2")}, starts);
+
+        assertEquals(0, Songbook.findTunes(ByteBuffer.wrap("T:no tunes\nK:C\n".getBytes(UTF8))).length);
+    }
+
+    /**
+     * Tests that the tunes of a songbook compile to the same Songs as the sample files, in order
+     */
+    @Test
+    public void compileAllTest() throws IOException {
+        List<String> tunes = sampleTunes();
+        StringBuilder text = new StringBuilder("% songbook header\n");
+        for (String tune : tunes) {
+            text.append(tune);
+        }
+
+        List<CompiledTune> compiled = songbook(text.toString()).compileAll();
+        assertEquals(tunes.size(), compiled.size());
+        for (int i=0;i<tunes.size();i++) {
+            Lexer lexer = new Lexer(tunes.get(i));
+            Parser parser = new Parser();
+            parser.parse(lexer.lexHead(), lexer.lexBody());
+
+            assertTrue(compiled.get(i).isCompiled());
+            assertEquals(i, compiled.get(i).getIndex());
+            assertEquals(lexer.getHead(), compiled.get(i).getHead());
+            assertEquals(parser.getSong(), compiled.get(i).getSong());
+        }
+    }
+
+    /**
+     * Tests that a broken tune is reported without stopping the others
+     */
+    @Test
+    public void failedTuneTest() {
+        List<CompiledTune> compiled = songbook("X:1\nT:A\nK:C\nA B\nX:2\nT:B\nK:C\n[A z]\nX:3\nT:C\nK:C\nc\n").compileAll();
+        assertEquals(3, compiled.size());
+        assertTrue(compiled.get(0).isCompiled());
+        assertFalse(compiled.get(1).isCompiled());
+        assertTrue(compiled.get(1).getError() instanceof ParserException);
+        assertNull(compiled.get(1).getSong());
+        assertTrue(compiled.get(2).isCompiled());
+    }
+
+    /**
+     * Tests that a songbook of hundreds of tunes compiles the same on one thread and on all cores
+     */
+    @Test
+    public void parallelTest() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i=0;i<40;i++) {
+            for (String tune : sampleTunes()) {
+                text.append(tune);
+            }
+        }
+        Songbook book = songbook(text.toString());
+
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool pool = new ForkJoinPool();
+        List<CompiledTune> sequential;
+        List<CompiledTune> parallel;
+        try {
+            sequential = book.compileAll(single);
+            parallel = book.compileAll(pool);
+        } finally {
+            single.shutdown();
+            pool.shutdown();
+        }
+
+        assertEquals(book.size(), parallel.size());
+        assertEquals(book.size(), sequential.size());
+        for (int i=0;i<book.size();i++) {
+            assertEquals(sequential.get(i).getSong(), parallel.get(i).getSong());
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package test;
+
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import org.junit.Test;
+import player.Lexer;
+import player.LexerException;
+import player.Main;
+import player.StreamingLexer;
+import player.Token;
+
+/**
+ * Tests the StreamingLexer class
+ * Testing Strategy:
+ *  - every file in sample_abc/ lexes to the same header and tokens as with the Lexer
+ *  - the input can be a Reader, a CharBuffer or a ByteBuffer
+ *  - comments are ignored
+ *  - a missing K: field throws a LexerException
+ *  - an input far bigger than the line buffer is lexed without being held in memory
+ */
+public class StreamingLexerTest {
+
+    /**
+     * Checks that a StreamingLexer gives the same header and tokens as a Lexer
+     * @param input the abc string the StreamingLexer reads from
+     * @param streamingLexer the StreamingLexer to check
+     */
+    private void assertSameAsLexer(String input, StreamingLexer streamingLexer) {
+        Lexer lexer = new Lexer(input);
+        assertEquals(lexer.getHead(), streamingLexer.getHead());
+        assertEquals(lexer.lexHead(), streamingLexer.lexHead());
+
+        ArrayList<Token> expected = lexer.lexBody();
+        ArrayList<Token> actual = streamingLexer.lexBody();
+        assertEquals(expected.size(), actual.size());
+        for (int i=0;i<expected.size();++i) {
+            assertEquals(expected.get(i).getType(), actual.get(i).getType());
+            assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+            assertEquals(expected.get(i), actual.get(i));
+        }
+    }
+
+    /**
+     * Tests lexing the sample files from a Reader
+     */
+    @Test
+    public void readerTest() throws IOException {
+        for (File f : new File("sample_abc").listFiles()) {
+            String input = Main.readFile(f.getPath());
+            assertSameAsLexer(input, new StreamingLexer(new StringReader(input)));
+        }
+    }
+
+    /**
+     * Tests lexing the sample files from a CharBuffer
+     */
+    @Test
+    public void charBufferTest() throws IOException {
+        for (File f : new File("sample_abc").listFiles()) {
+            String input = Main.readFile(f.getPath());
+            assertSameAsLexer(input, new StreamingLexer(CharBuffer.wrap(input)));
+        }
+    }
+
+    /**
+     * Tests lexing the sample files from an encoded ByteBuffer
+     */
+    @Test
+    public void byteBufferTest() throws IOException {
+        Charset charset = Charset.forName("UTF-8");
+        for (File f : new File("sample_abc").listFiles()) {
+            String input = Main.readFile(f.getPath());
+            ByteBuffer bytes = ByteBuffer.wrap(input.getBytes(charset));
+            assertSameAsLexer(input, StreamingLexer.forBuffer(bytes, charset));
+        }
+    }
+
+    /**
+     * Tests that comments are ignored, in the header and in the body
+     */
+    @Test
+    public void ignoreCommentTest() {
+        String input = "X:1%index\nT:Title\nK:C%key\nA B%notes\n%comment\n| c\n";
+        assertSameAsLexer(input, new StreamingLexer(new StringReader(input)));
+    }
+
+    /**
+     * Tests that an input without a K: field throws an exception
+     */
+    @Test(expected = LexerException.class)
+    public void noKeyTest() {
+        new StreamingLexer(new StringReader("X:1\nT:Title\nA B C\n"));
+    }
+
+    /**
+     * Tests that the body can be lexed one token at a time
+     */
+    @Test
+    public void iteratorTest() {
+        StreamingLexer lexer = new StreamingLexer(new StringReader("K:C\nA |\n"));
+        assertTrue(lexer.hasNext());
+        assertEquals(Token.Type.KEYNOTE, lexer.next().getType());
+        assertEquals(Token.Type.BAR, lexer.next().getType());
+        assertFalse(lexer.hasNext());
+    }
+
+    /**
+     * Tests lexing a long body that is generated as it is read and never exists as a String
+     */
+    @Test
+    public void largeInputTest() {
+        final int lines = 200000;
+        final String header = "X:1\nT:Long\nK:C\n";
+        final String bar = "A B [ce] z/2 (3 D E F |\n";
+
+        Readable generated = new Readable() {
+            private int line = -1;
+
+            @Override
+            public int read(CharBuffer cb) {
+                if (line >= lines) {
+                    return -1;
+                }
+                String text = line < 0 ? header : bar;
+                if (cb.remaining() < text.length()) {
+                    return 0;
+                }
+                cb.put(text);
+                line++;
+                return text.length();
+            }
+        };
+
+        StreamingLexer lexer = new StreamingLexer(generated);
+        int count = 0;
+        while (lexer.hasNext()) {
+            lexer.next();
+            count++;
+        }
+        assertEquals(lines*12, count);
+    }
+}
@@ -0,0 +1,140 @@
+package test;
+
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import org.junit.Test;
+import player.Lexer;
+import player.LexerException;
+import player.Main;
+import player.Parser;
+import player.RationalNumber;
+import player.ScanningLexer;
+import player.Token;
+import player.TokenBuffer;
+
+/**
+ * Tests the TokenBuffer class
+ * Testing Strategy:
+ *  - tokens added to a buffer come back equal, including the fields Token.equals ignores
+ *  - a Cursor reads the same fields as the indexed getters and can seek
+ *  - the buffer grows past its initial capacity
+ *  - a note whose octave or accidental is out of range throws and adds no token
+ *  - parsing a buffer gives the same Song as parsing the list of tokens, and does not modify it
+ */
+public class TokenBufferTest {
+
+    /**
+     * Tests that every sample file's tokens survive a round trip through a TokenBuffer
+     */
+    @Test
+    public void roundTripTest() throws IOException {
+        for (File f : new File("sample_abc").listFiles()) {
+            ArrayList<Token> expected = new Lexer(Main.readFile(f.getPath())).lexBody();
+            ArrayList<Token> actual = TokenBuffer.of(expected).toTokens();
+
+            assertEquals(expected.size(), actual.size());
+            for (int i=0;i<expected.size();++i) {
+                assertEquals(expected.get(i).getType(), actual.get(i).getType());
+                assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+                assertEquals(expected.get(i), actual.get(i));
+            }
+        }
+    }
+
+    /**
+     * Tests reading notes, rests and other tokens with a Cursor
+     */
+    @Test
+    public void cursorTest() {
+        TokenBuffer buffer = new TokenBuffer(1);
+        buffer.addNote('C', 1, -2, 3, 2);
+        buffer.addRest(1, 4);
+        buffer.add(Token.Type.VOICE, "upper");
+        buffer.addNote('G', -1, Integer.MAX_VALUE, 1, 1);
+        assertEquals(4, buffer.size());
+
+        TokenBuffer.Cursor cursor = buffer.cursor();
+        assertEquals(Token.Type.KEYNOTE, cursor.type());
+        assertEquals('C', cursor.pitch());
+        assertEquals(1, cursor.octave());
+        assertEquals(-2, cursor.accidental());
+        assertEquals(3, cursor.numerator());
+        assertEquals(2, cursor.denominator());
+        assertEquals("C", cursor.value());
+
+        cursor.advance();
+        assertEquals(Token.Type.REST, cursor.type());
+        assertEquals("z", cursor.value());
+        assertEquals(new RationalNumber(1,4), buffer.getDuration(cursor.position()));
+
+        cursor.advance();
+        assertEquals(Token.Type.VOICE, cursor.type());
+        assertEquals("upper", cursor.value());
+
+        cursor.seek(3);
+        assertEquals(Integer.MAX_VALUE, cursor.accidental());
+        assertEquals(-1, cursor.octave());
+        cursor.advance();
+        assertFalse(cursor.hasCurrent());
+    }
+
+    /**
+     * Tests that reading past the end of the buffer throws an exception
+     */
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void outOfBoundsTest() {
+        TokenBuffer buffer = new TokenBuffer();
+        buffer.add(Token.Type.BAR, "|");
+        buffer.getType(1);
+    }
+
+    /**
+     * Tests that a rejected note leaves the buffer as it was
+     */
+    @Test
+    public void rejectedNoteTest() {
+        TokenBuffer buffer = new TokenBuffer();
+        buffer.add(Token.Type.BAR, "|");
+        try {
+            buffer.addNote('C', 200, Integer.MAX_VALUE, 1, 1);
+            fail("expected the octave to be rejected");
+        } catch (LexerException e) {
+            assertEquals(1, buffer.size());
+        }
+        try {
+            buffer.addNote('C', 0, -200, 1, 1);
+            fail("expected the accidental to be rejected");
+        } catch (LexerException e) {
+            assertEquals(1, buffer.size());
+        }
+        buffer.addNote('C', 0, 1, 1, 2);
+        assertEquals(2, buffer.size());
+        assertEquals(Token.Type.KEYNOTE, buffer.getType(1));
+    }
+
+    /**
+     * Tests that parsing a buffer gives the same Song as parsing a list, and can be repeated
+     */
+    @Test
+    public void parseTest() throws IOException {
+        for (File f : new File("sample_abc").listFiles()) {
+            String input = Main.readFile(f.getPath());
+
+            Lexer lexer = new Lexer(input);
+            Parser fromList = new Parser();
+            fromList.parse(lexer.lexHead(), lexer.lexBody());
+
+            ScanningLexer scanningLexer = new ScanningLexer(input);
+            TokenBuffer body = scanningLexer.lexBodyBuffer();
+            Parser fromBuffer = new Parser();
+            fromBuffer.parse(scanningLexer.lexHead(), body);
+            assertEquals(fromList.getSong(), fromBuffer.getSong());
+
+            Parser again = new Parser();
+            again.parse(scanningLexer.lexHead(), body);
+            assertEquals(fromList.getSong(), again.getSong());
+        }
+    }
+}
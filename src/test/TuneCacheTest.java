@@ -0,0 +1,167 @@
+package test;
+
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import org.junit.Test;
+import ast.Song;
+import player.CachedTune;
+import player.CompilationMetrics;
+import player.CompiledTune;
+import player.Main;
+import player.TuneCache;
+import sound.BarIndex;
+import sound.SequencePlayer;
+
+/**
+ * Tests the CachedTune format and the TuneCache
+ * Testing Strategy:
+ *  - every sample tune, serialized and read back, makes the same MIDI events in the same tracks,
+ *    with the same bar index, tempo and length in time, including tunes whose L: is not 1/4
+ *  - a stored tune is loaded back under the hash of its source, and any change to the source misses
+ *  - a truncated or foreign cache file is a miss, not an error
+ */
+public class TuneCacheTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Lists the note events of each track of a player
+     * @param player the player
+     * @return per track, the sorted "tick command pitch" of its NOTE_ON and NOTE_OFF events
+     */
+    private List<List<String>> events(SequencePlayer player) {
+        List<List<String>> tracks = new ArrayList<List<String>>();
+        for (Track track : player.getSequence().getTracks()) {
+            List<String> events = new ArrayList<String>();
+            for (int i=0;i<track.size();i++) {
+                MidiEvent e = track.get(i);
+                if (e.getMessage() instanceof ShortMessage) {
+                    ShortMessage m = (ShortMessage) e.getMessage();
+                    events.add(e.getTick() + " " + m.getCommand() + " " + m.getData1());
+                }
+            }
+            Collections.sort(events);
+            tracks.add(events);
+        }
+        return tracks;
+    }
+
+    /**
+     * Compiles a tune
+     * @param source the tune
+     * @return the compiled tune
+     */
+    private CompiledTune compile(String source) {
+        return CompiledTune.compile(0, ByteBuffer.wrap(source.getBytes(UTF8)), UTF8);
+    }
+
+    /**
+     * Tests that the sample tunes come back from the binary format unchanged
+     */
+    @Test
+    public void roundTripTest() throws IOException {
+        for (File f : new File("sample_abc").listFiles()) {
+            CompiledTune tune = compile(Main.readFile(f.getPath()));
+            Song song = tune.getSong();
+            SequencePlayer player = tune.render(CompilationMetrics.NONE);
+
+            CachedTune cached = CachedTune.fromPlayer(tune.getHead(), song.getTitle(), song.getIndex(), player);
+            CachedTune read = CachedTune.fromBytes(cached.toBytes());
+            assertEquals(tune.getHead(), read.getHead());
+            assertEquals(song.getTitle(), read.getTitle());
+            assertEquals(song.getIndex(), read.getIndex());
+            assertEquals(song.getVoices().size(), read.getVoiceCount());
+
+            SequencePlayer replayed = read.toPlayer();
+            assertEquals(f.getName(), events(player), events(replayed));
+            assertEquals(player.getSequence().getResolution(), replayed.getSequence().getResolution());
+            assertEquals(player.getSequence().getTickLength(), replayed.getSequence().getTickLength());
+            assertEquals(f.getName(), player.getTimeline().getBeatsPerMinute(), replayed.getTimeline().getBeatsPerMinute());
+            assertEquals(f.getName(), player.getSequence().getMicrosecondLength(), replayed.getSequence().getMicrosecondLength());
+
+            BarIndex bars = player.getBarIndex();
+            BarIndex readBars = replayed.getBarIndex();
+            assertEquals(bars.getVoiceCount(), readBars.getVoiceCount());
+            for (int v = 0; v < bars.getVoiceCount(); v++) {
+                assertEquals(bars.getBarCount(v), readBars.getBarCount(v));
+                for (int b = 0; b < bars.getBarCount(v); b++) {
+                    assertEquals(bars.getStartTick(v, b), readBars.getStartTick(v, b));
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests storing and loading by hash
+     */
+    @Test
+    public void storeLoadTest() throws IOException {
+        File dir = File.createTempFile("cache", "");
+        dir.delete();
+        TuneCache cache = new TuneCache(dir);
+
+        String source = "X:1\nT:Cached\nK:D\nA B c [df] |\n";
+        String changed = "X:1\nT:Cached\nK:D\nA B c [dg] |\n";
+        String hash = TuneCache.hash(ByteBuffer.wrap(source.getBytes(UTF8)));
+        assertEquals(64, hash.length());
+        assertFalse(hash.equals(TuneCache.hash(ByteBuffer.wrap(changed.getBytes(UTF8)))));
+        assertNull(cache.load(hash));
+
+        CompiledTune tune = compile(source);
+        SequencePlayer player = tune.render(CompilationMetrics.NONE);
+        cache.store(hash, CachedTune.fromPlayer(tune.getHead(), "Cached", 1, player));
+
+        CachedTune loaded = cache.load(hash);
+        assertNotNull(loaded);
+        assertEquals("Cached", loaded.getTitle());
+        assertEquals(5, loaded.getNoteCount(0));
+        assertEquals(events(player), events(loaded.toPlayer()));
+        assertEquals(player.getTimeline().getBeatsPerMinute(), loaded.toPlayer().getTimeline().getBeatsPerMinute());
+        assertNull(cache.load(TuneCache.hash(ByteBuffer.wrap(changed.getBytes(UTF8)))));
+
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Tests that broken cache files are misses
+     */
+    @Test
+    public void brokenFileTest() throws IOException {
+        File dir = File.createTempFile("cache", "");
+        dir.delete();
+        TuneCache cache = new TuneCache(dir);
+
+        CompiledTune tune = compile("X:1\nT:Broken\nK:C\nC D E F |\n");
+        ByteBuffer bytes = CachedTune.fromPlayer(tune.getHead(), "Broken", 1, tune.render(CompilationMetrics.NONE)).toBytes();
+        cache.store("whole", CachedTune.fromBytes(bytes.duplicate()));
+        assertNotNull(cache.load("whole"));
+
+        // cut off in the middle of the notes
+        FileOutputStream out = new FileOutputStream(new File(dir, "truncated.abcc"));
+        out.write(bytes.array(), 0, bytes.limit() - 5);
+        out.close();
+        assertNull(cache.load("truncated"));
+
+        out = new FileOutputStream(new File(dir, "foreign.abcc"));
+        out.write("X:1\nT:Not a cache file\n".getBytes(UTF8));
+        out.close();
+        assertNull(cache.load("foreign"));
+
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+}
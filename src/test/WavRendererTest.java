@@ -0,0 +1,115 @@
+package test;
+
+import static org.junit.Assert.*;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import org.junit.Test;
+import sound.SequencePlayer;
+import sound.WavRenderer;
+
+/**
+ * Tests the WavRenderer, which needs no audio device
+ * Testing Strategy:
+ *  - a tune renders to a WAV file in the expected format, as long as the tune plus a second, and not silent
+ *  - the same WavRenderer renders several tunes one after the other
+ *  - renderAll writes every tune on several threads, and reports the ones that fail
+ */
+public class WavRendererTest {
+
+    /**
+     * Makes a player of a scale
+     * @param notes the number of notes, each a quarter note at 120 beats per minute
+     * @return the player
+     */
+    private static SequencePlayer scale(int notes) throws Exception {
+        SequencePlayer player = new SequencePlayer(120, 4);
+        for (int i = 0; i < notes; i++) {
+            player.addNote(60 + i % 12, 4 * i, 4);
+        }
+        return player;
+    }
+
+    /**
+     * Checks a WAV file
+     * @param file the file
+     * @param seconds the length of the tune it was rendered from
+     */
+    private static void checkWav(File file, double seconds) throws Exception {
+        AudioInputStream audio = AudioSystem.getAudioInputStream(file);
+        try {
+            assertEquals(WavRenderer.FORMAT.getSampleRate(), audio.getFormat().getSampleRate(), 0);
+            assertEquals(2, audio.getFormat().getChannels());
+            assertEquals(16, audio.getFormat().getSampleSizeInBits());
+            assertEquals((seconds + 1) * 44100, audio.getFrameLength(), 1);
+
+            byte[] samples = new byte[(int) audio.getFrameLength() * 4];
+            int read = 0;
+            while (read < samples.length) {
+                int n = audio.read(samples, read, samples.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            int loudest = 0;
+            for (int i = 0; i + 1 < read; i += 2) {
+                loudest = Math.max(loudest, Math.abs((short) ((samples[i] & 0xFF) | samples[i + 1] << 8)));
+            }
+            assertTrue("silent", loudest > 1000);
+        } finally {
+            audio.close();
+        }
+    }
+
+    /**
+     * Tests rendering tunes one after the other
+     */
+    @Test
+    public void writeTest() throws Exception {
+        WavRenderer renderer = new WavRenderer();
+        File first = File.createTempFile("abcplayer", ".wav");
+        File second = File.createTempFile("abcplayer", ".wav");
+        try {
+            renderer.write(scale(4), first);
+            renderer.write(scale(2), second);
+            checkWav(first, 2);
+            checkWav(second, 1);
+        } finally {
+            first.delete();
+            second.delete();
+        }
+    }
+
+    /**
+     * Tests rendering tunes in parallel
+     */
+    @Test
+    public void renderAllTest() throws Exception {
+        List<SequencePlayer> players = new ArrayList<SequencePlayer>();
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < 4; i++) {
+            players.add(scale(2 * (i + 1)));
+            files.add(File.createTempFile("abcplayer", ".wav"));
+        }
+        // a file that cannot be written
+        players.add(scale(1));
+        files.add(new File(files.get(0), "not-a-directory.wav"));
+
+        try {
+            List<Exception> errors = WavRenderer.renderAll(players, files, 2);
+            assertEquals(5, errors.size());
+            for (int i = 0; i < 4; i++) {
+                assertNull(errors.get(i));
+                checkWav(files.get(i), i + 1);
+            }
+            assertNotNull(errors.get(4));
+        } finally {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+    }
+}